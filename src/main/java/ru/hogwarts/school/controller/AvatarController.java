@@ -6,24 +6,35 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
-import ru.hogwarts.school.model.Avatar;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.model.AvatarImportResult;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.model.AvatarMetadata;
+import ru.hogwarts.school.model.AvatarUploadStatus;
+import ru.hogwarts.school.model.AvatarVariantMetadata;
+import ru.hogwarts.school.service.AvatarExportService;
+import ru.hogwarts.school.service.AvatarImportService;
 import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.service.AvatarUploadService;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
 
 @RestController //todo tests
 @RequestMapping("/avatar")
@@ -31,9 +42,18 @@ import java.nio.file.Path;
 public class AvatarController {
 
     private final AvatarService avatarService;
+    private final AvatarImportService avatarImportService;
+    private final AvatarExportService avatarExportService;
+    private final AvatarUploadService avatarUploadService;
 
-    public AvatarController(AvatarService avatarService) {
+    public AvatarController(AvatarService avatarService,
+                            AvatarImportService avatarImportService,
+                            AvatarExportService avatarExportService,
+                            AvatarUploadService avatarUploadService) {
         this.avatarService = avatarService;
+        this.avatarImportService = avatarImportService;
+        this.avatarExportService = avatarExportService;
+        this.avatarUploadService = avatarUploadService;
     }
 
     /**
@@ -55,13 +75,125 @@ public class AvatarController {
             avatarService.uploadAvatar(studentId, avatar);
             return ResponseEntity.noContent().build();
         } else {
-            throw new IllegalArgumentException("Аватар не может быть null");
+            throw new BadRequestException("Аватар не может быть null");
         }
     }
 
     /**
-     * @param id идентификатор студента, по которому будет поиск в БД
-     * @return найденный файл аватара, либо ошибка not found
+     * Начинает загрузку аватара по частям для медленных и нестабильных соединений
+     *
+     * @param studentId студент, которому будет назначен аватар
+     * @param size      полный размер файла в байтах
+     * @param mediaType тип изображения, например image/png
+     * @return сессия загрузки; заголовок Location - ее адрес
+     */
+    @PostMapping("/{studentId}/uploads")
+    @Operation(summary = "Начинает загрузку аватара по частям",
+            description = "Создает сессию, в которую части файла отправляются запросами PUT по смещениям",
+            responses = {
+                    @ApiResponse(responseCode = "201", description = "Сессия создана"),
+                    @ApiResponse(responseCode = "400", description = "Недопустимый размер или тип файла"),
+                    @ApiResponse(responseCode = "404", description = "Студент не найден")
+            })
+    public ResponseEntity<AvatarUploadStatus> createUpload(@PathVariable Long studentId,
+                                                           @RequestParam long size,
+                                                           @RequestParam String mediaType) {
+        AvatarUploadStatus upload = avatarUploadService.createUpload(studentId, mediaType, size);
+        return ResponseEntity.created(URI.create("/avatar/uploads/" + upload.id())).body(upload);
+    }
+
+    /**
+     * @param uploadId ID сессии загрузки
+     * @return подтвержденное смещение, с которого продолжать загрузку после обрыва
+     */
+    @GetMapping("/uploads/{uploadId}")
+    @Operation(summary = "Состояние загрузки по частям",
+            description = "Возвращает подтвержденное смещение, с которого продолжать загрузку",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Сессия найдена"),
+                    @ApiResponse(responseCode = "404", description = "Сессии нет или она истекла")
+            })
+    public ResponseEntity<AvatarUploadStatus> getUpload(@PathVariable String uploadId) {
+        return ResponseEntity.ok(avatarUploadService.getUpload(uploadId));
+    }
+
+    /**
+     * Тело запроса - байты файла начиная с offset, читаются потоком
+     *
+     * @param uploadId ID сессии загрузки
+     * @param offset   смещение первого байта части; не больше подтвержденного
+     * @param request  запрос с частью файла в теле
+     * @return состояние сессии после записи части
+     * @throws IOException ошибка чтения тела или записи файла
+     */
+    @PutMapping(value = "/uploads/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @Operation(summary = "Загружает часть аватара",
+            description = "Пишет часть файла по смещению; повторно присланные байты перезаписываются",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Часть принята"),
+                    @ApiResponse(responseCode = "404", description = "Сессии нет или она истекла"),
+                    @ApiResponse(responseCode = "409", description = "Смещение дальше подтвержденного или часть больше объявленного размера")
+            })
+    public ResponseEntity<AvatarUploadStatus> writeChunk(@PathVariable String uploadId,
+                                                         @RequestParam long offset,
+                                                         HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok(avatarUploadService.writeChunk(uploadId, offset, request.getInputStream()));
+    }
+
+    /**
+     * @param uploadId ID сессии загрузки
+     * @param checksum ожидаемый SHA-256 файла в hex, необязательно
+     * @throws IOException ошибка чтения загруженного файла
+     */
+    @PostMapping("/uploads/{uploadId}/complete")
+    @Operation(summary = "Завершает загрузку по частям",
+            description = "Назначает студенту загруженный файл и закрывает сессию",
+            responses = {
+                    @ApiResponse(responseCode = "204", description = "Аватар загружен"),
+                    @ApiResponse(responseCode = "404", description = "Сессии нет или она истекла"),
+                    @ApiResponse(responseCode = "409", description = "Файл загружен не полностью или не совпал SHA-256")
+            })
+    public ResponseEntity<Void> completeUpload(@PathVariable String uploadId,
+                                               @RequestParam(required = false) String checksum) throws IOException {
+        avatarUploadService.completeUpload(uploadId, checksum);
+        return ResponseEntity.noContent().build();
+    }
+
+    @DeleteMapping("/uploads/{uploadId}")
+    @Operation(summary = "Отменяет загрузку по частям", description = "Удаляет сессию и принятые байты")
+    public ResponseEntity<Void> cancelUpload(@PathVariable String uploadId) throws IOException {
+        avatarUploadService.cancelUpload(uploadId);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Массовая загрузка аватаров одним ZIP-архивом в теле запроса (не multipart).
+     * Записи архива именуются &lt;studentId&gt;.&lt;ext&gt;, вложенные каталоги допускаются.
+     *
+     * @param request запрос, тело которого читается потоком
+     * @return результат по каждой записи архива
+     * @throws IOException ошибка чтения тела запроса
+     */
+    @PostMapping(value = "/import", consumes = {"application/zip", MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    @Operation(summary = "Импортирует аватары из ZIP-архива",
+            description = "Назначает аватары студентам по именам записей архива <studentId>.<ext>",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Архив обработан, результат по каждой записи")
+            })
+    public ResponseEntity<List<AvatarImportResult>> importAvatars(HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok(avatarImportService.importAvatars(request.getInputStream()));
+    }
+
+    /**
+     * Валидаторы (ETag по хешу содержимого, Last-Modified) берутся из метаданных,
+     * поэтому на If-None-Match / If-Modified-Since ответ 304 уходит без чтения содержимого.
+     * Оригинал пишется в ответ потоком из БД, а не собирается в byte[].
+     *
+     * @param id       идентификатор студента, по которому будет поиск в БД
+     * @param size     размер миниатюры в пикселях; пока миниатюра не готова, отдается оригинал
+     * @param request  запрос с условными заголовками
+     * @param response ответ, в который пишется содержимое
+     * @throws IOException ошибка записи ответа
      */
 
     @GetMapping(value = "/{id}/avatar-from-db")
@@ -69,54 +201,129 @@ public class AvatarController {
             description = "Возвращает аватар по ID студента из базы данных",
             responses = {
                     @ApiResponse(responseCode = "200", description = "Аватар найден"),
+                    @ApiResponse(responseCode = "304", description = "Аватар не изменился"),
                     @ApiResponse(responseCode = "404", description = "Аватар не найден")
             })
-    public ResponseEntity<byte[]> downloadAvatar(@PathVariable Long id) {
-        Avatar avatar = avatarService.findAvatar(id);
-        if (avatar != null) {
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.valueOf(avatar.getMediaType()));
-            headers.setContentLength(avatar.getData().length);
-            return ResponseEntity.status(HttpStatus.OK).headers(headers).body(avatar.getData());
-        } else {
-            return ResponseEntity.notFound().build();
+    public void downloadAvatarFromDb(@PathVariable Long id,
+                                     @RequestParam(required = false) Integer size,
+                                     HttpServletRequest request,
+                                     HttpServletResponse response) throws IOException {
+        AvatarMetadata metadata = avatarService.findAvatarMetadata(id);
+        if (metadata == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Integer variantSize = readyVariantSize(metadata, size);
+        if (new ServletWebRequest(request, response).checkNotModified(etag(metadata, variantSize), lastModified(metadata))) {
+            return;
+        }
+        Optional<AvatarVariantMetadata> variant = variantSize != null
+                ? avatarService.findAvatarVariant(metadata.getChecksum(), variantSize) : Optional.empty();
+        if (!sendFromDatabase(response, metadata, variant)) {
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
     }
 
     /**
+     * Отдает файл аватара с поддержкой Range / If-Range: одиночный диапазон и полный файл
+     * уходят через sendfile, если коннектор его поддерживает, несколько диапазонов - multipart/byteranges.
+     * На условный запрос с актуальным валидатором отвечает 304, не открывая файл.
+     *
      * @param id       идентификатор студента, по которому производится поиск аватара
+     * @param size     размер миниатюры в пикселях; пока миниатюра не готова, отдается оригинал
+     * @param request  запрос с заголовками Range / If-Range
      * @param response Обработка исключения
      * @throws IOException 404
      */
     @GetMapping(value = "/{id}/avatar-from-file")
     @Operation(summary = "Получить аватар из файла",
-            description = "Возвращает аватар по ID из файла",
+            description = "Возвращает аватар по ID из файла, поддерживает частичную загрузку (Range)",
             responses = {
                     @ApiResponse(responseCode = "200", description = "Аватар найден"),
-                    @ApiResponse(responseCode = "404", description = "Аватар не найден")
+                    @ApiResponse(responseCode = "206", description = "Часть аватара по заголовку Range"),
+                    @ApiResponse(responseCode = "304", description = "Аватар не изменился"),
+                    @ApiResponse(responseCode = "404", description = "Аватар не найден"),
+                    @ApiResponse(responseCode = "416", description = "Диапазон вне размера файла")
             })
-    public void downloadAvatar(@PathVariable Long id, HttpServletResponse response) throws IOException {
-        Avatar avatar = avatarService.findAvatar(id);
-        if (avatar != null) {
-            Path path = Path.of(avatar.getFilePath());
-            try (InputStream is = Files.newInputStream(path);
-                 OutputStream os = response.getOutputStream();) {
-                response.setStatus(200);
-                response.setContentType(avatar.getMediaType());
-                response.setContentLength((int) avatar.getFileSize());
-                is.transferTo(os);
-            } catch (IOException e) {
+    public void downloadAvatar(@PathVariable Long id,
+                               @RequestParam(required = false) Integer size,
+                               HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        AvatarMetadata metadata = avatarService.findAvatarMetadata(id);
+        if (metadata != null) {
+            Integer variantSize = readyVariantSize(metadata, size);
+            String etag = etag(metadata, variantSize);
+            long lastModified = lastModified(metadata);
+            if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+                return;
+            }
+            Optional<AvatarVariantMetadata> variant = variantSize != null
+                    ? avatarService.findAvatarVariant(metadata.getChecksum(), variantSize) : Optional.empty();
+            Optional<AvatarLocation> location = variant.isPresent()
+                    ? avatarService.findVariantFile(variant.get()) : avatarService.findAvatarFile(metadata);
+            String mediaType = variant.map(AvatarVariantMetadata::getMediaType).orElse(metadata.getMediaType());
+            if (location.isPresent()) {
+                FileRangeSender.send(request, response, location.get(), mediaType, etag, lastModified);
+                return;
+            }
+            // в режиме avatar.store.mode=db файла нет - отдаем содержимое из БД
+            if (!sendFromDatabase(response, metadata, variant)) {
+                response.reset();
                 response.sendError(HttpServletResponse.SC_NOT_FOUND, "Аватар не найден");
             }
         }
     }
 
+    /**
+     * Миниатюра пишется через {@link AvatarService#writeVariantData} из того места, где лежат ее байты,
+     * оригинал идет потоком через {@link AvatarService#writeContentData}
+     *
+     * @return false, если содержимого нет и в ответ ничего не записано
+     */
+    private boolean sendFromDatabase(HttpServletResponse response,
+                                     AvatarMetadata metadata,
+                                     Optional<AvatarVariantMetadata> variant) throws IOException {
+        if (variant.isPresent()) {
+            response.setContentType(variant.get().getMediaType());
+            response.setContentLengthLong(variant.get().getFileSize());
+            if (avatarService.writeVariantData(variant.get(), response.getOutputStream())) {
+                return true;
+            }
+            response.reset();
+        }
+        if (metadata.getChecksum() == null) {
+            return false;
+        }
+        response.setContentType(metadata.getMediaType());
+        response.setContentLengthLong(metadata.getFileSize());
+        return avatarService.writeContentData(metadata.getChecksum(), metadata.getFileSize(), response.getOutputStream());
+    }
+
+    private Integer readyVariantSize(AvatarMetadata metadata, Integer size) {
+        return size == null ? null : avatarService.findReadyVariantSize(metadata.getChecksum(), size).orElse(null);
+    }
+
+    /**
+     * Строгий ETag: хеш содержимого, для миниатюры - с суффиксом размера
+     */
+    private static String etag(AvatarMetadata metadata, Integer variantSize) {
+        if (metadata.getChecksum() == null) {
+            return null;
+        }
+        return "\"" + metadata.getChecksum() + (variantSize != null ? "-" + variantSize : "") + "\"";
+    }
+
+    private static long lastModified(AvatarMetadata metadata) {
+        return metadata.getUpdatedAt() != null ? metadata.getUpdatedAt().toEpochMilli() : -1;
+    }
+
     /**
      * Получение списка аватаров с пагинацией
      *
      * @param pageNumber Номер страницы
      * @param pageSize   Размер страницы
-     * @return ResponseEntity с Page&lt;Avatar&gt;- содержит список аватарок и информацию о пагинации.
+     * @return ResponseEntity с Page&lt;AvatarMetadata&gt;- содержит метаданные аватарок (без содержимого) и информацию о пагинации.
      * Возвращает 200 OK с данными или 500 в случае ошибки.
      */
     @GetMapping("/pageable")
@@ -127,12 +334,41 @@ public class AvatarController {
                             schema = @Schema(implementation = Page.class))),
             @ApiResponse(responseCode = "500", description = "Внутренняя ошибка сервера")
     })
-    public ResponseEntity<Page<Avatar>> getAllAvatars(
+    public ResponseEntity<Page<AvatarMetadata>> getAllAvatars(
             @RequestParam(defaultValue = "0") int pageNumber,
             @RequestParam(defaultValue = "10") int pageSize
     ) {
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
         return ResponseEntity.ok(avatarService.getAllAvatars(pageable));
     }
-}
 
+    /**
+     * Выгрузка оригиналов аватаров одним ZIP-архивом, который пишется в ответ по мере чтения содержимого.
+     * Записи именуются &lt;studentId&gt;.&lt;ext&gt;, как ожидает /avatar/import.
+     *
+     * @param pageNumber Номер страницы, как в /avatar/pageable
+     * @param pageSize   Размер страницы
+     * @param ids        ID студентов; если переданы, страница не используется
+     * @return ZIP-архив с аватарами
+     */
+    @GetMapping(value = "/export", produces = "application/zip")
+    @Operation(summary = "Выгрузка аватаров ZIP-архивом",
+            description = "Возвращает страницу аватаров или аватары перечисленных студентов одним архивом",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Архив с аватарами")
+            })
+    public ResponseEntity<StreamingResponseBody> exportAvatars(
+            @RequestParam(defaultValue = "0") int pageNumber,
+            @RequestParam(defaultValue = "10") int pageSize,
+            @RequestParam(required = false) List<Long> ids
+    ) {
+        List<AvatarMetadata> avatars = ids != null && !ids.isEmpty()
+                ? avatarService.findAvatarsMetadata(ids)
+                : avatarService.getAllAvatars(PageRequest.of(pageNumber, pageSize)).getContent();
+        StreamingResponseBody body = out -> avatarExportService.exportAvatars(avatars, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("avatars.zip").build().toString())
+                .body(body);
+    }
+}
@@ -11,6 +11,7 @@ import ru.hogwarts.school.service.FacultyService;
 
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 
 @RestController
 @RequestMapping("/faculty")
@@ -100,18 +101,23 @@ public class FacultyController {
     }
 
     /**
-     * @param id принимает идентификатор факультета
-     * @return возвращает список студентов факультета
+     * @param id     принимает идентификатор факультета
+     * @param cursor курсор из заголовка X-Next-Cursor предыдущей страницы
+     * @param limit  размер страницы, не больше 1000
+     * @return возвращает страницу студентов факультета
      */
 
     @GetMapping("/{id}/students-faculty")
     @Operation(summary = "Ищет по факультету",
-            description = "Ищет студентов по идентификатору факультета, возвращает коллекцию выбранного факультета",
+            description = "Ищет студентов по идентификатору факультета, возвращает страницу студентов выбранного факультета; " +
+                    "курсор следующей страницы - в заголовке X-Next-Cursor",
             responses = {@ApiResponse(responseCode = "404", description = "Факультет не найден"),
                     @ApiResponse(responseCode = "200", description = "Факультет найден")
             })
-    public Collection<Student> getStudentsByFaculty(@PathVariable Long id) {
-        return facultyService.getStudentsByFaculty(id);
+    public ResponseEntity<List<Student>> getStudentsByFaculty(@PathVariable Long id,
+                                                              @RequestParam(required = false) String cursor,
+                                                              @RequestParam(defaultValue = KeysetResponses.DEFAULT_LIMIT) int limit) {
+        return KeysetResponses.of(facultyService.getStudentsByFaculty(id, cursor, limit));
     }
 
     /**
@@ -0,0 +1,195 @@
+package ru.hogwarts.school.controller;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.util.MimeTypeUtils;
+import ru.hogwarts.school.model.AvatarLocation;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Отдача файла с поддержкой Range / If-Range (206, в том числе multipart/byteranges).
+ * Если коннектор Tomcat умеет sendfile, одиночный диапазон отдается ядром без копирования в user space,
+ * иначе байты идут через {@link FileChannel#transferTo}. Отдаваемое содержимое может быть участком
+ * большего файла (сегмента), диапазоны считаются от начала участка.
+ */
+final class FileRangeSender {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private FileRangeSender() {
+    }
+
+    /**
+     * @param etag         строгий ETag в кавычках или null
+     * @param lastModified время изменения в мс; -1 - взять время изменения файла
+     */
+    static void send(HttpServletRequest request, HttpServletResponse response,
+                     AvatarLocation location, String mediaType, String etag, long lastModified) throws IOException {
+        Path path = location.path();
+        long base = location.offset();
+        long length = location.length();
+        if (lastModified < 0) {
+            lastModified = Files.getLastModifiedTime(path).toMillis();
+        }
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        if (etag != null) {
+            response.setHeader(HttpHeaders.ETAG, etag);
+        }
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !ifRangeMatches(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(mediaType);
+            response.setContentLengthLong(length);
+            sendRegion(request, response, path, base, length);
+            return;
+        }
+
+        long[][] regions;
+        try {
+            regions = satisfiableRegions(HttpRange.parseRanges(rangeHeader), base, length);
+        } catch (IllegalArgumentException e) {
+            regions = new long[0][];
+        }
+        if (regions.length == 0) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (regions.length == 1) {
+            long start = regions[0][0];
+            long count = regions[0][1];
+            response.setContentType(mediaType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(start - base, count, length));
+            response.setContentLengthLong(count);
+            sendRegion(request, response, path, start, count);
+        } else {
+            sendMultipart(request, response, path, mediaType, regions, base, length);
+        }
+    }
+
+    /**
+     * HttpRange не сверяет начало диапазона с длиной: для "bytes=20-30" на 10 байтах вернет start=20, end=9.
+     * Такие диапазоны отбрасываются (RFC 9110, 14.1.1), 416 - только если не осталось ни одного
+     *
+     * @return пары {смещение в файле, число байт}
+     */
+    private static long[][] satisfiableRegions(List<HttpRange> ranges, long base, long length) {
+        List<long[]> regions = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges) {
+            long start = range.getRangeStart(length);
+            if (start >= length) {
+                continue;
+            }
+            long end = range.getRangeEnd(length);
+            regions.add(new long[]{base + start, end - start + 1});
+        }
+        return regions.toArray(new long[0][]);
+    }
+
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // для If-Range допустимо только строгое сравнение
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return date != -1 && lastModified < date + 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void sendMultipart(HttpServletRequest request, HttpServletResponse response, Path path,
+                                      String mediaType, long[][] regions, long base, long length) throws IOException {
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        byte[][] partHeaders = new byte[regions.length][];
+        long contentLength = 0;
+        for (int i = 0; i < regions.length; i++) {
+            String header = "\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + mediaType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(regions[i][0] - base, regions[i][1], length) + "\r\n\r\n";
+            partHeaders[i] = header.getBytes(StandardCharsets.US_ASCII);
+            contentLength += partHeaders[i].length + regions[i][1];
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (isHead(request)) {
+            return;
+        }
+        ServletOutputStream os = response.getOutputStream();
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            WritableByteChannel target = Channels.newChannel(os);
+            for (int i = 0; i < regions.length; i++) {
+                os.write(partHeaders[i]);
+                transfer(channel, regions[i][0], regions[i][1], target);
+            }
+        }
+        os.write(closing);
+    }
+
+    private static void sendRegion(HttpServletRequest request, HttpServletResponse response,
+                                   Path path, long start, long count) throws IOException {
+        if (isHead(request) || count == 0) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // тело отправит коннектор после выхода из обработчика
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            transfer(channel, start, count, Channels.newChannel(response.getOutputStream()));
+        }
+    }
+
+    private static void transfer(FileChannel channel, long position, long count,
+                                 WritableByteChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent <= 0) {
+                throw new IOException("Файл был усечен во время отправки");
+            }
+            position += sent;
+        }
+    }
+
+    private static String contentRange(long start, long count, long length) {
+        return "bytes " + start + "-" + (start + count - 1) + "/" + length;
+    }
+
+    private static boolean isHead(HttpServletRequest request) {
+        return "HEAD".equals(request.getMethod());
+    }
+}
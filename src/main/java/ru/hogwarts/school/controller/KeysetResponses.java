@@ -0,0 +1,27 @@
+package ru.hogwarts.school.controller;
+
+import org.springframework.http.ResponseEntity;
+import ru.hogwarts.school.model.KeysetPage;
+
+import java.util.List;
+
+/**
+ * Страница по ключу отдается обычным JSON-массивом, а курсор следующей страницы - заголовком,
+ * поэтому клиенты, которые читают только тело, не ломаются
+ */
+final class KeysetResponses {
+
+    static final String NEXT_CURSOR = "X-Next-Cursor";
+    static final String DEFAULT_LIMIT = "100";
+
+    private KeysetResponses() {
+    }
+
+    static <T> ResponseEntity<List<T>> of(KeysetPage<T> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR, page.nextCursor());
+        }
+        return response.body(page.items());
+    }
+}
@@ -5,20 +5,37 @@ import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.hogwarts.school.exception.BadRequestException;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyAssignmentResult;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentBatchResult;
+import ru.hogwarts.school.model.StudentImportReport;
+import ru.hogwarts.school.model.StudentNameMatch;
 import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.model.StudentStats;
+import ru.hogwarts.school.service.StudentExportService;
+import ru.hogwarts.school.service.StudentImportService;
 import ru.hogwarts.school.service.StudentService;
 
-import java.util.Collection;
-import java.util.Comparator;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.stream.LongStream;
 
 import static java.util.stream.StreamSupport.stream;
@@ -30,9 +47,15 @@ public class StudentController {
 
     private static final Logger log = LoggerFactory.getLogger(StudentController.class);
     private final StudentService studentService;
+    private final StudentExportService studentExportService;
+    private final StudentImportService studentImportService;
 
-    public StudentController(StudentService studentService) {
+    public StudentController(StudentService studentService,
+                             StudentExportService studentExportService,
+                             StudentImportService studentImportService) {
         this.studentService = studentService;
+        this.studentExportService = studentExportService;
+        this.studentImportService = studentImportService;
     }
 
     private static String apply(Student student) {
@@ -65,6 +88,19 @@ public class StudentController {
         return studentService.createStudent(student);
     }
 
+    /**
+     * @param students студенты для добавления, тысячи за запрос
+     * @return число созданных студентов и строки, которые создать не удалось
+     */
+    @PostMapping("/batch")
+    @Operation(summary = "Добавляет студентов пакетом",
+            description = "Вставляет студентов пакетными INSERT; строки с пустым именем, возрастом меньше 16 " +
+                    "или занятым именем попадают в отчет и не отменяют остальные",
+            responses = @ApiResponse(responseCode = "200", description = "Пакет обработан"))
+    public ResponseEntity<StudentBatchResult> createStudents(@RequestBody List<Student> students) {
+        return ResponseEntity.ok(studentService.createStudents(students));
+    }
+
     /**
      * @param id      идентификатор студента
      * @param student студент для обновления
@@ -98,7 +134,9 @@ public class StudentController {
     /**
      * @param minAge параметр мин возраста студента
      * @param maxAge параметр макс возраста студента
-     * @return возвращает коллекцию по указанному возрасту
+     * @param cursor курсор из заголовка X-Next-Cursor предыдущей страницы
+     * @param limit  размер страницы, не больше 1000
+     * @return возвращает страницу студентов по указанному возрасту
      */
 
     @GetMapping("/by-age")
@@ -108,14 +146,20 @@ public class StudentController {
                     @Parameter(name = "minAge", description = "Минимальный возраст", required = true,
                             schema = @Schema(type = "integer")),
                     @Parameter(name = "maxAge", description = "Максимальный возраст", required = true,
-                            schema = @Schema(type = "integer"))
+                            schema = @Schema(type = "integer")),
+                    @Parameter(name = "cursor", description = "Курсор следующей страницы из заголовка X-Next-Cursor"),
+                    @Parameter(name = "limit", description = "Размер страницы", schema = @Schema(type = "integer"))
             },
             responses = {
-                    @ApiResponse(responseCode = "200", description = "Список студентов, соответствующих критериям"),
+                    @ApiResponse(responseCode = "200", description = "Страница студентов, соответствующих критериям; " +
+                            "если есть следующая, ее курсор в заголовке X-Next-Cursor"),
                     @ApiResponse(responseCode = "400", description = "Некорректные параметры запроса")
             })
-    public Collection<Student> getStudentsByAge(@RequestParam int minAge, @RequestParam int maxAge) {
-        return studentService.findByAgeBetween(minAge, maxAge);
+    public ResponseEntity<List<Student>> getStudentsByAge(@RequestParam int minAge,
+                                                          @RequestParam int maxAge,
+                                                          @RequestParam(required = false) String cursor,
+                                                          @RequestParam(defaultValue = KeysetResponses.DEFAULT_LIMIT) int limit) {
+        return KeysetResponses.of(studentService.findByAgeBetween(minAge, maxAge, cursor, limit));
     }
 
     /**
@@ -155,6 +199,98 @@ public class StudentController {
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * @param facultyId  идентификатор факультета
+     * @param studentIds идентификаторы студентов
+     * @return статус 200, итог по каждому ID
+     */
+    @PutMapping("/faculty/{facultyId}")
+    @Operation(summary = "Назначить факультет списку студентов",
+            description = "Проверяет все ID одним запросом и переводит студентов одним UPDATE",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Итог: переведены, уже на факультете, не найдены"),
+                    @ApiResponse(responseCode = "404", description = "Факультет не найден")
+            })
+    public ResponseEntity<FacultyAssignmentResult> assignFacultyToStudents(@PathVariable long facultyId,
+                                                                           @RequestBody List<Long> studentIds) {
+        return ResponseEntity.ok(studentService.assignFacultyToStudents(facultyId, studentIds));
+    }
+
+    /**
+     * @param facultyId идентификатор факультета
+     * @param fromId    первый ID диапазона
+     * @param toId      последний ID диапазона, включительно
+     * @return статус 200, итог по каждому студенту диапазона
+     */
+    @PutMapping("/faculty/{facultyId}/range")
+    @Operation(summary = "Назначить факультет студентам из диапазона ID",
+            description = "Переводит всех студентов с ID от fromId до toId включительно одним UPDATE",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Итог: переведены, уже на факультете"),
+                    @ApiResponse(responseCode = "400", description = "fromId больше toId"),
+                    @ApiResponse(responseCode = "404", description = "Факультет не найден")
+            })
+    public ResponseEntity<FacultyAssignmentResult> assignFacultyToStudentRange(@PathVariable long facultyId,
+                                                                               @RequestParam long fromId,
+                                                                               @RequestParam long toId) {
+        return ResponseEntity.ok(studentService.assignFacultyToStudentRange(facultyId, fromId, toId));
+    }
+
+    /**
+     * Выгрузка студентов построчным JSON (NDJSON), который пишется в ответ по мере чтения из БД
+     *
+     * @param facultyId только студенты факультета
+     * @param minAge    минимальный возраст, включительно
+     * @param maxAge    максимальный возраст, включительно
+     * @return по JSON-объекту на строку, в порядке ID
+     */
+    @GetMapping(value = "/export", produces = "application/x-ndjson")
+    @Operation(summary = "Выгрузка студентов в NDJSON",
+            description = "Потоковая выгрузка всех студентов или отфильтрованных по факультету и возрасту",
+            responses = @ApiResponse(responseCode = "200", description = "По студенту на строку"))
+    public ResponseEntity<StreamingResponseBody> exportStudents(@RequestParam(required = false) Long facultyId,
+                                                                @RequestParam(required = false) Integer minAge,
+                                                                @RequestParam(required = false) Integer maxAge) {
+        StreamingResponseBody body = out -> studentExportService.exportStudents(facultyId, minAge, maxAge, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    /**
+     * Импорт студентов из CSV, который читается прямо из тела запроса
+     *
+     * @return статус 200, итог импорта с отклоненными строками
+     */
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE})
+    @Operation(summary = "Импорт студентов из CSV",
+            description = "Колонки name, age и необязательные faculty_name, faculty_color. Студент с существующим " +
+                    "именем обновляется, недостающие факультеты создаются",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Итог импорта"),
+                    @ApiResponse(responseCode = "400", description = "Нет заголовка или обязательных колонок, неизвестная кодировка")
+            })
+    public ResponseEntity<StudentImportReport> importStudents(HttpServletRequest request) throws IOException {
+        Charset charset;
+        try {
+            charset = request.getCharacterEncoding() != null
+                    ? Charset.forName(request.getCharacterEncoding()) : StandardCharsets.UTF_8;
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new BadRequestException("Неизвестная кодировка: " + request.getCharacterEncoding());
+        }
+        return ResponseEntity.ok(studentImportService.importStudents(
+                new InputStreamReader(request.getInputStream(), charset)));
+    }
+
+    /**
+     * @return статус 200, ход выполняющихся импортов
+     */
+    @GetMapping("/import/running")
+    @Operation(summary = "Ход выполняющихся импортов студентов")
+    public ResponseEntity<List<StudentImportReport>> getRunningImports() {
+        return ResponseEntity.ok(studentImportService.getRunningImports());
+    }
+
     /**
      * @return статус 200, количество студентов
      */
@@ -173,6 +309,48 @@ public class StudentController {
         return ResponseEntity.ok(studentService.getAverageAge());
     }
 
+    /**
+     * @return статус 200, количество, сумма, минимум, максимум и среднее возраста студентов
+     */
+    @GetMapping("/stats")
+    @Operation(summary = "Сводка по студентам", description = "Читается из счетчиков, обновляемых при каждом изменении студентов")
+    public ResponseEntity<StudentStats> getStats() {
+        return ResponseEntity.ok(studentService.getStats());
+    }
+
+    /**
+     * @return статус 200, сводка по каждому факультету, студенты без факультета - под ключом 0
+     */
+    @GetMapping("/stats/by-faculty")
+    @Operation(summary = "Сводка по студентам каждого факультета", description = "Ключ - ID факультета, 0 - студенты без факультета")
+    public ResponseEntity<Map<Long, StudentStats>> getStatsByFaculty() {
+        return ResponseEntity.ok(studentService.getStatsByFaculty());
+    }
+
+    /**
+     * @return статус 200, число студентов каждого возраста
+     */
+    @GetMapping("/stats/age-histogram")
+    @Operation(summary = "Гистограмма возрастов", description = "Ключ - возраст, значение - число студентов; читается из индекса возрастов, " +
+            "пока он не построен - из счетчиков")
+    public ResponseEntity<SortedMap<Integer, Long>> getAgeHistogram() {
+        return ResponseEntity.ok(studentService.getAgeHistogram());
+    }
+
+    /**
+     * @param p процентили в диапазоне (0, 100]
+     * @return статус 200, возраст для каждого процентиля
+     */
+    @GetMapping("/stats/age-percentiles")
+    @Operation(summary = "Процентили возраста", description = "Процентиль по ближайшему рангу, считается по гистограмме возрастов",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Возраст для каждого процентиля"),
+                    @ApiResponse(responseCode = "400", description = "Процентиль вне диапазона (0, 100]")
+            })
+    public ResponseEntity<Map<Double, Integer>> getAgePercentiles(@RequestParam(defaultValue = "50,90,99") List<Double> p) {
+        return ResponseEntity.ok(studentService.getAgePercentiles(p));
+    }
+
     /**
      * @return статус 200, последние 5 студентов по идентификатору
      */
@@ -183,30 +361,83 @@ public class StudentController {
     }
 
     /**
-     * @return список студентов в формате JSON, где имя начинается на "а" по алфавиту
+     * @param prefix начало имени, регистр не важен
+     * @param cursor курсор из заголовка X-Next-Cursor предыдущей страницы
+     * @param limit  размер страницы, не больше 1000
+     * @return страница студентов, чье имя начинается с prefix, по алфавиту
+     */
+    @GetMapping("/by-name-prefix")
+    @Operation(summary = "Ищет студентов по началу имени",
+            description = "Поиск по префиксу без учета регистра по индексу; курсор следующей страницы - в заголовке X-Next-Cursor",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Страница студентов по алфавиту"),
+                    @ApiResponse(responseCode = "400", description = "Пустой префикс или поврежденный курсор")
+            })
+    public ResponseEntity<List<StudentProjection>> getStudentsByNamePrefix(
+            @RequestParam String prefix,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = KeysetResponses.DEFAULT_LIMIT) int limit) {
+        return KeysetResponses.of(studentService.findByNameStartingWith(prefix, cursor, limit));
+    }
+
+    /**
+     * @param q     подстрока имени, регистр не важен, не короче трех символов
+     * @param limit сколько совпадений вернуть, не больше 100
+     * @return лучшие совпадения по имени
+     */
+    @GetMapping("/search")
+    @Operation(summary = "Ищет студентов по подстроке имени",
+            description = "Поиск по триграммному индексу в памяти: сначала полное совпадение имени, " +
+                    "затем начало имени, начало слова и остальные",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Совпадения по убыванию релевантности"),
+                    @ApiResponse(responseCode = "400", description = "Строка короче трех символов или limit вне 1..100")
+            })
+    public ResponseEntity<List<StudentNameMatch>> searchStudents(@RequestParam String q,
+                                                                 @RequestParam(defaultValue = "20") int limit) {
+        return ResponseEntity.ok(studentService.searchByName(q, limit));
+    }
+
+    /**
+     * @param prefix начало имени, регистр не важен
+     * @param limit  сколько дополнений вернуть, не больше 100
+     * @return дополнения имени, сначала более короткие
+     */
+    @GetMapping("/autocomplete")
+    @Operation(summary = "Дополняет начало имени студента",
+            description = "Дополнения из префиксного дерева в памяти без учета регистра и различия \"ё\"/\"е\": " +
+                    "сначала более короткие имена, при равной длине - по алфавиту",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Дополнения по возрастанию длины имени"),
+                    @ApiResponse(responseCode = "400", description = "Пустое начало имени или limit вне 1..100")
+            })
+    public ResponseEntity<List<StudentNameMatch>> autocompleteStudentName(@RequestParam String prefix,
+                                                                          @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(studentService.autocomplete(prefix, limit));
+    }
+
+    /**
+     * @param cursor курсор из заголовка X-Next-Cursor предыдущей страницы
+     * @param limit  размер страницы, не больше 1000
+     * @return страница студентов в формате JSON, где имя начинается на "а", по алфавиту, имена в верхнем регистре
      */
     @GetMapping("/namesStartingWithA") //toDo test
     @Operation(summary = "список студентов в формате JSON, где имя начинается на А по алфавиту")
-    public List<Student> getStudentNamesStartingWithA() {
-        return studentService.findAllStudent()
-                .stream()
-                .filter(student -> student.getName().toLowerCase().startsWith("а"))
-                .peek(student -> student.setName(student.getName().toUpperCase()))
-                .sorted(Comparator.comparing(Student::getName))
-                .collect(Collectors.toList());
+    public ResponseEntity<List<UppercaseName>> getStudentNamesStartingWithA(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = KeysetResponses.DEFAULT_LIMIT) int limit) {
+        KeysetPage<StudentProjection> page = studentService.findByNameStartingWith("а", cursor, limit);
+        return KeysetResponses.of(new KeysetPage<>(page.items().stream().map(UppercaseName::of).toList(), page.nextCursor()));
     }
 
     /**
-     * @return средний возраст всех студентов
+     * @return средний возраст всех студентов по счетчикам
      */
     @GetMapping("/averageAge") //toDo test
     @Operation(summary = "средний возраст всех студентов")
     public double getAverageStudentAge() {
-        return studentService.findAllStudent()
-                .stream()
-                .mapToInt(Student::getAge)
-                .average()
-                .orElse(0);
+        Double averageAge = studentService.getAverageAge();
+        return averageAge != null ? averageAge : 0;
     }
 
     @GetMapping("/sumParallel")
@@ -230,4 +461,14 @@ public class StudentController {
         log.info("Sequential sum calculated in {} ns", duration);
         return n * (n + 1) / 2; // Sequential sum calculated in 400 ns
     }
+
+    /**
+     * Студент с именем в верхнем регистре: меняется копия, а не сущность
+     */
+    record UppercaseName(long id, String name, int age) {
+
+        static UppercaseName of(StudentProjection student) {
+            return new UppercaseName(student.getId(), student.getName().toUpperCase(), student.getAge());
+        }
+    }
 }
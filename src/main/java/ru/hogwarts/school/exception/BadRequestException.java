@@ -0,0 +1,11 @@
+package ru.hogwarts.school.exception;
+
+/**
+ * Некорректные параметры запроса: контроллеры отвечают 400 с текстом сообщения.
+ * Прочие IllegalArgumentException остаются ошибкой сервера, а не клиента.
+ */
+public class BadRequestException extends IllegalArgumentException {
+    public BadRequestException(String message) {
+        super(message);
+    }
+}
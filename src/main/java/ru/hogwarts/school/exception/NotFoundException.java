@@ -8,4 +8,8 @@ public class NotFoundException extends RuntimeException {
     public NotFoundException(Class<?> clazz, long id) {
         super("%s not found with ID: [%s]".formatted(clazz.getSimpleName(), id));
     }
+
+    public NotFoundException(Class<?> clazz, String id) {
+        super("%s not found with ID: [%s]".formatted(clazz.getSimpleName(), id));
+    }
 }
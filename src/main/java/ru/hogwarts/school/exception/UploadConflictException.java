@@ -0,0 +1,15 @@
+package ru.hogwarts.school.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Часть файла не согласуется с состоянием сессии загрузки: пропуск байтов, выход за объявленный размер,
+ * завершение недогруженного файла. Клиент запрашивает подтвержденное смещение и продолжает с него.
+ */
+@ResponseStatus(HttpStatus.CONFLICT)
+public class UploadConflictException extends RuntimeException {
+    public UploadConflictException(String message) {
+        super(message);
+    }
+}
@@ -5,6 +5,8 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.time.Instant;
+
 @Setter
 @Getter
 @Entity
@@ -20,20 +22,29 @@ public class Avatar {
 
     private String mediaType;
 
-    @Lob
+    /**
+     * SHA-256 содержимого в hex, ключ записи {@link AvatarContent}
+     */
+    private String checksum;
+
+    private Instant updatedAt;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "checksum", referencedColumnName = "hash", insertable = false, updatable = false,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     @JsonIgnore
-    private byte[] data;
+    private AvatarContent content;
 
     @OneToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "student_id")
     @JsonIgnore
     private Student student;
 
-    public Avatar(String filePath, long fileSize, String mediaType, byte[] data, Student student) {
+    public Avatar(String filePath, long fileSize, String mediaType, String checksum, Student student) {
         this.filePath = filePath;
         this.fileSize = fileSize;
         this.mediaType = mediaType;
-        this.data = data;
+        this.checksum = checksum;
         this.student = student;
     }
 
@@ -0,0 +1,55 @@
+package ru.hogwarts.school.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.sql.Blob;
+
+/**
+ * Содержимое аватара, адресуемое по SHA-256. Одинаковые картинки разных студентов
+ * хранятся один раз: на диске и в БД. Ссылки считаются по строкам {@link Avatar} с тем же checksum.
+ */
+@Setter
+@Getter
+@Entity
+@Table(name = "avatar_content")
+public class AvatarContent {
+
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    private long fileSize;
+
+    private String mediaType;
+
+    private String filePath;
+
+    @Lob
+    @JsonIgnore
+    private Blob data;
+
+    /**
+     * Где сейчас лежит содержимое; строки, созданные до раздельного хранения, есть в обоих местах
+     */
+    @Column(nullable = false, columnDefinition = "boolean not null default true")
+    private boolean inDatabase;
+
+    @Column(nullable = false, columnDefinition = "boolean not null default true")
+    private boolean inFileSystem;
+
+    public AvatarContent(String hash, long fileSize, String mediaType, String filePath, Blob data) {
+        this.hash = hash;
+        this.fileSize = fileSize;
+        this.mediaType = mediaType;
+        this.filePath = filePath;
+        this.data = data;
+        this.inDatabase = data != null;
+        this.inFileSystem = filePath != null;
+    }
+
+    public AvatarContent() {
+    }
+}
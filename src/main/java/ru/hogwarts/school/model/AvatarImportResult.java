@@ -0,0 +1,30 @@
+package ru.hogwarts.school.model;
+
+/**
+ * Результат импорта одной записи ZIP-архива
+ *
+ * @param entry     имя записи в архиве
+ * @param studentId ID студента из имени записи или null, если имя не разобрано
+ * @param status    итог обработки
+ * @param message   причина ошибки; для IMPORTED - null
+ */
+public record AvatarImportResult(String entry, Long studentId, Status status, String message) {
+
+    public enum Status {
+        IMPORTED,
+        INVALID_NAME,
+        UNSUPPORTED_MEDIA_TYPE,
+        DUPLICATE,
+        TOO_LARGE,
+        STUDENT_NOT_FOUND,
+        FAILED
+    }
+
+    public static AvatarImportResult imported(String entry, Long studentId) {
+        return new AvatarImportResult(entry, studentId, Status.IMPORTED, null);
+    }
+
+    public static AvatarImportResult rejected(String entry, Long studentId, Status status, String message) {
+        return new AvatarImportResult(entry, studentId, status, message);
+    }
+}
@@ -0,0 +1,16 @@
+package ru.hogwarts.school.model;
+
+import java.nio.file.Path;
+
+/**
+ * Где лежат байты аватара: отдельный файл целиком или участок файла сегмента
+ *
+ * @param offset смещение содержимого от начала файла
+ * @param length длина содержимого
+ */
+public record AvatarLocation(Path path, long offset, long length) {
+
+    public static AvatarLocation wholeFile(Path path, long length) {
+        return new AvatarLocation(path, 0, length);
+    }
+}
@@ -0,0 +1,22 @@
+package ru.hogwarts.school.model;
+
+import java.time.Instant;
+
+/**
+ * Метаданные аватара без содержимого - для валидаторов кеша, списков и проверок существования
+ */
+public interface AvatarMetadata {
+    Long getId();
+
+    Long getStudentId();
+
+    String getFilePath();
+
+    long getFileSize();
+
+    String getMediaType();
+
+    String getChecksum();
+
+    Instant getUpdatedAt();
+}
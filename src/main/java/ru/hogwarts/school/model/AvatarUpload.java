@@ -0,0 +1,47 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * Сессия загрузки аватара по частям. Принятые байты лежат во временном файле сессии,
+ * подтвержденное смещение - его размер, поэтому в БД на каждую часть пишется только срок жизни.
+ */
+@Setter
+@Getter
+@Entity
+@Table(name = "avatar_upload")
+public class AvatarUpload {
+
+    @Id
+    @Column(length = 36)
+    private String id;
+
+    private Long studentId;
+
+    private String mediaType;
+
+    /**
+     * Объявленный при создании размер файла в байтах
+     */
+    private long totalSize;
+
+    private Instant createdAt;
+
+    private Instant expiresAt;
+
+    public AvatarUpload(String id, Long studentId, String mediaType, long totalSize, Instant createdAt, Instant expiresAt) {
+        this.id = id;
+        this.studentId = studentId;
+        this.mediaType = mediaType;
+        this.totalSize = totalSize;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+    }
+
+    public AvatarUpload() {
+    }
+}
@@ -0,0 +1,15 @@
+package ru.hogwarts.school.model;
+
+import java.time.Instant;
+
+/**
+ * Состояние сессии загрузки по частям
+ *
+ * @param id        идентификатор сессии
+ * @param studentId студент, которому будет назначен аватар
+ * @param offset    сколько байт от начала файла уже принято; следующая часть начинается с него
+ * @param size      объявленный размер файла
+ * @param expiresAt когда незавершенная сессия будет удалена
+ */
+public record AvatarUploadStatus(String id, Long studentId, long offset, long size, Instant expiresAt) {
+}
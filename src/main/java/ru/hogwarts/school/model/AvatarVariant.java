@@ -0,0 +1,58 @@
+package ru.hogwarts.school.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Уменьшенная копия содержимого аватара. Генерируется в фоне после загрузки,
+ * привязана к хешу {@link AvatarContent}, поэтому общая для всех студентов с одной картинкой.
+ * Байты лежат там же, куда avatar.store.mode пишет оригиналы: в data, в хранилище файлов или в обоих;
+ * для выдачи строка читается проекцией {@link AvatarVariantMetadata}, без data.
+ */
+@Setter
+@Getter
+@Entity
+@Table(name = "avatar_variant",
+        uniqueConstraints = @UniqueConstraint(name = "avatar_variant_hash_size_unique",
+                columnNames = {"content_hash", "size"}))
+public class AvatarVariant {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    private int size;
+
+    private String mediaType;
+
+    private long fileSize;
+
+    private String filePath;
+
+    @JsonIgnore
+    private byte[] data;
+
+    public AvatarVariant(String contentHash, int size, String mediaType, long fileSize, String filePath, byte[] data) {
+        this.contentHash = contentHash;
+        this.size = size;
+        this.mediaType = mediaType;
+        this.fileSize = fileSize;
+        this.filePath = filePath;
+        this.data = data;
+    }
+
+    public AvatarVariant() {
+    }
+
+    /**
+     * Ключ миниатюры в {@link ru.hogwarts.school.service.AvatarStorageEngine}: хеш, размер и формат
+     */
+    public static String storageKey(String contentHash, int size, String mediaType) {
+        return contentHash + "_" + size + "." + mediaType.substring(mediaType.indexOf('/') + 1);
+    }
+}
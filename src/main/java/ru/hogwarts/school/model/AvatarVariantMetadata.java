@@ -0,0 +1,23 @@
+package ru.hogwarts.school.model;
+
+/**
+ * Миниатюра без содержимого - чтобы выбрать, откуда ее отдавать, не читая байты из БД
+ */
+public interface AvatarVariantMetadata {
+    String getContentHash();
+
+    int getSize();
+
+    String getMediaType();
+
+    long getFileSize();
+
+    /**
+     * @return null, если миниатюра не записана в хранилище файлов (avatar.store.mode=db)
+     */
+    String getFilePath();
+
+    default String storageKey() {
+        return AvatarVariant.storageKey(getContentHash(), getSize(), getMediaType());
+    }
+}
@@ -0,0 +1,14 @@
+package ru.hogwarts.school.model;
+
+import java.util.List;
+
+/**
+ * Итог массового назначения факультета; каждый запрошенный ID попадает ровно в один список
+ *
+ * @param facultyId назначенный факультет
+ * @param assigned  студенты, переведенные на факультет
+ * @param unchanged студенты, которые уже на нем учились
+ * @param notFound  ID, для которых студента нет
+ */
+public record FacultyAssignmentResult(long facultyId, List<Long> assigned, List<Long> unchanged, List<Long> notFound) {
+}
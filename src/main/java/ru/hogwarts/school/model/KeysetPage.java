@@ -0,0 +1,13 @@
+package ru.hogwarts.school.model;
+
+import java.util.List;
+
+/**
+ * Страница выборки по ключу (keyset): следующая страница запрашивается по курсору последней строки,
+ * а не по номеру, поэтому ее цена не зависит от того, как далеко пролистан список
+ *
+ * @param items      строки страницы
+ * @param nextCursor непрозрачный курсор следующей страницы или null, если страница последняя
+ */
+public record KeysetPage<T>(List<T> items, String nextCursor) {
+}
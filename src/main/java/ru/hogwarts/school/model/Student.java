@@ -15,8 +15,19 @@ import java.util.Objects;
 @Table(name = "student")
 public class Student {
 
+    /**
+     * Нижняя граница возраста из age_constraint
+     */
+    public static final int MIN_AGE = 16;
+
+    /**
+     * Шаг student_seq: Hibernate и вставки в обход него берут ID блоками такого размера
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "student_seq")
+    @SequenceGenerator(name = "student_seq", sequenceName = "student_seq", allocationSize = ID_ALLOCATION_SIZE)
     @NotNull
     private Long id;
 
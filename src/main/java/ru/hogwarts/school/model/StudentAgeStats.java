@@ -0,0 +1,57 @@
+package ru.hogwarts.school.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+
+/**
+ * Сколько студентов данного возраста на факультете. Из этих счетчиков собираются количество,
+ * сумма, минимум и максимум возраста без прохода по таблице студентов; студенты без факультета
+ * учитываются под {@link #NO_FACULTY}.
+ */
+@Setter
+@Getter
+@Entity
+@Table(name = "student_age_stats")
+@IdClass(StudentAgeStats.Key.class)
+public class StudentAgeStats {
+
+    public static final long NO_FACULTY = 0;
+
+    @Id
+    private long facultyId;
+
+    @Id
+    private int age;
+
+    private long studentCount;
+
+    public StudentAgeStats(long facultyId, int age, long studentCount) {
+        this.facultyId = facultyId;
+        this.age = age;
+        this.studentCount = studentCount;
+    }
+
+    public StudentAgeStats() {
+    }
+
+    public static long facultyKey(Student student) {
+        return student.getFaculty() != null && student.getFaculty().getId() != null
+                ? student.getFaculty().getId() : NO_FACULTY;
+    }
+
+    @Getter
+    @Setter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Key implements Serializable {
+        private long facultyId;
+        private int age;
+    }
+}
@@ -0,0 +1,28 @@
+package ru.hogwarts.school.model;
+
+import java.util.List;
+
+/**
+ * Результат пакетного создания студентов
+ *
+ * @param created  число созданных студентов
+ * @param failures строки, которые не удалось создать; остальные строки пакета от них не зависят
+ */
+public record StudentBatchResult(int created, List<Failure> failures) {
+
+    public enum Reason {
+        INVALID,
+        DUPLICATE_NAME,
+        AGE_CONSTRAINT,
+        FAILED
+    }
+
+    /**
+     * @param index   позиция строки в запросе, с нуля
+     * @param name    имя студента из строки
+     * @param reason  причина отказа
+     * @param message подробности
+     */
+    public record Failure(int index, String name, Reason reason, String message) {
+    }
+}
@@ -0,0 +1,29 @@
+package ru.hogwarts.school.model;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Ход или итог импорта студентов из CSV
+ *
+ * @param id        ID импорта
+ * @param startedAt время начала
+ * @param read      прочитано строк данных
+ * @param inserted  создано студентов
+ * @param updated   обновлено студентов с уже существующим именем, включая повторы имени внутри файла
+ * @param failed    отклонено строк
+ * @param failures  первые отклоненные строки; в ходе импорта не заполняется
+ * @param finished  импорт завершен
+ * @param error     причина, по которой импорт остановлен раньше конца файла
+ */
+public record StudentImportReport(String id, Instant startedAt, long read, long inserted, long updated, long failed,
+                                  List<Failure> failures, boolean finished, String error) {
+
+    /**
+     * @param line    номер строки файла, с единицы, включая заголовок
+     * @param reason  причина отказа
+     * @param message подробности
+     */
+    public record Failure(long line, StudentBatchResult.Reason reason, String message) {
+    }
+}
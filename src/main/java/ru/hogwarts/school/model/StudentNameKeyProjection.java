@@ -0,0 +1,13 @@
+package ru.hogwarts.school.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * Студент вместе с ключом сортировки по имени, вычисленным в БД: курсор страницы строится из него,
+ * а не из toLowerCase в Java, который для части символов расходится с lower() PostgreSQL
+ */
+public interface StudentNameKeyProjection extends StudentProjection {
+
+    @JsonIgnore
+    String getNameKey();
+}
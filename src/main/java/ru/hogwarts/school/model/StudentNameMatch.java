@@ -0,0 +1,10 @@
+package ru.hogwarts.school.model;
+
+/**
+ * Студент, найденный по подстроке имени
+ *
+ * @param id   идентификатор студента
+ * @param name имя студента
+ */
+public record StudentNameMatch(long id, String name) {
+}
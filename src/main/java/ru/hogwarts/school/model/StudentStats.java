@@ -0,0 +1,22 @@
+package ru.hogwarts.school.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Сводка по студентам; minAge и maxAge равны null, если студентов нет
+ */
+public record StudentStats(long count, long ageSum, Integer minAge, Integer maxAge) {
+
+    public static final StudentStats EMPTY = new StudentStats(0, 0, null, null);
+
+    public StudentStats plus(int age, long students) {
+        return new StudentStats(count + students, ageSum + age * students,
+                minAge == null ? age : Math.min(minAge, age),
+                maxAge == null ? age : Math.max(maxAge, age));
+    }
+
+    @JsonProperty
+    public Double averageAge() {
+        return count == 0 ? null : (double) ageSum / count;
+    }
+}
@@ -0,0 +1,69 @@
+package ru.hogwarts.school.repositories;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import ru.hogwarts.school.model.AvatarContent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface AvatarContentRepository extends JpaRepository<AvatarContent, String> {
+
+    // выборки для фонового переноса между хранилищами, постранично по ключу после after
+
+    @Query("SELECT c.hash FROM AvatarContent c WHERE c.inDatabase = false AND c.hash > :after ORDER BY c.hash")
+    List<String> findHashesMissingInDatabase(String after, Pageable pageable);
+
+    @Query("SELECT c.hash FROM AvatarContent c WHERE c.inFileSystem = false AND c.hash > :after ORDER BY c.hash")
+    List<String> findHashesMissingInFileSystem(String after, Pageable pageable);
+
+    @Query("SELECT c.hash FROM AvatarContent c WHERE c.inDatabase = true AND c.inFileSystem = true AND c.hash > :after ORDER BY c.hash")
+    List<String> findHashesStoredTwice(String after, Pageable pageable);
+
+    /**
+     * Содержимое, на которое не ссылается ни один аватар, - для очистки сирот
+     */
+    @Query("SELECT c.hash FROM AvatarContent c WHERE c.hash > :after " +
+            "AND NOT EXISTS (SELECT a.id FROM Avatar a WHERE a.checksum = c.hash) ORDER BY c.hash")
+    List<String> findUnreferencedHashes(String after, Pageable pageable);
+
+    @Query("SELECT c.hash FROM AvatarContent c WHERE c.inFileSystem = true AND c.hash IN :hashes")
+    List<String> findHashesInFileSystem(Collection<String> hashes);
+
+    /**
+     * Занимает строку под новое содержимое. Одновременная вставка того же хеша ждет коммита первой
+     * и ничего не делает вместо нарушения первичного ключа
+     *
+     * @return 1 - строка вставлена этим вызовом, 0 - уже была
+     */
+    @Modifying
+    @Query(value = "INSERT INTO avatar_content (hash, file_size, media_type, in_database, in_file_system) " +
+            "VALUES (:hash, :fileSize, :mediaType, false, false) ON CONFLICT (hash) DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(String hash, long fileSize, String mediaType);
+
+    /**
+     * Блокировка до конца транзакции: пока она держится, {@link #lockUnlessBusy} строку не получит
+     */
+    @Query(value = "SELECT * FROM avatar_content WHERE hash = :hash FOR UPDATE", nativeQuery = true)
+    Optional<AvatarContent> lockByHash(String hash);
+
+    /**
+     * Пусто, если строки нет или ее держит другая транзакция - загрузка, которая на нее сейчас ссылается
+     */
+    @Query(value = "SELECT * FROM avatar_content WHERE hash = :hash FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    Optional<AvatarContent> lockUnlessBusy(String hash);
+
+    @Modifying
+    @Query("UPDATE AvatarContent c SET c.filePath = :filePath WHERE c.hash = :hash")
+    int updateFilePath(String hash, String filePath);
+
+    /**
+     * Large object в PostgreSQL не удаляется вместе со ссылкой на него - его нужно отвязать явно
+     */
+    @Modifying
+    @Query(value = "UPDATE avatar_content SET data = NULL WHERE hash = :hash AND lo_unlink(data) = 1", nativeQuery = true)
+    int unlinkData(String hash);
+}
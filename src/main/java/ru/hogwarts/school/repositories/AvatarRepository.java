@@ -3,8 +3,13 @@ package ru.hogwarts.school.repositories;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarMetadata;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface AvatarRepository extends JpaRepository<Avatar, Long> {
@@ -12,4 +17,36 @@ public interface AvatarRepository extends JpaRepository<Avatar, Long> {
     Optional<Avatar> findByStudentId(Long studentId);
 
     Page<Avatar> findAll(Pageable pageable);
+
+    long countByChecksum(String checksum);
+
+    /**
+     * Аватары, загруженные до хранения по хешу (содержимое лежит в файле по filePath), постранично по id после after
+     */
+    @Query("SELECT a.id AS id, a.student.id AS studentId, a.filePath AS filePath, a.fileSize AS fileSize, " +
+            "a.mediaType AS mediaType, a.checksum AS checksum, a.updatedAt AS updatedAt " +
+            "FROM Avatar a WHERE a.checksum IS NULL AND a.id > :after ORDER BY a.id")
+    List<AvatarMetadata> findLegacyMetadata(long after, Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE Avatar a SET a.filePath = :filePath WHERE a.checksum = :checksum")
+    int updateFilePath(String checksum, String filePath);
+
+    /**
+     * Страница метаданных одним select по таблице avatar, без join к студенту и содержимому
+     */
+    @Query(value = "SELECT a.id AS id, a.student.id AS studentId, a.filePath AS filePath, a.fileSize AS fileSize, " +
+            "a.mediaType AS mediaType, a.checksum AS checksum, a.updatedAt AS updatedAt FROM Avatar a ORDER BY a.id",
+            countQuery = "SELECT count(a) FROM Avatar a")
+    Page<AvatarMetadata> findAllMetadata(Pageable pageable);
+
+    @Query("SELECT a.id AS id, a.student.id AS studentId, a.filePath AS filePath, a.fileSize AS fileSize, " +
+            "a.mediaType AS mediaType, a.checksum AS checksum, a.updatedAt AS updatedAt " +
+            "FROM Avatar a WHERE a.student.id = :studentId")
+    Optional<AvatarMetadata> findMetadataByStudentId(Long studentId);
+
+    @Query("SELECT a.id AS id, a.student.id AS studentId, a.filePath AS filePath, a.fileSize AS fileSize, " +
+            "a.mediaType AS mediaType, a.checksum AS checksum, a.updatedAt AS updatedAt " +
+            "FROM Avatar a WHERE a.student.id IN :studentIds ORDER BY a.id")
+    List<AvatarMetadata> findMetadataByStudentIdIn(Collection<Long> studentIds);
 }
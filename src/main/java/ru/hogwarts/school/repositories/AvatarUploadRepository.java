@@ -0,0 +1,12 @@
+package ru.hogwarts.school.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.hogwarts.school.model.AvatarUpload;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface AvatarUploadRepository extends JpaRepository<AvatarUpload, String> {
+
+    List<AvatarUpload> findByExpiresAtBefore(Instant moment);
+}
@@ -0,0 +1,33 @@
+package ru.hogwarts.school.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import ru.hogwarts.school.model.AvatarVariant;
+import ru.hogwarts.school.model.AvatarVariantMetadata;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface AvatarVariantRepository extends JpaRepository<AvatarVariant, Long> {
+
+    @Query("SELECT v.contentHash AS contentHash, v.size AS size, v.mediaType AS mediaType, v.fileSize AS fileSize, " +
+            "v.filePath AS filePath FROM AvatarVariant v WHERE v.contentHash = :contentHash AND v.size = :size")
+    Optional<AvatarVariantMetadata> findMetadataByContentHashAndSize(String contentHash, int size);
+
+    @Query("SELECT v.contentHash AS contentHash, v.size AS size, v.mediaType AS mediaType, v.fileSize AS fileSize, " +
+            "v.filePath AS filePath FROM AvatarVariant v WHERE v.contentHash = :contentHash")
+    List<AvatarVariantMetadata> findMetadataByContentHash(String contentHash);
+
+    /**
+     * @return пусто, если байты миниатюры не хранятся в БД
+     */
+    @Query("SELECT v.data FROM AvatarVariant v WHERE v.contentHash = :contentHash AND v.size = :size AND v.data IS NOT NULL")
+    Optional<byte[]> findData(String contentHash, int size);
+
+    boolean existsByContentHashAndSize(String contentHash, int size);
+
+    @Modifying
+    @Query("DELETE FROM AvatarVariant v WHERE v.contentHash = :contentHash")
+    int deleteByContentHash(String contentHash);
+}
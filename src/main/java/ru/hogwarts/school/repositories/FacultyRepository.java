@@ -1,6 +1,8 @@
 package ru.hogwarts.school.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import ru.hogwarts.school.model.Faculty;
 
 import java.util.List;
@@ -8,5 +10,26 @@ import java.util.List;
 public interface FacultyRepository extends JpaRepository<Faculty, Long> {
 
     List<Faculty> findByColorContainingIgnoreCase(String color);
-}
 
+    // поиск и создание факультетов по паре (название, цвет) для импорта: пары передаются
+    // параллельными массивами, уже существующие пропускает name_color_unique
+
+    @Modifying
+    @Query(value = "INSERT INTO faculty (id, name, color) " +
+            "SELECT nextval('faculty_seq'), u.name, u.color FROM unnest(CAST(:names AS text[]), CAST(:colors AS text[])) AS u(name, color) " +
+            "ON CONFLICT ON CONSTRAINT name_color_unique DO NOTHING", nativeQuery = true)
+    int insertMissing(String[] names, String[] colors);
+
+    @Query(value = "SELECT f.id, f.name, f.color FROM faculty f " +
+            "JOIN unnest(CAST(:names AS text[]), CAST(:colors AS text[])) AS u(name, color) " +
+            "ON f.name = u.name AND f.color = u.color", nativeQuery = true)
+    List<FacultyKeyRow> findByNamesAndColors(String[] names, String[] colors);
+
+    interface FacultyKeyRow {
+        long getId();
+
+        String getName();
+
+        String getColor();
+    }
+}
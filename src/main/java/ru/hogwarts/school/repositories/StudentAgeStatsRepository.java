@@ -0,0 +1,63 @@
+package ru.hogwarts.school.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import ru.hogwarts.school.model.StudentAgeStats;
+
+import java.util.List;
+import java.util.Optional;
+
+public interface StudentAgeStatsRepository extends JpaRepository<StudentAgeStats, StudentAgeStats.Key> {
+
+    @Query("SELECT s FROM StudentAgeStats s WHERE s.studentCount > 0")
+    List<StudentAgeStats> findNonEmpty();
+
+    /**
+     * Атомарно меняет счетчик на delta, создавая его при необходимости
+     */
+    @Modifying
+    @Query(value = "INSERT INTO student_age_stats (faculty_id, age, student_count) VALUES (:facultyId, :age, :delta) " +
+            "ON CONFLICT (faculty_id, age) DO UPDATE SET student_count = student_age_stats.student_count + :delta",
+            nativeQuery = true)
+    void add(long facultyId, int age, long delta);
+
+    /**
+     * Текущий счетчик студента по его строке в БД. Строка блокируется до конца транзакции,
+     * поэтому параллельное изменение того же студента дождется коммита и увидит уже новые значения
+     */
+    @Query(value = "SELECT COALESCE(faculty_id, 0) AS \"facultyId\", age FROM student WHERE id = :studentId FOR UPDATE",
+            nativeQuery = true)
+    Optional<AgeBucket> lockStudentBucket(long studentId);
+
+    /**
+     * Эксклюзивная блокировка: пока идет сверка, счетчики никто не меняет, а изменения студентов ждут
+     */
+    @Modifying
+    @Query(value = "LOCK TABLE student_age_stats IN EXCLUSIVE MODE", nativeQuery = true)
+    void lock();
+
+    /**
+     * @return число пар (факультет, возраст), где счетчик расходится с таблицей студентов
+     */
+    @Query(value = "SELECT COUNT(*) FROM (SELECT COALESCE(faculty_id, 0) AS faculty_id, age, COUNT(*) AS student_count " +
+            "FROM student GROUP BY 1, 2) t " +
+            "FULL JOIN (SELECT faculty_id, age, student_count FROM student_age_stats WHERE student_count <> 0) a " +
+            "USING (faculty_id, age) WHERE t.student_count IS DISTINCT FROM a.student_count", nativeQuery = true)
+    long countMismatches();
+
+    @Modifying
+    @Query(value = "DELETE FROM student_age_stats", nativeQuery = true)
+    void deleteAllCounters();
+
+    @Modifying
+    @Query(value = "INSERT INTO student_age_stats (faculty_id, age, student_count) " +
+            "SELECT COALESCE(faculty_id, 0), age, COUNT(*) FROM student GROUP BY 1, 2", nativeQuery = true)
+    void rebuildFromStudents();
+
+    interface AgeBucket {
+        long getFacultyId();
+
+        int getAge();
+    }
+}
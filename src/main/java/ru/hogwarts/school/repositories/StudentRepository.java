@@ -1,22 +1,106 @@
 package ru.hogwarts.school.repositories;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
-import ru.hogwarts.school.model.Faculty;
+import org.springframework.data.jpa.repository.QueryHints;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentNameKeyProjection;
 import ru.hogwarts.school.model.StudentProjection;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface StudentRepository extends JpaRepository<Student, Long> {
-    List<Student> findByAgeBetween(int minAge, int maxAge);
 
-    List<Student> findAllByFaculty(Faculty faculty);
+    int EXPORT_FETCH_SIZE = 1000;
+
+    // постраничные выборки по ключу: строки после (ключ, id) последней строки прошлой страницы.
+    // Pageable задает только LIMIT - номер страницы всегда 0, а List вместо Page не запускает COUNT.
+    // Условие "ключ >= after" повторено отдельно, чтобы индекс по ключу ограничивал диапазон, а не только фильтровал.
+    // Выборку по возрасту обслуживает student_age_index (age, id): диапазон и порядок страницы берутся из индекса
+
+    @Query("SELECT s FROM Student s WHERE s.age BETWEEN :minAge AND :maxAge " +
+            "AND s.age >= :afterAge AND (s.age > :afterAge OR s.id > :afterId) ORDER BY s.age, s.id")
+    List<Student> findByAgeBetweenAfter(int minAge, int maxAge, int afterAge, long afterId, Pageable pageable);
+
+    @Query("SELECT s FROM Student s WHERE s.faculty.id = :facultyId AND s.id > :afterId ORDER BY s.id")
+    List<Student> findByFacultyIdAfter(long facultyId, long afterId, Pageable pageable);
+
+    /**
+     * Имена в нижнем регистре в диапазоне [from, to) после (afterName, id) - по индексу student_name_prefix_index.
+     * Сравнение в collation "C": при языковой collation базы B-tree не годится для поиска по префиксу,
+     * а в "C" префикс - это обычный диапазон ключей, который индекс отдает уже упорядоченным
+     */
+    @Query(value = "SELECT s.id AS id, s.name AS name, s.age AS age, lower(s.name) COLLATE \"C\" AS \"nameKey\" " +
+            "FROM student s " +
+            "WHERE (lower(s.name) COLLATE \"C\", s.id) > (:afterName, :afterId) " +
+            "AND lower(s.name) COLLATE \"C\" < :to " +
+            "ORDER BY lower(s.name) COLLATE \"C\", s.id", nativeQuery = true)
+    List<StudentNameKeyProjection> findByNamePrefix(String to, String afterName, long afterId, Pageable pageable);
 
     List <Student> findByNameContainsIgnoreCase(String name);
 
+    List<StudentProjection> findByNameContainsIgnoreCaseOrderById(String name, Pageable pageable);
+
+    @Query("SELECT s.name FROM Student s WHERE s.name IN :names")
+    List<String> findExistingNames(Collection<String> names);
+
+    // массовое назначение факультета без загрузки сущностей: строки блокируются в порядке ID,
+    // чтобы параллельные назначения не ждали друг друга по кругу, а затем меняются одним UPDATE
+
+    @Query(value = "SELECT id, COALESCE(faculty_id, 0) AS \"facultyId\", age FROM student " +
+            "WHERE id = ANY(CAST(:ids AS bigint[])) ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<FacultyAssignmentRow> lockForFacultyAssignment(Long[] ids);
+
+    @Query(value = "SELECT id, COALESCE(faculty_id, 0) AS \"facultyId\", age FROM student " +
+            "WHERE id BETWEEN :fromId AND :toId ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<FacultyAssignmentRow> lockRangeForFacultyAssignment(long fromId, long toId);
+
+    @Query(value = "SELECT id, faculty_id AS \"facultyId\", age FROM student " +
+            "WHERE faculty_id = :facultyId ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<FacultyAssignmentRow> lockByFacultyId(long facultyId);
+
+    @Modifying
+    @Query(value = "UPDATE student SET faculty_id = :facultyId WHERE id = ANY(CAST(:ids AS bigint[]))", nativeQuery = true)
+    int updateFaculty(Long[] ids, long facultyId);
+
+    // импорт с обновлением по name_unique: существующие строки блокируются в порядке ID, для новых
+    // ID берутся блоками из student_seq (значение V дает ID с V - шаг + 1 по V), затем пачка пишется одним INSERT
+
+    @Query(value = "SELECT id, name, COALESCE(faculty_id, 0) AS \"facultyId\", age FROM student " +
+            "WHERE name = ANY(CAST(:names AS text[])) ORDER BY id FOR UPDATE", nativeQuery = true)
+    List<ImportTargetRow> lockForImport(String[] names);
+
+    @Query(value = "SELECT nextval('student_seq') FROM generate_series(1, :blocks)", nativeQuery = true)
+    List<Long> nextIdBlocks(int blocks);
+
+    /**
+     * @return ID каждой записанной строки: при конфликте с параллельно созданным студентом - его ID, а не переданный
+     */
+    @Query(value = "INSERT INTO student (id, name, age, faculty_id) " +
+            "SELECT * FROM unnest(CAST(:ids AS bigint[]), CAST(:names AS text[]), CAST(:ages AS int[]), CAST(:facultyIds AS bigint[])) " +
+            "ON CONFLICT ON CONSTRAINT name_unique DO UPDATE SET age = EXCLUDED.age, faculty_id = EXCLUDED.faculty_id " +
+            "RETURNING id, name",
+            nativeQuery = true)
+    List<UpsertedRow> upsertByName(Long[] ids, String[] names, Integer[] ages, Long[] facultyIds);
+
+    /**
+     * Курсор для выгрузки: без транзакции драйвер PostgreSQL игнорирует fetch size и читает выборку целиком
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + EXPORT_FETCH_SIZE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT s.id AS id, s.name AS name, s.age AS age FROM Student s " +
+            "WHERE (:facultyId IS NULL OR s.faculty.id = :facultyId) AND s.age BETWEEN :minAge AND :maxAge ORDER BY s.id")
+    Stream<StudentProjection> streamForExport(Long facultyId, int minAge, int maxAge);
+
     @Query(value = "SELECT COUNT(*) FROM Student", nativeQuery = true)
     long countAllStudents();
 
@@ -25,4 +109,28 @@ public interface StudentRepository extends JpaRepository<Student, Long> {
 
     @Query("SELECT s FROM Student s ORDER BY s.id DESC")
     Page<StudentProjection> findLastFiveStudents(Pageable pageable);
+
+    interface ImportTargetRow {
+        long getId();
+
+        String getName();
+
+        long getFacultyId();
+
+        int getAge();
+    }
+
+    interface UpsertedRow {
+        long getId();
+
+        String getName();
+    }
+
+    interface FacultyAssignmentRow {
+        long getId();
+
+        long getFacultyId();
+
+        int getAge();
+    }
 }
@@ -0,0 +1,25 @@
+package ru.hogwarts.school.service;
+
+import java.util.function.Function;
+
+/**
+ * Кэш содержимого аватаров в памяти. Ключ - SHA-256 содержимого, поэтому новая загрузка
+ * сама по себе получает новый ключ, а удаленное содержимое нужно явно вычеркнуть через {@link #invalidate}.
+ */
+public interface AvatarCache {
+
+    /**
+     * @param loader загружает содержимое при промахе; null не кэшируется
+     */
+    byte[] get(String contentHash, Function<String, byte[]> loader);
+
+    /**
+     * @return true, если содержимое такого размера будет закэшировано при загрузке
+     */
+    boolean admits(long size);
+
+    /**
+     * Убирает содержимое из кэша после коммита текущей транзакции
+     */
+    void invalidate(String contentHash);
+}
@@ -0,0 +1,19 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.AvatarMetadata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+public interface AvatarExportService {
+
+    /**
+     * Пишет оригиналы аватаров ZIP-архивом прямо в поток ответа, записи именуются &lt;studentId&gt;.&lt;ext&gt;.
+     * Аватары без содержимого пропускаются.
+     *
+     * @param avatars метаданные аватаров, порядок записей в архиве тот же
+     * @param out     поток ответа; не закрывается
+     */
+    void exportAvatars(List<AvatarMetadata> avatars, OutputStream out) throws IOException;
+}
@@ -0,0 +1,19 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.AvatarImportResult;
+
+import java.io.InputStream;
+import java.util.List;
+
+public interface AvatarImportService {
+
+    /**
+     * Импортирует аватары из ZIP-архива с записями вида &lt;studentId&gt;.&lt;ext&gt;.
+     * Архив читается потоком, записи обрабатываются по мере поступления.
+     * Поврежденный или оборванный архив не прерывает импорт уже принятых записей - ошибка попадает в отчет.
+     *
+     * @param archive тело запроса с архивом; не закрывается
+     * @return результат по каждой записи в порядке завершения обработки
+     */
+    List<AvatarImportResult> importAvatars(InputStream archive);
+}
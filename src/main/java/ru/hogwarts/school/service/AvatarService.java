@@ -4,13 +4,114 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.web.multipart.MultipartFile;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.model.AvatarMetadata;
+import ru.hogwarts.school.model.AvatarVariantMetadata;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 public interface AvatarService {
     void uploadAvatar(Long studentId, MultipartFile avatar) throws IOException;
 
+    /**
+     * Назначает студенту аватар из уже принятого файла. Если содержимого с таким хешем еще нет,
+     * файл атомарно переносится в хранилище, иначе остается на месте - удаляет его вызывающий.
+     *
+     * @param hash SHA-256 файла в hex
+     */
+    void uploadAvatar(Long studentId, Path file, String hash, long fileSize, String mediaType);
+
+    /**
+     * Сохраняет содержимое из временного файла активной стратегией хранения, если такого хеша еще нет.
+     * Файл после вызова можно удалять.
+     *
+     * @return новое или уже существующее содержимое с этим хешем
+     */
+    AvatarContent saveContent(String hash, Path file, long fileSize, String mediaType);
+
+    /**
+     * Назначает студентам аватары с уже сохраненным содержимым одной транзакцией
+     *
+     * @param contents содержимое по ID студента
+     * @return ID студентов, которым аватар не назначен: их нет в БД или содержимое успели освободить
+     * между сохранением и назначением
+     */
+    Set<Long> attachAvatars(Map<Long, AvatarContent> contents);
+
+    /**
+     * Удаляет содержимое вместе с миниатюрами и файлами, если на него не ссылается ни один аватар
+     *
+     * @return true, если содержимое удалено
+     */
+    boolean releaseContent(String hash);
+
     Avatar findAvatar(Long id);
 
-    Page<Avatar> getAllAvatars(Pageable pageable);
+    byte[] findAvatarData(Long studentId);
+
+    /**
+     * @param checksum SHA-256 содержимого из метаданных аватара
+     * @return содержимое из кэша или из БД, null - если содержимого нет
+     */
+    byte[] findContentData(String checksum);
+
+    /**
+     * Пишет содержимое в поток, не собирая его в памяти целиком, если оно не попадает в кэш
+     *
+     * @param fileSize размер содержимого из метаданных аватара
+     * @param out      поток ответа; не закрывается
+     * @return false, если содержимого нет - тогда в поток ничего не записано
+     */
+    boolean writeContentData(String checksum, long fileSize, OutputStream out) throws IOException;
+
+    /**
+     * @return метаданные аватара студента без загрузки содержимого или null, если аватара нет
+     */
+    AvatarMetadata findAvatarMetadata(Long studentId);
+
+    /**
+     * @return метаданные аватаров перечисленных студентов; студенты без аватара пропускаются
+     */
+    List<AvatarMetadata> findAvatarsMetadata(Collection<Long> studentIds);
+
+    /**
+     * @param size запрошенный размер в пикселях
+     * @return готовая уменьшенная копия без байтов или пусто, пока она не сгенерирована
+     */
+    Optional<AvatarVariantMetadata> findAvatarVariant(String checksum, int size);
+
+    /**
+     * @return размер готовой уменьшенной копии без загрузки ее байтов
+     */
+    Optional<Integer> findReadyVariantSize(String checksum, int size);
+
+    /**
+     * @return файл (или участок сегмента) с оригиналом аватара для отдачи через sendfile
+     */
+    Optional<AvatarLocation> findAvatarFile(AvatarMetadata metadata);
+
+    /**
+     * @return пусто, если миниатюра хранится только в БД
+     */
+    Optional<AvatarLocation> findVariantFile(AvatarVariantMetadata variant);
+
+    /**
+     * Пишет байты миниатюры из БД или из хранилища файлов - где они есть
+     *
+     * @return false, если байтов нет нигде - тогда в поток ничего не записано
+     */
+    boolean writeVariantData(AvatarVariantMetadata variant, OutputStream out) throws IOException;
+
+    /**
+     * @return страница метаданных аватаров; содержимое не читается
+     */
+    Page<AvatarMetadata> getAllAvatars(Pageable pageable);
 }
@@ -0,0 +1,36 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.AvatarLocation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Хранилище байтов аватаров и миниатюр по ключу (хеш содержимого или ключ миниатюры).
+ * Реализация выбирается свойством avatar.storage.engine: file - файл на каждый ключ (по умолчанию),
+ * segment - упаковка в большие сегменты только на дозапись.
+ */
+public interface AvatarStorageEngine {
+
+    /**
+     * Сохраняет содержимое файла под ключом. Файл-источник после вызова может быть перемещен или удален.
+     * Если ключ уже есть, содержимое не перезаписывается: ключи адресуют неизменяемое содержимое.
+     */
+    AvatarLocation write(String key, Path source) throws IOException;
+
+    AvatarLocation write(String key, byte[] data) throws IOException;
+
+    /**
+     * @return файл и участок в нем для отдачи через sendfile / Range
+     */
+    Optional<AvatarLocation> locate(String key);
+
+    /**
+     * @throws java.io.FileNotFoundException если ключа нет
+     */
+    InputStream openStream(String key) throws IOException;
+
+    void delete(String key) throws IOException;
+}
@@ -0,0 +1,37 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Стратегия хранения содержимого аватаров: только БД, только файлы или и то и другое.
+ * Активная стратегия задается свойством avatar.store.mode (db, file, dual), где содержимое лежит сейчас -
+ * флагами {@link AvatarContent#isInDatabase()} и {@link AvatarContent#isInFileSystem()}.
+ */
+public interface AvatarStore {
+
+    /**
+     * Кладет содержимое из файла-источника, отмечает это в content и сохраняет строку.
+     * Источник после вызова может быть перемещен.
+     */
+    AvatarContent save(AvatarContent content, Path source) throws IOException;
+
+    boolean holds(AvatarContent content);
+
+    InputStream openStream(AvatarContent content) throws IOException;
+
+    /**
+     * @return файл для отдачи через sendfile, если содержимое лежит в файле
+     */
+    Optional<AvatarLocation> locate(AvatarContent content);
+
+    /**
+     * Убирает содержимое из этого хранилища и снимает флаг; строку сохраняет вызывающий
+     */
+    void remove(AvatarContent content) throws IOException;
+}
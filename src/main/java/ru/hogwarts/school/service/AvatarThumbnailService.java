@@ -0,0 +1,36 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.AvatarVariantMetadata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Optional;
+
+public interface AvatarThumbnailService {
+
+    /**
+     * Ставит генерацию уменьшенных копий в очередь после коммита текущей транзакции.
+     * Если очередь заполнена, задача отбрасывается: копии догенерируются при первом запросе.
+     */
+    void enqueue(String contentHash);
+
+    /**
+     * @param size запрошенный размер в пикселях
+     * @return готовая копия ближайшего размера не меньше запрошенного, иначе пусто (отдается оригинал)
+     */
+    Optional<AvatarVariantMetadata> findVariant(String contentHash, int size);
+
+    /**
+     * @return false, если байтов миниатюры нет ни в БД, ни в хранилище файлов
+     */
+    boolean writeVariantData(AvatarVariantMetadata variant, OutputStream out) throws IOException;
+
+    /**
+     * То же, что {@link #findVariant}, но без загрузки байтов: только размер готовой копии
+     */
+    Optional<Integer> findReadyVariantSize(String contentHash, int size);
+
+    void deleteVariants(String contentHash);
+
+    int queueDepth();
+}
@@ -0,0 +1,41 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.AvatarUploadStatus;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Загрузка аватара по частям с возможностью продолжить после обрыва соединения:
+ * сессия создается с объявленным размером, части пишутся по смещениям,
+ * после обрыва клиент узнает подтвержденное смещение и досылает остаток, затем завершает загрузку.
+ */
+public interface AvatarUploadService {
+
+    /**
+     * @param size объявленный размер файла в байтах
+     * @return новая сессия со смещением 0
+     */
+    AvatarUploadStatus createUpload(Long studentId, String mediaType, long size);
+
+    AvatarUploadStatus getUpload(String uploadId);
+
+    /**
+     * Пишет часть, начиная с offset. Смещение не может быть больше подтвержденного (пропуск байтов),
+     * но может быть меньше - повторно присланные байты перезаписываются на своих местах.
+     * Если поток оборвался посередине, принятое до обрыва остается в подтвержденном смещении.
+     *
+     * @param body тело запроса; не закрывается
+     * @return состояние сессии после записи
+     */
+    AvatarUploadStatus writeChunk(String uploadId, long offset, InputStream body) throws IOException;
+
+    /**
+     * Назначает студенту загруженный файл и закрывает сессию
+     *
+     * @param checksum ожидаемый SHA-256 файла в hex или null, если клиент его не проверяет
+     */
+    void completeUpload(String uploadId, String checksum) throws IOException;
+
+    void cancelUpload(String uploadId) throws IOException;
+}
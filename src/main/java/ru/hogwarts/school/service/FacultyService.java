@@ -1,6 +1,7 @@
 package ru.hogwarts.school.service;
 
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
 
 import java.util.Collection;
@@ -20,5 +21,10 @@ public interface FacultyService {
 
     Collection<Faculty> findAllFaculty();
 
-    Collection<Student> getStudentsByFaculty(long id);
+    /**
+     * @param cursor курсор из предыдущей страницы или null для первой
+     * @param limit  размер страницы
+     * @return студенты факультета по возрастанию ID
+     */
+    KeysetPage<Student> getStudentsByFaculty(long id, String cursor, int limit);
 }
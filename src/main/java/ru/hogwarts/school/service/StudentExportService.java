@@ -0,0 +1,19 @@
+package ru.hogwarts.school.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface StudentExportService {
+
+    /**
+     * Пишет студентов в поток построчно, по JSON-объекту {"id", "name", "age"} на строку (NDJSON), в порядке ID.
+     * Фильтры со значением null не применяются.
+     *
+     * @param facultyId только студенты факультета
+     * @param minAge    минимальный возраст, включительно
+     * @param maxAge    максимальный возраст, включительно
+     * @param out       поток ответа; не закрывается
+     * @return число выгруженных студентов
+     */
+    long exportStudents(Long facultyId, Integer minAge, Integer maxAge, OutputStream out) throws IOException;
+}
@@ -0,0 +1,27 @@
+package ru.hogwarts.school.service;
+
+import ru.hogwarts.school.model.StudentImportReport;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+public interface StudentImportService {
+
+    /**
+     * Импортирует студентов из CSV с заголовком: обязательные колонки name и age, необязательные
+     * faculty_name и faculty_color. Студент с уже существующим именем обновляется, факультет ищется
+     * по паре (название, цвет) и создается, если его нет. Файл читается потоком; строки с ошибками
+     * попадают в отчет и не мешают остальным.
+     *
+     * @param csv тело запроса; не закрывается
+     * @return итог импорта
+     * @throws ru.hogwarts.school.exception.BadRequestException если нет заголовка или обязательных колонок
+     */
+    StudentImportReport importStudents(Reader csv) throws IOException;
+
+    /**
+     * @return ход импортов, которые выполняются сейчас
+     */
+    List<StudentImportReport> getRunningImports();
+}
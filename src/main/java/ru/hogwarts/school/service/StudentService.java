@@ -2,21 +2,59 @@ package ru.hogwarts.school.service;
 
 import org.springframework.data.domain.Page;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyAssignmentResult;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentBatchResult;
+import ru.hogwarts.school.model.StudentNameMatch;
 import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.model.StudentStats;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 
 public interface StudentService {
     Student createStudent(Student student);
 
+    /**
+     * Создает студентов пакетом; строки с ошибками попадают в отчет и не мешают остальным
+     */
+    StudentBatchResult createStudents(List<Student> students);
+
     Student findStudent(long id);
 
     Student editStudent(Student student);
 
     void deleteStudent(long id);
 
-    Collection<Student> findByAgeBetween(int minAge, int maxAge);
+    /**
+     * @param cursor курсор из предыдущей страницы или null для первой
+     * @param limit  размер страницы
+     * @return студенты в диапазоне возраста по возрастанию возраста и ID
+     */
+    KeysetPage<Student> findByAgeBetween(int minAge, int maxAge, String cursor, int limit);
+
+    /**
+     * @return студенты, чье имя начинается с prefix без учета регистра, по алфавиту;
+     * только для чтения - изменения проекций не попадают в БД
+     */
+    KeysetPage<StudentProjection> findByNameStartingWith(String prefix, String cursor, int limit);
+
+    /**
+     * @param query подстрока имени без учета регистра, не короче трех символов
+     * @param limit сколько совпадений вернуть, от 1 до 100
+     * @return лучшие совпадения: полное имя, начало имени, начало слова, затем остальные
+     */
+    List<StudentNameMatch> searchByName(String query, int limit);
+
+    /**
+     * @param prefix непустое начало имени; регистр, "ё"/"е" и форма записи диакритики не важны
+     * @param limit  сколько дополнений вернуть, от 1 до 100
+     * @return имена, начинающиеся с prefix: сначала более короткие, при равной длине - по алфавиту
+     */
+    List<StudentNameMatch> autocomplete(String prefix, int limit);
 
     Collection<Student> findAllStudent();
 
@@ -24,9 +62,40 @@ public interface StudentService {
 
     Student assignFacultyToStudent(Long studentId, Long facultyId);
 
+    /**
+     * Назначает факультет списку студентов одним UPDATE, не загружая сущности
+     */
+    FacultyAssignmentResult assignFacultyToStudents(long facultyId, Collection<Long> studentIds);
+
+    /**
+     * Назначает факультет всем студентам с ID в диапазоне [fromId, toId]
+     */
+    FacultyAssignmentResult assignFacultyToStudentRange(long facultyId, long fromId, long toId);
+
     long countAllStudents();
 
     Double getAverageAge();
 
+    /**
+     * @return количество, сумма, минимум и максимум возраста по счетчикам, без прохода по таблице студентов
+     */
+    StudentStats getStats();
+
+    /**
+     * @return сводка по каждому факультету; студенты без факультета - под ключом 0
+     */
+    Map<Long, StudentStats> getStatsByFaculty();
+
+    /**
+     * @return число студентов каждого возраста по возрастанию возраста
+     */
+    SortedMap<Integer, Long> getAgeHistogram();
+
+    /**
+     * @param percentiles процентили в диапазоне (0, 100]
+     * @return возраст для каждого процентиля в порядке запроса; пусто, если студентов нет
+     */
+    Map<Double, Integer> getAgePercentiles(List<Double> percentiles);
+
     Page<StudentProjection> findLastFiveStudents();
 }
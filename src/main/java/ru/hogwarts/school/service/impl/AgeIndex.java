@@ -0,0 +1,84 @@
+package ru.hogwarts.school.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Индекс студентов по возрасту: для каждого возраста - отсортированный массив ID ({@link SortedIds}),
+ * для каждого ID - его возраст ({@link LongMap}), чтобы изменение и удаление находили прежний список.
+ * Порядок выборки - (возраст, ID), как у запроса к БД, поэтому курсоры страниц у них общие.
+ * <p>
+ * Не потокобезопасен: доступ упорядочивает {@link StudentAgeIndex}
+ */
+final class AgeIndex {
+
+    private final TreeMap<Integer, SortedIds> byAge = new TreeMap<>();
+    private final LongMap<Integer> ages = new LongMap<>();
+
+    int size() {
+        return ages.size();
+    }
+
+    /**
+     * Добавляет студента или переносит его из прежнего возраста
+     */
+    void put(long id, int age) {
+        remove(id);
+        byAge.computeIfAbsent(age, key -> new SortedIds()).add(id);
+        ages.put(id, age);
+    }
+
+    void remove(long id) {
+        Integer age = ages.remove(id);
+        if (age == null) {
+            return;
+        }
+        SortedIds ids = byAge.get(age);
+        if (ids.remove(id) && ids.size == 0) {
+            byAge.remove(age);
+        }
+    }
+
+    /**
+     * @return до limit студентов с возрастом в [minAge, maxAge], идущих после (afterAge, afterId)
+     */
+    List<Entry> page(int minAge, int maxAge, int afterAge, long afterId, int limit) {
+        List<Entry> page = new ArrayList<>(limit);
+        int from = Math.max(minAge, afterAge);
+        if (from > maxAge) {
+            return page;
+        }
+        for (Map.Entry<Integer, SortedIds> bucket : byAge.subMap(from, true, maxAge, true).entrySet()) {
+            int age = bucket.getKey();
+            SortedIds ids = bucket.getValue();
+            int start = 0;
+            if (age == afterAge) {
+                int at = Arrays.binarySearch(ids.ids, 0, ids.size, afterId);
+                start = at >= 0 ? at + 1 : -at - 1;
+            }
+            for (int i = start; i < ids.size; i++) {
+                if (page.size() == limit) {
+                    return page;
+                }
+                page.add(new Entry(ids.ids[i], age));
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return число студентов каждого возраста по возрастанию возраста
+     */
+    SortedMap<Integer, Long> histogram() {
+        SortedMap<Integer, Long> histogram = new TreeMap<>();
+        byAge.forEach((age, ids) -> histogram.put(age, (long) ids.size));
+        return histogram;
+    }
+
+    record Entry(long id, int age) {
+    }
+}
@@ -0,0 +1,99 @@
+package ru.hogwarts.school.service.impl;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.service.AvatarCache;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Кэш ограничен суммарным объемом в байтах, а не числом записей.
+ * Вытеснение Caffeine (W-TinyLFU) учитывает частоту обращений: новая запись попадает в основную область,
+ * только если к ней обращаются чаще, чем к вытесняемой, поэтому разовый проход по всей галерее
+ * не вымывает популярные аватары.
+ */
+@Service
+public class AvatarCacheImpl implements AvatarCache {
+
+    private static final long MB = 1024 * 1024;
+
+    private final Cache<String, byte[]> cache;
+    private final long maxEntryBytes;
+
+    public AvatarCacheImpl(MeterRegistry meterRegistry,
+                           @Value("${avatar.cache.max-size-mb:64}") long maxSizeMb,
+                           @Value("${avatar.cache.max-entry-size-kb:1024}") long maxEntrySizeKb) {
+        this(meterRegistry, maxSizeMb, maxEntrySizeKb, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param maintenance где выполнять учет обращений и вытеснение; в тестах - в вызывающем потоке
+     */
+    AvatarCacheImpl(MeterRegistry meterRegistry, long maxSizeMb, long maxEntrySizeKb, Executor maintenance) {
+        this.maxEntryBytes = maxEntrySizeKb * 1024;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxSizeMb * MB)
+                .weigher((String hash, byte[] data) -> data.length)
+                .executor(maintenance)
+                .recordStats()
+                .build();
+        // cache.gets{result=hit|miss}, cache.evictions, cache.eviction.weight, cache.size
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "avatars");
+        Gauge.builder("avatar.cache.weight", cache, c -> c.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .description("Объем содержимого аватаров в кэше, байт")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Загрузка атомарна по ключу: одновременные промахи по одному аватару ждут одну загрузку из хранилища,
+     * а не читают его каждый. Слишком большие аватары не кэшируются: одна такая запись вытеснила бы
+     * десятки обычных - они возвращаются вызывающему мимо кэша.
+     */
+    @Override
+    public byte[] get(String contentHash, Function<String, byte[]> loader) {
+        byte[][] uncached = new byte[1][];
+        byte[] data = cache.get(contentHash, hash -> {
+            byte[] loaded = loader.apply(hash);
+            if (loaded != null && !admits(loaded.length)) {
+                uncached[0] = loaded;
+                return null;
+            }
+            return loaded;
+        });
+        return data != null ? data : uncached[0];
+    }
+
+    @Override
+    public boolean admits(long size) {
+        return size <= maxEntryBytes;
+    }
+
+    @Override
+    public void invalidate(String contentHash) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidate(contentHash);
+                }
+            });
+        } else {
+            cache.invalidate(contentHash);
+        }
+    }
+
+    long weightedSize() {
+        cache.cleanUp();
+        return cache.policy().eviction().orElseThrow().weightedSize().orElse(0);
+    }
+}
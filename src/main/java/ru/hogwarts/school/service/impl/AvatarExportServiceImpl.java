@@ -0,0 +1,196 @@
+package ru.hogwarts.school.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.model.AvatarMetadata;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.service.AvatarExportService;
+import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.service.AvatarStore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Архив собирается на лету: в памяти только буфер текущей записи, целиком архив не существует ни на сервере, ни на клиенте.
+ * Картинки уже сжаты, поэтому записи пишутся без сжатия - deflate только оборачивает байты в stored-блоки,
+ * а CRC считается по ходу записи, и файл не приходится читать дважды.
+ * Содержимое из файла (или участка сегмента) читается через FileChannel.transferTo, но zero-copy здесь нет:
+ * приемник - канал поверх ZipOutputStream, поэтому байты копируются через буфер в user space (их все равно
+ * должен увидеть CRC записи); выигрыш только в том, что файл не читается в память целиком.
+ * Из БД содержимое идет потоком из blob. Аватары обрабатываются страницами по {@value #PAGE_SIZE}:
+ * на страницу одна read-only транзакция и один запрос за строками содержимого, а не запрос на каждую запись.
+ */
+@Service
+public class AvatarExportServiceImpl implements AvatarExportService {
+
+    static final int PAGE_SIZE = 50;
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarExportServiceImpl.class);
+    private final AvatarService avatarService;
+    private final AvatarContentRepository avatarContentRepository;
+    private final AvatarStores avatarStores;
+    private final TransactionTemplate readTransaction;
+
+    public AvatarExportServiceImpl(AvatarService avatarService,
+                                   AvatarContentRepository avatarContentRepository,
+                                   AvatarStores avatarStores,
+                                   PlatformTransactionManager transactionManager) {
+        this.avatarService = avatarService;
+        this.avatarContentRepository = avatarContentRepository;
+        this.avatarStores = avatarStores;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public void exportAvatars(List<AvatarMetadata> avatars, OutputStream out) throws IOException {
+        // ZipOutputStream не закрываем, чтобы не закрыть поток ответа: finish() дописывает центральный каталог
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        WritableByteChannel channel = Channels.newChannel(zip);
+        int written = 0;
+        for (int from = 0; from < avatars.size(); from += PAGE_SIZE) {
+            written += writePage(zip, channel, avatars.subList(from, Math.min(from + PAGE_SIZE, avatars.size())));
+        }
+        zip.finish();
+        zip.flush();
+        logger.info("Выгружено аватаров в архив: {} из {}", written, avatars.size());
+    }
+
+    /**
+     * Blob читается только в той транзакции, что загрузила строку, поэтому вся страница пишется внутри нее
+     *
+     * @return сколько записей попало в архив
+     */
+    private int writePage(ZipOutputStream zip, WritableByteChannel channel, List<AvatarMetadata> page) throws IOException {
+        try {
+            Integer written = readTransaction.execute(status -> {
+                Map<String, AvatarContent> contents = avatarContentRepository.findAllById(page.stream()
+                                .map(AvatarMetadata::getChecksum)
+                                .filter(Objects::nonNull)
+                                .collect(Collectors.toSet()))
+                        .stream()
+                        .collect(Collectors.toMap(AvatarContent::getHash, Function.identity()));
+                int count = 0;
+                for (AvatarMetadata metadata : page) {
+                    AvatarContent content = metadata.getChecksum() == null ? null : contents.get(metadata.getChecksum());
+                    try {
+                        if (writeFromFile(zip, channel, metadata, content) || writeFromStore(zip, metadata, content)) {
+                            count++;
+                        } else {
+                            logger.warn("Содержимое аватара студента {} не найдено, запись пропущена", metadata.getStudentId());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return count;
+            });
+            return written != null ? written : 0;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @param content строка содержимого или null - для старых аватаров без checksum файл ищется по пути из метаданных
+     */
+    private boolean writeFromFile(ZipOutputStream zip, WritableByteChannel channel,
+                                  AvatarMetadata metadata, AvatarContent content) throws IOException {
+        Optional<AvatarLocation> location;
+        if (metadata.getChecksum() == null) {
+            location = avatarService.findAvatarFile(metadata);
+        } else if (content != null && avatarStores.fileSystem().holds(content)) {
+            location = avatarStores.fileSystem().locate(content);
+        } else {
+            location = Optional.empty();
+        }
+        if (location.isEmpty()) {
+            return false;
+        }
+        AvatarLocation region = location.get();
+        FileChannel file;
+        try {
+            file = FileChannel.open(region.path(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            // файл успели удалить после locate - пробуем другое хранилище
+            return false;
+        }
+        try (file) {
+            zip.putNextEntry(entry(metadata));
+            long position = region.offset();
+            long end = region.offset() + region.length();
+            while (position < end) {
+                long transferred = file.transferTo(position, end - position, channel);
+                if (transferred <= 0) {
+                    throw new EOFException("Файл аватара " + region.path() + " короче ожидаемого");
+                }
+                position += transferred;
+            }
+            zip.closeEntry();
+        }
+        return true;
+    }
+
+    private boolean writeFromStore(ZipOutputStream zip, AvatarMetadata metadata, AvatarContent content) throws IOException {
+        AvatarStore store = content == null ? null : avatarStores.reader(content).orElse(null);
+        if (store == null) {
+            return false;
+        }
+        try (InputStream is = store.openStream(content)) {
+            zip.putNextEntry(entry(metadata));
+            is.transferTo(zip);
+            zip.closeEntry();
+        }
+        return true;
+    }
+
+    private static ZipEntry entry(AvatarMetadata metadata) {
+        ZipEntry entry = new ZipEntry(metadata.getStudentId() + "." + extension(metadata.getMediaType()));
+        if (metadata.getUpdatedAt() != null) {
+            entry.setLastModifiedTime(FileTime.from(metadata.getUpdatedAt()));
+        }
+        return entry;
+    }
+
+    /**
+     * Расширение по подтипу media type: image/png - png, image/svg+xml - svg
+     */
+    static String extension(String mediaType) {
+        if (mediaType == null) {
+            return "bin";
+        }
+        try {
+            String subtype = MediaType.parseMediaType(mediaType).getSubtype();
+            int suffix = subtype.indexOf('+');
+            return suffix > 0 ? subtype.substring(0, suffix) : subtype;
+        } catch (IllegalArgumentException e) {
+            return "bin";
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarImportResult;
+import ru.hogwarts.school.model.AvatarImportResult.Status;
+import ru.hogwarts.school.service.AvatarImportService;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Импорт аватаров из ZIP-архива прямо из тела запроса: записи сохраняются пулом, пока архив еще приходит,
+ * в работе не больше avatar.import.max-in-flight записей, назначаются пачками по avatar.import.batch-size.
+ */
+@Service
+public class AvatarImportServiceImpl implements AvatarImportService {
+
+    private static final Pattern ENTRY_NAME = Pattern.compile("(\\d{1,18})\\.[A-Za-z0-9]+");
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarImportServiceImpl.class);
+    private final AvatarService avatarService;
+    private final MeterRegistry meterRegistry;
+    private final Path tempDir;
+    private final int batchSize;
+    private final long maxEntryBytes;
+    private final Semaphore inFlight;
+    private final ThreadPoolExecutor executor;
+
+    public AvatarImportServiceImpl(AvatarService avatarService,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${path.to.avatars.folder}") String avatarsDir,
+                                   @Value("${avatar.import.threads:4}") int threads,
+                                   @Value("${avatar.import.max-in-flight:16}") int maxInFlight,
+                                   @Value("${avatar.import.batch-size:100}") int batchSize,
+                                   @Value("${avatar.import.max-entry-size-kb:10240}") long maxEntrySizeKb) {
+        this.avatarService = avatarService;
+        this.meterRegistry = meterRegistry;
+        this.tempDir = Path.of(avatarsDir);
+        this.batchSize = batchSize;
+        this.maxEntryBytes = maxEntrySizeKb * 1024;
+        // семафор общий для всех импортов, поэтому очередь пула его размера никогда не переполняется
+        this.inFlight = new Semaphore(maxInFlight);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("avatar-import-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxInFlight), threadFactory);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public List<AvatarImportResult> importAvatars(InputStream archive) {
+        Import job = new Import();
+        // ZipInputStream не закрываем: под ним поток запроса, его закрывает контейнер
+        ZipInputStream zip = new ZipInputStream(archive);
+        try {
+            ZipEntry entry;
+            while ((entry = job.next(zip)) != null) {
+                if (!entry.isDirectory()) {
+                    try {
+                        accept(zip, entry.getName(), job);
+                    } catch (IOException e) {
+                        job.broken(entry.getName(), e);
+                        break;
+                    }
+                }
+                job.collect(false);
+            }
+        } finally {
+            job.collect(true);
+            job.flush();
+        }
+        logger.info("Импорт аватаров из архива: записей {}, импортировано {}", job.report.size(), job.imported);
+        return job.report;
+    }
+
+    private void accept(ZipInputStream zip, String entry, Import job) throws IOException {
+        Matcher matcher = ENTRY_NAME.matcher(entry.substring(entry.lastIndexOf('/') + 1));
+        if (!matcher.matches()) {
+            job.record(AvatarImportResult.rejected(entry, null, Status.INVALID_NAME,
+                    "Ожидается имя вида <studentId>.<ext>"));
+            return;
+        }
+        Long studentId = Long.valueOf(matcher.group(1));
+        String mediaType = MediaTypeFactory.getMediaType(entry)
+                .filter(type -> "image".equals(type.getType()))
+                .map(MediaType::toString)
+                .orElse(null);
+        if (mediaType == null) {
+            job.record(AvatarImportResult.rejected(entry, studentId, Status.UNSUPPORTED_MEDIA_TYPE,
+                    "Расширение не соответствует изображению"));
+            return;
+        }
+        if (!job.seen.add(studentId)) {
+            job.record(AvatarImportResult.rejected(entry, studentId, Status.DUPLICATE,
+                    "Аватар этого студента уже есть в архиве"));
+            return;
+        }
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Импорт прерван");
+        }
+        ReceivedFile received;
+        try {
+            received = ReceivedFile.receive(zip, tempDir, "import-", maxEntryBytes);
+        } catch (ReceivedFile.SizeLimitExceededException e) {
+            inFlight.release();
+            job.record(AvatarImportResult.rejected(entry, studentId, Status.TOO_LARGE, e.getMessage()));
+            return;
+        } catch (IOException | RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        job.submit(entry, studentId, received, mediaType);
+    }
+
+    /**
+     * Выполняется в пуле и сразу освобождает временный файл и разрешение семафора.
+     * Студент проверяется позже, при назначении пачки
+     */
+    private Stored store(String entry, Long studentId, ReceivedFile received, String mediaType) {
+        try {
+            AvatarContent content = avatarService.saveContent(received.hash(), received.path(), received.size(), mediaType);
+            return new Stored(entry, studentId, content, null);
+        } catch (RuntimeException e) {
+            logger.warn("Не удалось сохранить содержимое записи {}", entry, e);
+            return Stored.failed(AvatarImportResult.rejected(entry, studentId, Status.FAILED, e.getMessage()));
+        } finally {
+            try {
+                Files.deleteIfExists(received.path());
+            } catch (IOException e) {
+                logger.warn("Не удалось удалить временный файл {}", received.path(), e);
+            }
+            inFlight.release();
+        }
+    }
+
+    private record Stored(String entry, Long studentId, AvatarContent content, AvatarImportResult failure) {
+        static Stored failed(AvatarImportResult failure) {
+            return new Stored(failure.entry(), failure.studentId(), null, failure);
+        }
+    }
+
+    /**
+     * Состояние одного импорта; используется только потоком запроса
+     */
+    private final class Import {
+        private final List<AvatarImportResult> report = new ArrayList<>();
+        private final Set<Long> seen = new HashSet<>();
+        private final CompletionService<Stored> completion = new ExecutorCompletionService<>(executor);
+        private final Map<Long, Stored> batch = new LinkedHashMap<>();
+        private int pending;
+        private int imported;
+
+        /**
+         * @return null в конце архива или при ошибке чтения - она попадает в отчет
+         */
+        ZipEntry next(ZipInputStream zip) {
+            try {
+                return zip.getNextEntry();
+            } catch (IOException e) {
+                broken("", e);
+                return null;
+            }
+        }
+
+        void broken(String entry, IOException e) {
+            logger.warn("Чтение архива аватаров прервано на записи '{}'", entry, e);
+            record(AvatarImportResult.rejected(entry, null, Status.FAILED, "Архив поврежден или оборван: " + e.getMessage()));
+        }
+
+        void submit(String entry, Long studentId, ReceivedFile received, String mediaType) {
+            try {
+                completion.submit(() -> store(entry, studentId, received, mediaType));
+                pending++;
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                try {
+                    Files.deleteIfExists(received.path());
+                } catch (IOException ex) {
+                    logger.warn("Не удалось удалить временный файл {}", received.path(), ex);
+                }
+                record(AvatarImportResult.rejected(entry, studentId, Status.FAILED, "Пул импорта остановлен"));
+            }
+        }
+
+        /**
+         * @param all ждать все отправленные записи, иначе забрать только уже готовые
+         */
+        void collect(boolean all) {
+            while (pending > 0) {
+                Future<Stored> done;
+                try {
+                    done = all ? completion.take() : completion.poll();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (done == null) {
+                    return;
+                }
+                pending--;
+                Stored stored;
+                try {
+                    stored = done.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // store() перехватывает свои ошибки, сюда попадаем только при остановке пула
+                    continue;
+                }
+                if (stored.failure() != null) {
+                    record(stored.failure());
+                } else {
+                    batch.put(stored.studentId(), stored);
+                    if (batch.size() >= batchSize) {
+                        flush();
+                    }
+                }
+            }
+        }
+
+        void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            Map<Long, AvatarContent> contents = new LinkedHashMap<>();
+            batch.forEach((studentId, stored) -> contents.put(studentId, stored.content()));
+            try {
+                Set<Long> missing = avatarService.attachAvatars(contents);
+                for (Stored stored : batch.values()) {
+                    record(missing.contains(stored.studentId())
+                            ? AvatarImportResult.rejected(stored.entry(), stored.studentId(), Status.STUDENT_NOT_FOUND, "Студент не найден")
+                            : AvatarImportResult.imported(stored.entry(), stored.studentId()));
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Не удалось назначить пачку из {} аватаров", batch.size(), e);
+                for (Stored stored : batch.values()) {
+                    record(AvatarImportResult.rejected(stored.entry(), stored.studentId(), Status.FAILED, e.getMessage()));
+                }
+            }
+            batch.clear();
+        }
+
+        void record(AvatarImportResult result) {
+            report.add(result);
+            if (result.status() == Status.IMPORTED) {
+                imported++;
+            }
+            meterRegistry.counter("avatar.import.entries", "status", result.status().name()).increment();
+        }
+    }
+}
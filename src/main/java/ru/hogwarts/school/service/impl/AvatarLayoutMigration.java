@@ -0,0 +1,163 @@
+package ru.hogwarts.school.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarMetadata;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.repositories.AvatarRepository;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ * Однократный перевод каталога аватаров на раскладку по хешу, выполняется при старте и ничего не делает,
+ * если переводить уже нечего:
+ * <ul>
+ *     <li>файлы плоской раскладки (имя - хеш) переносятся в каталоги ab/cd, пути в БД обновляются;</li>
+ *     <li>аватары со старыми файлами, названными по студенту, получают содержимое по хешу,
+ *     старый файл удаляется после коммита.</li>
+ * </ul>
+ * Перевод идет на своем потоке, чтобы не задерживать готовность приложения, а старые аватары читаются
+ * страницами по {@value #PAGE_SIZE}, а не все разом.
+ */
+@Component
+@ConditionalOnProperty(name = "avatar.layout.migration.enabled", havingValue = "true", matchIfMissing = true)
+public class AvatarLayoutMigration {
+
+    static final int PAGE_SIZE = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarLayoutMigration.class);
+    private final ObjectProvider<FilePerAvatarStorageEngine> fileEngine;
+    private final AvatarRepository avatarRepository;
+    private final AvatarContentRepository avatarContentRepository;
+    private final AvatarService avatarService;
+    private final TransactionTemplate transactionTemplate;
+    private final Path tempDir;
+
+    public AvatarLayoutMigration(ObjectProvider<FilePerAvatarStorageEngine> fileEngine,
+                                 AvatarRepository avatarRepository,
+                                 AvatarContentRepository avatarContentRepository,
+                                 AvatarService avatarService,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${path.to.avatars.folder}") String avatarsDir) {
+        this.fileEngine = fileEngine;
+        this.avatarRepository = avatarRepository;
+        this.avatarContentRepository = avatarContentRepository;
+        this.avatarService = avatarService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tempDir = Path.of(avatarsDir);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("avatar-layout-migration-");
+        threadFactory.setDaemon(true);
+        threadFactory.newThread(this::migrate).start();
+    }
+
+    void migrate() {
+        try {
+            shardFlatFiles();
+        } catch (IOException e) {
+            logger.warn("Не удалось перенести файлы аватаров в каталоги по хешу", e);
+        }
+        adoptLegacyAvatars();
+    }
+
+    void shardFlatFiles() throws IOException {
+        FilePerAvatarStorageEngine engine = fileEngine.getIfAvailable();
+        if (engine == null) {
+            return;
+        }
+        int moved = engine.shardFlatFiles((key, path) -> {
+            if (key.indexOf('_') < 0) {
+                transactionTemplate.executeWithoutResult(status -> {
+                    avatarContentRepository.updateFilePath(key, path.toString());
+                    avatarRepository.updateFilePath(key, path.toString());
+                });
+            }
+        });
+        if (moved > 0) {
+            logger.info("Файлов аватаров перенесено в каталоги по хешу: {}", moved);
+        }
+    }
+
+    /**
+     * Страницы идут по id: аватары, которые перевести не удалось, остаются без checksum и не зацикливают обход
+     */
+    void adoptLegacyAvatars() {
+        int adopted = 0;
+        long after = 0;
+        List<AvatarMetadata> page;
+        while (!(page = avatarRepository.findLegacyMetadata(after, PageRequest.of(0, PAGE_SIZE))).isEmpty()) {
+            for (AvatarMetadata legacy : page) {
+                if (adoptLegacyAvatar(legacy)) {
+                    adopted++;
+                }
+            }
+            after = page.get(page.size() - 1).getId();
+        }
+        if (adopted > 0) {
+            logger.info("Аватаров переведено на хранение по хешу: {}", adopted);
+        }
+    }
+
+    /**
+     * Старый файл сначала копируется во временный: если транзакция откатится, он останется на месте
+     */
+    private boolean adoptLegacyAvatar(AvatarMetadata legacy) {
+        Path file = legacy.getFilePath() != null ? Path.of(legacy.getFilePath()) : null;
+        if (file == null || !Files.isReadable(file)) {
+            logger.warn("Файл аватара {} не найден: {}", legacy.getId(), legacy.getFilePath());
+            return false;
+        }
+        try {
+            ReceivedFile copy;
+            try (InputStream is = Files.newInputStream(file)) {
+                copy = ReceivedFile.receive(is, tempDir, "migrate-", Long.MAX_VALUE);
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> adopt(legacy.getId(), copy));
+            } finally {
+                Files.deleteIfExists(copy.path());
+            }
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Не удалось перевести аватар {} на хранение по хешу", legacy.getId(), e);
+            return false;
+        }
+    }
+
+    private void adopt(Long avatarId, ReceivedFile copy) {
+        Avatar avatar = avatarRepository.findById(avatarId).orElse(null);
+        if (avatar == null || avatar.getChecksum() != null) {
+            return;
+        }
+        AvatarContent content = avatarService.saveContent(copy.hash(), copy.path(), copy.size(), avatar.getMediaType());
+        avatar.setChecksum(content.getHash());
+        avatar.setFilePath(content.getFilePath());
+        avatar.setFileSize(content.getFileSize());
+        if (avatar.getUpdatedAt() == null) {
+            avatar.setUpdatedAt(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        }
+    }
+}
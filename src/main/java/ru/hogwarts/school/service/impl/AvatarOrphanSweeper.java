@@ -0,0 +1,293 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.repositories.AvatarVariantRepository;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Фоновая сверка хранилища аватаров с БД. Удаляет:
+ * <ul>
+ *     <li>содержимое, на которое не ссылается ни один аватар (например, после удаления студента каскадом), -
+ *     только если оно было таким и на прошлом проходе: импорт сохраняет содержимое раньше, чем назначает аватар.
+ *     Это нужно при любом avatar.storage.engine; саму строку {@link AvatarService#releaseContent} блокирует
+ *     и пересчитывает ссылки перед удалением;</li>
+ *     <li>при avatar.storage.engine=file - файлы по ключам, которых нет в БД, и брошенные временные *.part -
+ *     только старше avatar.sweeper.grace-minutes, чтобы не задеть запись, транзакция которой еще не закоммичена.</li>
+ * </ul>
+ * Скорость ограничена avatar.sweeper.max-files-per-second, чтобы проход не отнимал диск и БД у запросов.
+ * Проход идет пачками по {@value #CHUNK} на своем потоке ({@link BackgroundJob}): лимит выдерживается паузой
+ * между пачками, а общий поток {@code @Scheduled} не занимается.
+ */
+@Service
+public class AvatarOrphanSweeper {
+
+    private static final int CHUNK = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarOrphanSweeper.class);
+    private final ObjectProvider<FilePerAvatarStorageEngine> fileEngine;
+    private final AvatarContentRepository avatarContentRepository;
+    private final AvatarVariantRepository avatarVariantRepository;
+    private final AvatarService avatarService;
+    private final boolean enabled;
+    private final long intervalMs;
+    private final Duration grace;
+    private final long maxFilesPerSecond;
+    private final MeterRegistry meterRegistry;
+    private final Counter scanned;
+    private final Timer duration;
+    private final BackgroundJob job;
+    private Set<String> candidates = new HashSet<>();
+
+    // состояние текущего прохода
+    private boolean inPass;
+    private long passStarted;
+    private Set<String> nextCandidates;
+    private String cursor;
+    private Instant threshold;
+    private Path root;
+    private Stream<Path> walk;
+    private Iterator<Path> files;
+
+    public AvatarOrphanSweeper(ObjectProvider<FilePerAvatarStorageEngine> fileEngine,
+                               AvatarContentRepository avatarContentRepository,
+                               AvatarVariantRepository avatarVariantRepository,
+                               AvatarService avatarService,
+                               MeterRegistry meterRegistry,
+                               @Value("${avatar.sweeper.enabled:true}") boolean enabled,
+                               @Value("${avatar.sweeper.interval-ms:3600000}") long intervalMs,
+                               @Value("${avatar.sweeper.grace-minutes:60}") long graceMinutes,
+                               @Value("${avatar.sweeper.max-files-per-second:200}") long maxFilesPerSecond) {
+        this.fileEngine = fileEngine;
+        this.avatarContentRepository = avatarContentRepository;
+        this.avatarVariantRepository = avatarVariantRepository;
+        this.avatarService = avatarService;
+        this.enabled = enabled;
+        this.intervalMs = intervalMs;
+        this.grace = Duration.ofMinutes(graceMinutes);
+        this.maxFilesPerSecond = maxFilesPerSecond;
+        this.meterRegistry = meterRegistry;
+        this.scanned = Counter.builder("avatar.sweeper.scanned")
+                .description("Файлы и записи содержимого, проверенные очисткой")
+                .register(meterRegistry);
+        this.duration = Timer.builder("avatar.sweeper.duration")
+                .description("Длительность прохода очистки")
+                .register(meterRegistry);
+        Gauge.builder("avatar.sweeper.candidates", this, sweeper -> sweeper.candidates.size())
+                .description("Содержимое без ссылок, которое будет удалено следующим проходом")
+                .register(meterRegistry);
+        this.job = new BackgroundJob("avatar-sweeper", this::sweepBatch, intervalMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            job.start(intervalMs);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        job.stop();
+        finishPass();
+    }
+
+    /**
+     * Полный проход без пауз между пачками
+     */
+    synchronized void sweep() {
+        do {
+            sweepBatch();
+        } while (inPass);
+    }
+
+    /**
+     * Одна пачка прохода: сначала записи содержимого без ссылок, затем файлы каталога аватаров
+     *
+     * @return пауза до следующей пачки в мс: по лимиту скорости, а после конца прохода - avatar.sweeper.interval-ms
+     */
+    synchronized long sweepBatch() {
+        long started = System.nanoTime();
+        if (!inPass) {
+            inPass = true;
+            passStarted = started;
+            nextCandidates = new HashSet<>();
+            cursor = "";
+        }
+        int checked = files == null ? releaseUnreferencedContent() : sweepFiles();
+        scanned.increment(checked);
+        if (!inPass) {
+            return intervalMs;
+        }
+        long expectedNanos = checked * 1_000_000_000L / maxFilesPerSecond;
+        return (expectedNanos - (System.nanoTime() - started)) / 1_000_000;
+    }
+
+    private int releaseUnreferencedContent() {
+        List<String> hashes = avatarContentRepository.findUnreferencedHashes(cursor, PageRequest.of(0, CHUNK));
+        if (hashes.isEmpty()) {
+            candidates = nextCandidates;
+            startFiles();
+            return 0;
+        }
+        for (String hash : hashes) {
+            if (!candidates.contains(hash)) {
+                nextCandidates.add(hash);
+            } else if (release(hash)) {
+                deleted("content");
+            } else {
+                // строку держит загрузка или на нее уже ссылаются - проверим на следующем проходе
+                nextCandidates.add(hash);
+            }
+        }
+        cursor = hashes.get(hashes.size() - 1);
+        return hashes.size();
+    }
+
+    private boolean release(String hash) {
+        try {
+            return avatarService.releaseContent(hash);
+        } catch (RuntimeException e) {
+            logger.warn("Не удалось удалить содержимое аватара {}", hash, e);
+            return false;
+        }
+    }
+
+    private void startFiles() {
+        FilePerAvatarStorageEngine engine = fileEngine.getIfAvailable();
+        root = engine != null ? engine.root() : null;
+        if (root == null || !Files.isDirectory(root)) {
+            finishPass();
+            return;
+        }
+        threshold = Instant.now().minus(grace);
+        try {
+            walk = Files.walk(root, 3);
+            files = walk.iterator();
+        } catch (IOException e) {
+            logger.warn("Не удалось обойти каталог аватаров", e);
+            finishPass();
+        }
+    }
+
+    /**
+     * Обходит только каталоги раскладки ab/cd и временные файлы; каталог сегментов и файлы
+     * с посторонними именами в корне не трогает.
+     *
+     * @return сколько файлов проверено
+     */
+    private int sweepFiles() {
+        List<Path> keys = new ArrayList<>();
+        int checked = 0;
+        try {
+            for (int visited = 0; visited < CHUNK && files.hasNext(); visited++) {
+                Path file = files.next();
+                if (!Files.isRegularFile(file) || root.relativize(file).startsWith("segments") || !olderThan(file, threshold)) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                if (name.endsWith(".part")) {
+                    delete(file, "temp");
+                } else if (root.relativize(file).getNameCount() == 3 && FilePerAvatarStorageEngine.KEY.matcher(name).matches()) {
+                    keys.add(file);
+                }
+                checked++;
+            }
+        } catch (UncheckedIOException e) {
+            logger.warn("Не удалось обойти каталог аватаров", e.getCause());
+            finishPass();
+        }
+        sweepKeys(keys, threshold);
+        if (files != null && !files.hasNext()) {
+            finishPass();
+        }
+        return checked;
+    }
+
+    private void finishPass() {
+        if (walk != null) {
+            walk.close();
+        }
+        walk = null;
+        files = null;
+        if (inPass) {
+            inPass = false;
+            duration.record(System.nanoTime() - passStarted, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void sweepKeys(List<Path> files, Instant threshold) {
+        if (files.isEmpty()) {
+            return;
+        }
+        Set<String> hashes = new HashSet<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.indexOf('_') < 0) {
+                hashes.add(name);
+            }
+        }
+        Set<String> referenced = hashes.isEmpty() ? Set.of() : new HashSet<>(avatarContentRepository.findHashesInFileSystem(hashes));
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int separator = name.indexOf('_');
+            boolean orphan = separator < 0
+                    ? !referenced.contains(name)
+                    : !avatarVariantRepository.existsByContentHashAndSize(name.substring(0, separator),
+                    Integer.parseInt(name.substring(separator + 1, name.indexOf('.', separator))));
+            // время перепроверяем перед удалением: повторная загрузка того же содержимого обновляет его
+            if (orphan && olderThan(file, threshold)) {
+                delete(file, separator < 0 ? "content" : "variant");
+            }
+        }
+    }
+
+    private void delete(Path file, String kind) {
+        try {
+            if (Files.deleteIfExists(file)) {
+                deleted(kind);
+                logger.debug("Удален файл-сирота {}", file);
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось удалить файл {}", file, e);
+        }
+    }
+
+    private void deleted(String kind) {
+        meterRegistry.counter("avatar.sweeper.deleted", "kind", kind).increment();
+    }
+
+    private static boolean olderThan(Path file, Instant threshold) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant().isBefore(threshold);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
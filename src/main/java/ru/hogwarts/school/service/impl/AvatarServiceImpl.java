@@ -1,68 +1,260 @@
 package ru.hogwarts.school.service.impl;
 
 import jakarta.transaction.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 import ru.hogwarts.school.exception.NotFoundException;
 import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.model.AvatarMetadata;
+import ru.hogwarts.school.model.AvatarVariantMetadata;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
 import ru.hogwarts.school.repositories.AvatarRepository;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.AvatarCache;
 import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+import ru.hogwarts.school.service.AvatarStore;
+import ru.hogwarts.school.service.AvatarThumbnailService;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service //todo tests
 @Transactional
 public class AvatarServiceImpl implements AvatarService {
 
+    private static final int LOCK_STRIPES = 64;
+    private static final int STREAM_CHUNK = 64 * 1024;
+    private static final int CLAIM_ATTEMPTS = 3;
+
     @Value("${path.to.avatars.folder}")
     private String avatarsDir;
 
+    private final Logger logger = LoggerFactory.getLogger(AvatarServiceImpl.class);
     private final AvatarRepository avatarRepository;
+    private final AvatarContentRepository avatarContentRepository;
     private final StudentRepository studentRepository;
+    private final AvatarThumbnailService avatarThumbnailService;
+    private final AvatarCache avatarCache;
+    private final AvatarStorageEngine avatarStorageEngine;
+    private final AvatarStores avatarStores;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readTransaction;
+    private final StripedLocks studentLocks = new StripedLocks(LOCK_STRIPES);
 
-    public AvatarServiceImpl(AvatarRepository avatarRepository, StudentRepository studentRepository) {
+    public AvatarServiceImpl(AvatarRepository avatarRepository,
+                             AvatarContentRepository avatarContentRepository,
+                             StudentRepository studentRepository,
+                             AvatarThumbnailService avatarThumbnailService,
+                             AvatarCache avatarCache,
+                             AvatarStorageEngine avatarStorageEngine,
+                             AvatarStores avatarStores,
+                             PlatformTransactionManager transactionManager) {
         this.avatarRepository = avatarRepository;
+        this.avatarContentRepository = avatarContentRepository;
         this.studentRepository = studentRepository;
+        this.avatarThumbnailService = avatarThumbnailService;
+        this.avatarCache = avatarCache;
+        this.avatarStorageEngine = avatarStorageEngine;
+        this.avatarStores = avatarStores;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
     }
 
+    /**
+     * Тело запроса читается один раз во временный файл, по пути считаются размер и SHA-256.
+     * Если содержимое с таким хешем уже есть, файл и blob повторно не пишутся - аватар просто ссылается на него.
+     * Новое содержимое сохраняет активная стратегия {@link ru.hogwarts.school.service.AvatarStore}:
+     * в файл, в колонку data или в оба места.
+     * <p>
+     * Прием файла идет без блокировок, а транзакция с записью в БД - под блокировкой студента,
+     * взятой до ее начала: второй запрос того же студента видит уже закоммиченный аватар,
+     * а не вставляет вторую строку. Загрузки разных студентов идут параллельно.
+     */
     @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
     public void uploadAvatar(Long studentId, MultipartFile avatarFile) throws IOException {
-        Student student = studentRepository.getById(studentId);
+        ReceivedFile received;
+        try (InputStream is = avatarFile.getInputStream()) {
+            received = ReceivedFile.receive(is, Path.of(avatarsDir), "upload-", Long.MAX_VALUE);
+        }
+        try {
+            uploadAvatar(studentId, received.path(), received.hash(), received.size(), avatarFile.getContentType());
+        } finally {
+            Files.deleteIfExists(received.path());
+        }
+    }
 
-        Avatar avatar = student.getAvatar();
-        if (avatar == null) {
-            avatar = new Avatar();
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public void uploadAvatar(Long studentId, Path file, String hash, long fileSize, String mediaType) {
+        try (StripedLocks.Held ignored = studentLocks.lock(List.of(studentId))) {
+            transactionTemplate.executeWithoutResult(status -> {
+                Student student = studentRepository.getById(studentId);
+                Avatar avatar = student.getAvatar();
+                if (avatar == null) {
+                    avatar = new Avatar();
+                }
+                AvatarContent content = saveContent(hash, file, fileSize, mediaType);
+
+                String previousHash = fill(avatar, student, content, mediaType, now());
+                avatarRepository.saveAndFlush(avatar);
+
+                if (previousHash != null && !previousHash.equals(content.getHash())) {
+                    releaseContent(previousHash);
+                }
+            });
         }
-        Path filePath = Path.of(avatarsDir, student + "." + getExtensions(avatarFile.getOriginalFilename()));
-        Files.createDirectories(filePath.getParent());
-        Files.deleteIfExists(filePath);
-        try (
-                InputStream is = avatarFile.getInputStream();
-                OutputStream os = Files.newOutputStream(filePath, CREATE_NEW);
-                BufferedInputStream bis = new BufferedInputStream(is, 1024);
-                BufferedOutputStream bos = new BufferedOutputStream(os, 1024);
-        ) {
-            bis.transferTo(bos);
+    }
+
+    /**
+     * Строка содержимого сначала занимается вставкой без конфликта и блокируется до коммита: из одновременных
+     * загрузок одного нового хеша файл и blob пишет только первая, остальные ждут ее и ссылаются на готовое.
+     * Пока блокировка держится, {@link #releaseContent} эту строку не удалит.
+     */
+    @Override
+    public AvatarContent saveContent(String hash, Path file, long fileSize, String mediaType) {
+        for (int attempt = 1; ; attempt++) {
+            boolean claimed = avatarContentRepository.insertIfAbsent(hash, fileSize, mediaType) > 0;
+            Optional<AvatarContent> locked = avatarContentRepository.lockByHash(hash);
+            if (locked.isPresent()) {
+                AvatarContent content = locked.get();
+                // строка без содержимого - если прежняя запись его потеряла, кладем заново
+                return claimed || avatarStores.reader(content).isEmpty() ? storeContent(content, file) : content;
+            }
+            // между вставкой и блокировкой строку удалил releaseContent - занимаем заново
+            if (attempt == CLAIM_ATTEMPTS) {
+                throw new IllegalStateException("Не удалось занять содержимое аватара " + hash);
+            }
+        }
+    }
+
+    /**
+     * Все студенты пачки читаются одним запросом, аватары уходят одним saveAll: при
+     * hibernate.jdbc.batch_size вставки и обновления идут пачками JDBC, а не по запросу на строку.
+     * Блокировки всех студентов пачки берутся до транзакции, как в {@link #uploadAvatar}.
+     */
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public Set<Long> attachAvatars(Map<Long, AvatarContent> contents) {
+        try (StripedLocks.Held ignored = studentLocks.lock(contents.keySet())) {
+            return transactionTemplate.execute(status -> attachLocked(contents));
         }
+    }
+
+    /**
+     * Содержимое сохранено раньше, отдельной транзакцией: строки блокируются заново, чтобы до коммита
+     * его не освободила загрузка, сменившая тот же хеш. Студенты, чье содержимое уже удалено, возвращаются
+     * вместе с отсутствующими
+     */
+    private Set<Long> attachLocked(Map<Long, AvatarContent> contents) {
+        Set<String> available = new HashSet<>();
+        contents.values().stream().map(AvatarContent::getHash).distinct().sorted()
+                .forEach(hash -> avatarContentRepository.lockByHash(hash).ifPresent(content -> available.add(hash)));
+        Map<Long, Student> students = studentRepository.findAllById(contents.keySet()).stream()
+                .collect(Collectors.toMap(Student::getId, Function.identity()));
+        List<Avatar> avatars = new ArrayList<>(contents.size());
+        Set<String> released = new HashSet<>();
+        Set<Long> missing = new HashSet<>();
+        Instant updatedAt = now();
+        contents.forEach((studentId, content) -> {
+            Student student = students.get(studentId);
+            if (student == null || !available.contains(content.getHash())) {
+                if (student != null) {
+                    logger.warn("Содержимое {} удалено до назначения аватара студенту {}", content.getHash(), studentId);
+                }
+                missing.add(studentId);
+                return;
+            }
+            Avatar avatar = student.getAvatar() != null ? student.getAvatar() : new Avatar();
+            String previousHash = fill(avatar, student, content, content.getMediaType(), updatedAt);
+            avatars.add(avatar);
+            if (previousHash != null && !previousHash.equals(content.getHash())) {
+                released.add(previousHash);
+            }
+        });
+        avatarRepository.saveAll(avatars);
+        avatarRepository.flush();
+        released.forEach(this::releaseContent);
+        return missing;
+    }
+
+    /**
+     * @return хеш прежнего содержимого аватара или null
+     */
+    private static String fill(Avatar avatar, Student student, AvatarContent content, String mediaType, Instant updatedAt) {
+        String previousHash = avatar.getChecksum();
         avatar.setStudent(student);
-        avatar.setFilePath(filePath.toString());
-        avatar.setFileSize(avatarFile.getSize());
-        avatar.setMediaType(avatarFile.getContentType());
-        avatar.setData(avatarFile.getBytes());
-        avatarRepository.save(avatar);
+        avatar.setFilePath(content.getFilePath());
+        avatar.setFileSize(content.getFileSize());
+        avatar.setMediaType(mediaType);
+        avatar.setChecksum(content.getHash());
+        avatar.setUpdatedAt(updatedAt);
+        return previousHash;
     }
 
-    private String getExtensions(String fileName) {
-        return fileName.substring(fileName.lastIndexOf(".") + 1);
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    private AvatarContent storeContent(AvatarContent content, Path tempFile) {
+        try {
+            AvatarContent saved = avatarStores.active().save(content, tempFile);
+            avatarThumbnailService.enqueue(content.getHash());
+            return saved;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Строка блокируется раньше подсчета ссылок: загрузка, занявшая этот хеш в {@link #saveContent},
+     * держит ее до коммита, и тогда содержимое не удаляется, а подсчет после ее коммита увидит новую ссылку.
+     * Занятая строка пропускается без ожидания - две загрузки, меняющие хеши местами, не ждут друг друга;
+     * если ссылок так и не появится, строку позже освободит очистка сирот.
+     */
+    @Override
+    public boolean releaseContent(String hash) {
+        return avatarContentRepository.lockUnlessBusy(hash).map(content -> {
+            if (avatarRepository.countByChecksum(hash) > 0) {
+                return false;
+            }
+            avatarThumbnailService.deleteVariants(hash);
+            try {
+                avatarStores.removeEverywhere(content);
+            } catch (IOException e) {
+                logger.warn("Не удалось удалить содержимое аватара {}", hash, e);
+            }
+            avatarContentRepository.delete(content);
+            avatarCache.invalidate(hash);
+            return true;
+        }).orElse(false);
     }
 
     @Override
@@ -76,7 +268,130 @@ public class AvatarServiceImpl implements AvatarService {
     }
 
     @Override
-    public Page<Avatar> getAllAvatars(Pageable pageable) {
-        return avatarRepository.findAll(pageable);
+    public byte[] findAvatarData(Long studentId) {
+        Avatar avatar = findAvatar(studentId);
+        if (avatar == null || avatar.getChecksum() == null) {
+            return null;
+        }
+        return findContentData(avatar.getChecksum());
+    }
+
+    /**
+     * При попадании в кэш ни студент, ни аватар, ни blob из БД не читаются
+     */
+    @Override
+    public byte[] findContentData(String checksum) {
+        return avatarCache.get(checksum, this::readContentData);
+    }
+
+    /**
+     * Содержимое, которое поместится в кэш, отдается через него. Большее читается из хранилища
+     * кусками по {@value #STREAM_CHUNK} байт прямо в поток ответа: для large object PostgreSQL каждый кусок -
+     * один lo_read по соединению read-only транзакции, и в памяти запроса только этот буфер.
+     * Соединение занято, пока клиент принимает ответ.
+     */
+    @Override
+    @Transactional(Transactional.TxType.NOT_SUPPORTED)
+    public boolean writeContentData(String checksum, long fileSize, OutputStream out) throws IOException {
+        if (avatarCache.admits(fileSize)) {
+            // транзакция только на промахе: попадание в кэш не берет соединение из пула
+            byte[] data = avatarCache.get(checksum, hash -> readTransaction.execute(status -> readContentData(hash)));
+            if (data == null) {
+                return false;
+            }
+            out.write(data);
+            return true;
+        }
+        try {
+            Boolean written = readTransaction.execute(status -> {
+                AvatarContent content = avatarContentRepository.findById(checksum).orElse(null);
+                AvatarStore store = content == null ? null : avatarStores.reader(content).orElse(null);
+                if (store == null) {
+                    return false;
+                }
+                try (InputStream is = store.openStream(content)) {
+                    byte[] buffer = new byte[STREAM_CHUNK];
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            });
+            return Boolean.TRUE.equals(written);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private byte[] readContentData(String checksum) {
+        AvatarContent content = avatarContentRepository.findById(checksum).orElse(null);
+        AvatarStore store = content == null ? null : avatarStores.reader(content).orElse(null);
+        if (store == null) {
+            return null;
+        }
+        try (InputStream is = store.openStream(content)) {
+            return is.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public AvatarMetadata findAvatarMetadata(Long studentId) {
+        return avatarRepository.findMetadataByStudentId(studentId).orElse(null);
+    }
+
+    @Override
+    public List<AvatarMetadata> findAvatarsMetadata(Collection<Long> studentIds) {
+        return avatarRepository.findMetadataByStudentIdIn(studentIds);
+    }
+
+    @Override
+    public Optional<AvatarVariantMetadata> findAvatarVariant(String checksum, int size) {
+        if (checksum == null) {
+            return Optional.empty();
+        }
+        return avatarThumbnailService.findVariant(checksum, size);
+    }
+
+    @Override
+    public Optional<Integer> findReadyVariantSize(String checksum, int size) {
+        if (checksum == null) {
+            return Optional.empty();
+        }
+        return avatarThumbnailService.findReadyVariantSize(checksum, size);
+    }
+
+    /**
+     * Аватары, загруженные до хранения по хешу, лежат отдельным файлом по filePath.
+     * Пусто, если содержимое есть только в БД.
+     */
+    @Override
+    public Optional<AvatarLocation> findAvatarFile(AvatarMetadata metadata) {
+        if (metadata.getChecksum() != null) {
+            return avatarContentRepository.findById(metadata.getChecksum())
+                    .filter(content -> avatarStores.fileSystem().holds(content))
+                    .flatMap(content -> avatarStores.fileSystem().locate(content));
+        }
+        Path path = Path.of(metadata.getFilePath());
+        return Files.isReadable(path) ? Optional.of(AvatarLocation.wholeFile(path, metadata.getFileSize())) : Optional.empty();
+    }
+
+    @Override
+    public Optional<AvatarLocation> findVariantFile(AvatarVariantMetadata variant) {
+        return variant.getFilePath() == null ? Optional.empty() : avatarStorageEngine.locate(variant.storageKey());
+    }
+
+    @Override
+    public boolean writeVariantData(AvatarVariantMetadata variant, OutputStream out) throws IOException {
+        return avatarThumbnailService.writeVariantData(variant, out);
+    }
+
+    @Override
+    public Page<AvatarMetadata> getAllAvatars(Pageable pageable) {
+        return avatarRepository.findAllMetadata(pageable);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,194 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * Фоновый перенос содержимого аватаров под текущий avatar.store.mode.
+ * Сначала содержимое докладывается в целевое хранилище, и только следующим проходом
+ * убирается из прежнего, поэтому читатели в любой момент находят его хотя бы в одном месте.
+ * Каждый аватар переносится в своей короткой транзакции, скорость ограничена
+ * avatar.store.migration.max-bytes-per-second, чтобы перенос не отнимал диск и БД у запросов:
+ * пачка заканчивается, набрав секундный объем, и следующая ждет, пока средняя скорость не опустится до лимита.
+ * Перенос идет на своем потоке ({@link BackgroundJob}), а не на общем потоке {@code @Scheduled}.
+ */
+@Service
+public class AvatarStoreMigrator {
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarStoreMigrator.class);
+    private final AvatarContentRepository avatarContentRepository;
+    private final AvatarStores avatarStores;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final long maxBytesPerSecond;
+    private final long intervalMs;
+    private final Path tempDir;
+    private final Counter migrated;
+    private final List<Phase> phases;
+    private final BackgroundJob job;
+    private int phaseIndex;
+    private String cursor = "";
+
+    public AvatarStoreMigrator(AvatarContentRepository avatarContentRepository,
+                               AvatarStores avatarStores,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               @Value("${avatar.store.migration.enabled:true}") boolean enabled,
+                               @Value("${avatar.store.migration.batch-size:50}") int batchSize,
+                               @Value("${avatar.store.migration.max-bytes-per-second:10485760}") long maxBytesPerSecond,
+                               @Value("${avatar.store.migration.interval-ms:5000}") long intervalMs,
+                               @Value("${path.to.avatars.folder}") String avatarsDir) {
+        this.avatarContentRepository = avatarContentRepository;
+        this.avatarStores = avatarStores;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.intervalMs = intervalMs;
+        this.tempDir = Path.of(avatarsDir);
+        this.migrated = Counter.builder("avatar.store.migrated")
+                .description("Содержимое аватаров, перенесенное между хранилищами")
+                .register(meterRegistry);
+        this.phases = phases(avatarStores.mode());
+        this.job = new BackgroundJob("avatar-store-migrator", this::migrateBatch, intervalMs);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            job.start(intervalMs);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        job.stop();
+    }
+
+    /**
+     * Одна пачка текущей фазы. Курсор по хешу идет вперед и мимо записей, которые не удалось перенести,
+     * так что одна битая запись не останавливает остальные; они повторятся на следующем круге.
+     *
+     * @return пауза до следующей пачки в мс: по лимиту скорости, а когда фаза пройдена - avatar.store.migration.interval-ms
+     */
+    synchronized long migrateBatch() {
+        Phase phase = phases.get(phaseIndex);
+        List<String> hashes = phase.query().apply(cursor, PageRequest.of(0, batchSize));
+        if (hashes.isEmpty()) {
+            cursor = "";
+            phaseIndex = (phaseIndex + 1) % phases.size();
+            return intervalMs;
+        }
+        long started = System.nanoTime();
+        long bytes = migrate(hashes, phase.step());
+        long expectedNanos = bytes * 1_000_000_000L / maxBytesPerSecond;
+        return (expectedNanos - (System.nanoTime() - started)) / 1_000_000;
+    }
+
+    private List<Phase> phases(AvatarStores.Mode mode) {
+        Phase toFileSystem = new Phase(avatarContentRepository::findHashesMissingInFileSystem, this::copyToFileSystem);
+        Phase toDatabase = new Phase(avatarContentRepository::findHashesMissingInDatabase, this::copyToDatabase);
+        return switch (mode) {
+            case FILE -> List.of(toFileSystem,
+                    new Phase(avatarContentRepository::findHashesStoredTwice, content -> avatarStores.database().remove(content)));
+            case DB -> List.of(toDatabase,
+                    new Phase(avatarContentRepository::findHashesStoredTwice, content -> avatarStores.fileSystem().remove(content)));
+            case DUAL -> List.of(toFileSystem, toDatabase);
+        };
+    }
+
+    /**
+     * Переносит аватары пачки по порядку, пока не наберется секундный объем
+     *
+     * @return перенесено байт
+     */
+    private long migrate(List<String> hashes, Step step) {
+        long bytes = 0;
+        int processed = 0;
+        for (String hash : hashes) {
+            cursor = hash;
+            try {
+                Long size = transactionTemplate.execute(status -> {
+                    // строку перечитываем в транзакции: ее могли удалить или уже перенести
+                    AvatarContent content = avatarContentRepository.findById(hash).orElse(null);
+                    if (content == null) {
+                        return 0L;
+                    }
+                    try {
+                        step.apply(content);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return content.getFileSize();
+                });
+                bytes += size != null ? size : 0;
+                processed++;
+                migrated.increment();
+            } catch (RuntimeException e) {
+                logger.warn("Не удалось перенести содержимое аватара {}", hash, e);
+            }
+            if (bytes >= maxBytesPerSecond) {
+                break;
+            }
+        }
+        if (processed > 0) {
+            logger.info("Перенесено {} аватаров ({} байт) под режим {}", processed, bytes, avatarStores.mode());
+        }
+        return bytes;
+    }
+
+    private void copyToFileSystem(AvatarContent content) throws IOException {
+        if (avatarStores.fileSystem().holds(content)) {
+            return;
+        }
+        Path tempFile = Files.createTempFile(tempDir, "migrate-", ".part");
+        try {
+            try (InputStream is = avatarStores.database().openStream(content)) {
+                Files.copy(is, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            avatarStores.fileSystem().writeFile(content, tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void copyToDatabase(AvatarContent content) throws IOException {
+        if (avatarStores.database().holds(content)) {
+            return;
+        }
+        try (InputStream is = avatarStores.fileSystem().openStream(content)) {
+            avatarStores.database().save(content, is);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Step {
+        void apply(AvatarContent content) throws IOException;
+    }
+
+    private record Phase(BiFunction<String, Pageable, List<String>> query, Step step) {
+    }
+}
@@ -0,0 +1,82 @@
+package ru.hogwarts.school.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.service.AvatarStore;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Активная стратегия хранения и чтение с учетом миграции: пока фоновый перенос не закончен,
+ * содержимое может лежать только в прежнем хранилище
+ */
+@Component
+public class AvatarStores {
+
+    public enum Mode {
+        DB, FILE, DUAL
+    }
+
+    private final Mode mode;
+    private final DatabaseAvatarStore database;
+    private final FileSystemAvatarStore fileSystem;
+    private final AvatarStore active;
+
+    public AvatarStores(@Value("${avatar.store.mode:dual}") String mode,
+                        DatabaseAvatarStore database,
+                        FileSystemAvatarStore fileSystem) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.database = database;
+        this.fileSystem = fileSystem;
+        this.active = switch (this.mode) {
+            case DB -> database;
+            case FILE -> fileSystem;
+            case DUAL -> new DualWriteAvatarStore(database, fileSystem);
+        };
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Хранилище для записи нового содержимого
+     */
+    public AvatarStore active() {
+        return active;
+    }
+
+    public DatabaseAvatarStore database() {
+        return database;
+    }
+
+    public FileSystemAvatarStore fileSystem() {
+        return fileSystem;
+    }
+
+    /**
+     * @return активное хранилище, если содержимое уже в нем, иначе то, где оно пока лежит
+     */
+    public Optional<AvatarStore> reader(AvatarContent content) {
+        if (active.holds(content)) {
+            return Optional.of(active);
+        }
+        return List.<AvatarStore>of(fileSystem, database).stream().filter(store -> store.holds(content)).findFirst();
+    }
+
+    /**
+     * Убирает содержимое отовсюду, где оно есть
+     */
+    public void removeEverywhere(AvatarContent content) throws IOException {
+        if (fileSystem.holds(content)) {
+            fileSystem.remove(content);
+        }
+        if (database.holds(content)) {
+            database.remove(content);
+        }
+    }
+}
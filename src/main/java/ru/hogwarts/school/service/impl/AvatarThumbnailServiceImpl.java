@@ -0,0 +1,308 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarVariant;
+import ru.hogwarts.school.model.AvatarVariantMetadata;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.repositories.AvatarVariantRepository;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+import ru.hogwarts.school.service.AvatarStore;
+import ru.hogwarts.school.service.AvatarThumbnailService;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Генерация уменьшенных копий аватаров на отдельном ограниченном пуле.
+ * Очередь ограничена: при переполнении задача отбрасывается, а не выполняется в потоке запроса,
+ * поэтому всплеск загрузок не занимает потоки Tomcat. Картинки больше avatar.thumbnails.max-pixels
+ * не декодируются: размер читается из заголовка до выделения памяти под пиксели.
+ */
+@Service
+public class AvatarThumbnailServiceImpl implements AvatarThumbnailService {
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarThumbnailServiceImpl.class);
+    private final AvatarContentRepository avatarContentRepository;
+    private final AvatarVariantRepository avatarVariantRepository;
+    private final AvatarStorageEngine avatarStorageEngine;
+    private final AvatarStores avatarStores;
+    private final TransactionTemplate readTransaction;
+    private final int[] sizes;
+    private final long maxPixels;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+    private final Counter generated;
+    private final Counter rejected;
+
+    public AvatarThumbnailServiceImpl(AvatarContentRepository avatarContentRepository,
+                                      AvatarVariantRepository avatarVariantRepository,
+                                      AvatarStorageEngine avatarStorageEngine,
+                                      AvatarStores avatarStores,
+                                      PlatformTransactionManager transactionManager,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${avatar.thumbnails.sizes:64,128,256}") int[] sizes,
+                                      @Value("${avatar.thumbnails.threads:2}") int threads,
+                                      @Value("${avatar.thumbnails.queue-capacity:100}") int queueCapacity,
+                                      @Value("${avatar.thumbnails.max-pixels:40000000}") long maxPixels) {
+        this.avatarContentRepository = avatarContentRepository;
+        this.avatarVariantRepository = avatarVariantRepository;
+        this.avatarStorageEngine = avatarStorageEngine;
+        this.avatarStores = avatarStores;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.sizes = Arrays.stream(sizes).sorted().toArray();
+        this.maxPixels = maxPixels;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("avatar-thumbnail-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        Gauge.builder("avatar.thumbnails.queue.depth", executor, e -> e.getQueue().size())
+                .description("Задачи генерации миниатюр, ожидающие в очереди")
+                .register(meterRegistry);
+        this.generated = Counter.builder("avatar.thumbnails.generated").register(meterRegistry);
+        this.rejected = Counter.builder("avatar.thumbnails.rejected")
+                .description("Задачи, отброшенные из-за переполненной очереди")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void enqueue(String contentHash) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(contentHash);
+                }
+            });
+        } else {
+            submit(contentHash);
+        }
+    }
+
+    private void submit(String contentHash) {
+        if (unreadable.contains(contentHash) || !pending.add(contentHash)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generateVariants(contentHash);
+                } finally {
+                    pending.remove(contentHash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(contentHash);
+            rejected.increment();
+            logger.warn("Очередь миниатюр заполнена, {} будет обработан при следующем запросе", contentHash);
+        }
+    }
+
+    private void generateVariants(String contentHash) {
+        if (!avatarContentRepository.existsById(contentHash)) {
+            return;
+        }
+        try {
+            BufferedImage source = readTransaction.execute(status -> readSource(contentHash));
+            if (source == null) {
+                unreadable.add(contentHash);
+                return;
+            }
+            boolean alpha = source.getColorModel().hasAlpha();
+            String mediaType = alpha ? "image/png" : "image/jpeg";
+            AvatarStores.Mode mode = avatarStores.mode();
+            for (int size : sizes) {
+                if (avatarVariantRepository.existsByContentHashAndSize(contentHash, size)) {
+                    continue;
+                }
+                byte[] data = encode(scale(source, size, alpha), mediaType.substring("image/".length()));
+                String filePath = mode == AvatarStores.Mode.DB ? null
+                        : avatarStorageEngine.write(AvatarVariant.storageKey(contentHash, size, mediaType), data).path().toString();
+                avatarVariantRepository.save(new AvatarVariant(contentHash, size, mediaType, data.length, filePath,
+                        mode == AvatarStores.Mode.FILE ? null : data));
+                generated.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Не удалось сгенерировать миниатюры для {}", contentHash, e);
+        }
+    }
+
+    /**
+     * Оригинал читается из того хранилища, где он сейчас лежит; blob в БД читается только внутри транзакции
+     *
+     * @return null, если ImageIO не понимает формат или картинка больше бюджета пикселей
+     */
+    private BufferedImage readSource(String contentHash) {
+        AvatarContent content = avatarContentRepository.findById(contentHash).orElseThrow();
+        AvatarStore store = avatarStores.reader(content)
+                .orElseThrow(() -> new IllegalStateException("Содержимое " + contentHash + " не найдено ни в одном хранилище"));
+        try (InputStream is = store.openStream(content);
+             ImageInputStream input = ImageIO.createImageInputStream(is)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                logger.warn("Формат аватара {} не поддерживается ImageIO", contentHash);
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    logger.warn("Аватар {} из {} пикселей больше лимита {}, миниатюры не генерируются",
+                            contentHash, pixels, maxPixels);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Уменьшает картинку так, чтобы большая сторона стала равна size. Уменьшение идет шагами
+     * не больше чем вдвое - билинейная интерполяция на одном большом шаге дает заметные артефакты.
+     */
+    private static BufferedImage scale(BufferedImage source, int size, boolean alpha) {
+        double ratio = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage current = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, type);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, width, height, null);
+            graphics.dispose();
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException("Нет ImageIO writer для " + format);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Optional<AvatarVariantMetadata> findVariant(String contentHash, int size) {
+        return variantSize(size).flatMap(candidate -> {
+            Optional<AvatarVariantMetadata> variant = avatarVariantRepository.findMetadataByContentHashAndSize(contentHash, candidate);
+            if (variant.isEmpty()) {
+                submit(contentHash);
+            }
+            return variant;
+        });
+    }
+
+    /**
+     * Байты ищутся там же, где их мог оставить любой режим хранения: сначала БД, затем хранилище файлов
+     */
+    @Override
+    public boolean writeVariantData(AvatarVariantMetadata variant, OutputStream out) throws IOException {
+        Optional<byte[]> data = avatarVariantRepository.findData(variant.getContentHash(), variant.getSize());
+        if (data.isPresent()) {
+            out.write(data.get());
+            return true;
+        }
+        if (variant.getFilePath() == null) {
+            return false;
+        }
+        try (InputStream is = avatarStorageEngine.openStream(variant.storageKey())) {
+            is.transferTo(out);
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Optional<Integer> findReadyVariantSize(String contentHash, int size) {
+        return variantSize(size).filter(candidate -> {
+            boolean ready = avatarVariantRepository.existsByContentHashAndSize(contentHash, candidate);
+            if (!ready) {
+                submit(contentHash);
+            }
+            return ready;
+        });
+    }
+
+    /**
+     * @return наименьший настроенный размер не меньше запрошенного
+     */
+    private Optional<Integer> variantSize(int size) {
+        for (int candidate : sizes) {
+            if (candidate >= size) {
+                return Optional.of(candidate);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void deleteVariants(String contentHash) {
+        List<AvatarVariantMetadata> variants = avatarVariantRepository.findMetadataByContentHash(contentHash);
+        avatarVariantRepository.deleteByContentHash(contentHash);
+        for (AvatarVariantMetadata variant : variants) {
+            if (variant.getFilePath() == null) {
+                continue;
+            }
+            try {
+                avatarStorageEngine.delete(variant.storageKey());
+            } catch (IOException e) {
+                logger.warn("Не удалось удалить миниатюру {}", variant.getFilePath(), e);
+            }
+        }
+    }
+
+    @Override
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
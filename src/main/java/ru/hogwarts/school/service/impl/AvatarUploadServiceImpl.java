@@ -0,0 +1,264 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.exception.NotFoundException;
+import ru.hogwarts.school.exception.UploadConflictException;
+import ru.hogwarts.school.model.AvatarUpload;
+import ru.hogwarts.school.model.AvatarUploadStatus;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.AvatarUploadRepository;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.service.AvatarUploadService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Части пишутся позиционной записью прямо во временный файл сессии в каталоге uploads,
+ * без промежуточных буферов на весь файл. Подтвержденное смещение - размер этого файла:
+ * после каждой части он сбрасывается на диск, поэтому смещение переживает и обрыв соединения, и рестарт.
+ * При завершении файл хешируется одним проходом и атомарно переносится в хранилище через
+ * {@link AvatarService#uploadAvatar(Long, Path, String, long, String)} - под блокировкой студента, как обычная загрузка.
+ * <p>
+ * Запросы одной сессии выполняются по очереди под блокировкой ее ID. Незавершенные сессии живут
+ * avatar.upload.ttl-minutes от последней принятой части, затем удаляются вместе с файлом.
+ */
+@Service
+public class AvatarUploadServiceImpl implements AvatarUploadService {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String SUFFIX = ".upload";
+
+    private final Logger logger = LoggerFactory.getLogger(AvatarUploadServiceImpl.class);
+    private final AvatarUploadRepository avatarUploadRepository;
+    private final StudentRepository studentRepository;
+    private final AvatarService avatarService;
+    private final MeterRegistry meterRegistry;
+    private final Path uploadsDir;
+    private final long maxSize;
+    private final Duration ttl;
+    private final Counter receivedBytes;
+    private final StripedLocks uploadLocks = new StripedLocks(LOCK_STRIPES);
+
+    public AvatarUploadServiceImpl(AvatarUploadRepository avatarUploadRepository,
+                                   StudentRepository studentRepository,
+                                   AvatarService avatarService,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${path.to.avatars.folder}") String avatarsDir,
+                                   @Value("${avatar.upload.max-size-mb:20}") long maxSizeMb,
+                                   @Value("${avatar.upload.ttl-minutes:1440}") long ttlMinutes) {
+        this.avatarUploadRepository = avatarUploadRepository;
+        this.studentRepository = studentRepository;
+        this.avatarService = avatarService;
+        this.meterRegistry = meterRegistry;
+        this.uploadsDir = Path.of(avatarsDir, "uploads");
+        this.maxSize = maxSizeMb * 1024 * 1024;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.receivedBytes = Counter.builder("avatar.upload.bytes")
+                .description("Байты, принятые загрузкой по частям")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public AvatarUploadStatus createUpload(Long studentId, String mediaType, long size) {
+        if (size <= 0 || size > maxSize) {
+            throw new BadRequestException("Размер аватара должен быть от 1 до " + maxSize + " байт");
+        }
+        if (mediaType == null || !MediaType.parseMediaType(mediaType).getType().equals("image")) {
+            throw new BadRequestException("Аватар должен быть изображением, получено: " + mediaType);
+        }
+        if (!studentRepository.existsById(studentId)) {
+            throw new NotFoundException(Student.class, studentId);
+        }
+        Instant now = now();
+        // файл сессии создается первой записью: строка без файла означает смещение 0
+        AvatarUpload upload = avatarUploadRepository.save(new AvatarUpload(UUID.randomUUID().toString(),
+                studentId, mediaType, size, now, now.plus(ttl)));
+        sessionEvent("created");
+        return status(upload, 0);
+    }
+
+    @Override
+    public AvatarUploadStatus getUpload(String uploadId) {
+        AvatarUpload upload = find(uploadId);
+        try {
+            return status(upload, committedOffset(upload));
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать файл загрузки " + uploadId, e);
+        }
+    }
+
+    @Override
+    public AvatarUploadStatus writeChunk(String uploadId, long offset, InputStream body) throws IOException {
+        try (StripedLocks.Held ignored = uploadLocks.lock(List.of(uploadId))) {
+            AvatarUpload upload = find(uploadId);
+            long committed = committedOffset(upload);
+            if (offset < 0 || offset > committed) {
+                throw new UploadConflictException("Часть должна начинаться не дальше подтвержденного смещения " + committed);
+            }
+            long position = offset;
+            try (FileChannel channel = FileChannel.open(file(upload),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                int read;
+                try {
+                    while ((read = body.read(buffer)) != -1) {
+                        if (position + read > upload.getTotalSize()) {
+                            throw new UploadConflictException("Часть выходит за объявленный размер " + upload.getTotalSize() + " байт");
+                        }
+                        wrapped.clear().limit(read);
+                        while (wrapped.hasRemaining()) {
+                            position += channel.write(wrapped, position);
+                        }
+                    }
+                } finally {
+                    // принятое до обрыва тоже подтверждается: клиент продолжит с него
+                    channel.force(false);
+                    receivedBytes.increment(position - offset);
+                    upload.setExpiresAt(now().plus(ttl));
+                    avatarUploadRepository.save(upload);
+                }
+            }
+            return status(upload, Math.max(committed, position));
+        }
+    }
+
+    @Override
+    public void completeUpload(String uploadId, String checksum) throws IOException {
+        try (StripedLocks.Held ignored = uploadLocks.lock(List.of(uploadId))) {
+            AvatarUpload upload = find(uploadId);
+            long committed = committedOffset(upload);
+            if (committed != upload.getTotalSize()) {
+                throw new UploadConflictException("Загружено " + committed + " из " + upload.getTotalSize() + " байт");
+            }
+            Path file = file(upload);
+            ReceivedFile received = ReceivedFile.of(file);
+            if (checksum != null && !checksum.equalsIgnoreCase(received.hash())) {
+                // байты по ошибке перезаписаны другими - продолжать эту сессию бессмысленно
+                remove(upload, "corrupted");
+                throw new UploadConflictException("SHA-256 загруженного файла не совпадает с ожидаемым, начните загрузку заново");
+            }
+            try {
+                avatarService.uploadAvatar(upload.getStudentId(), file, received.hash(), received.size(), upload.getMediaType());
+            } catch (RuntimeException e) {
+                // содержимое могло уже переехать в хранилище - сессию нельзя завершить повторно
+                remove(upload, "failed");
+                throw e;
+            }
+            remove(upload, "completed");
+            logger.info("Аватар студента {} загружен по частям: {} байт", upload.getStudentId(), received.size());
+        }
+    }
+
+    @Override
+    public void cancelUpload(String uploadId) throws IOException {
+        try (StripedLocks.Held ignored = uploadLocks.lock(List.of(uploadId))) {
+            remove(find(uploadId), "cancelled");
+        }
+    }
+
+    /**
+     * Удаляет сессии без активности дольше avatar.upload.ttl-minutes и файлы, у которых сессии уже нет
+     * (строка удалена, а файл - нет, например при сбое диска)
+     */
+    @Scheduled(fixedDelayString = "${avatar.upload.cleanup-interval-ms:600000}",
+            initialDelayString = "${avatar.upload.cleanup-interval-ms:600000}")
+    public void removeExpiredUploads() {
+        Instant now = Instant.now();
+        int removed = 0;
+        for (AvatarUpload expired : avatarUploadRepository.findByExpiresAtBefore(now)) {
+            try (StripedLocks.Held ignored = uploadLocks.lock(List.of(expired.getId()))) {
+                // срок перечитываем под блокировкой: сессию могли продлить, пока шел обход
+                AvatarUpload upload = avatarUploadRepository.findById(expired.getId()).orElse(null);
+                if (upload != null && upload.getExpiresAt().isBefore(now)) {
+                    remove(upload, "expired");
+                    removed++;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Не удалось удалить просроченную загрузку {}", expired.getId(), e);
+            }
+        }
+        removeAbandonedFiles(now.minus(ttl));
+        if (removed > 0) {
+            logger.info("Удалено просроченных загрузок по частям: {}", removed);
+        }
+    }
+
+    private void removeAbandonedFiles(Instant threshold) {
+        if (!Files.isDirectory(uploadsDir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(uploadsDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)
+                        && Files.getLastModifiedTime(file).toInstant().isBefore(threshold)
+                        && !avatarUploadRepository.existsById(name.substring(0, name.length() - SUFFIX.length()))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось обойти каталог загрузок {}", uploadsDir, e);
+        }
+    }
+
+    private AvatarUpload find(String uploadId) {
+        return avatarUploadRepository.findById(uploadId)
+                .filter(upload -> upload.getExpiresAt().isAfter(Instant.now()))
+                .orElseThrow(() -> new NotFoundException(AvatarUpload.class, uploadId));
+    }
+
+    private void remove(AvatarUpload upload, String result) throws IOException {
+        avatarUploadRepository.delete(upload);
+        Files.deleteIfExists(file(upload));
+        sessionEvent(result);
+    }
+
+    private long committedOffset(AvatarUpload upload) throws IOException {
+        try {
+            return Files.size(file(upload));
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+    }
+
+    private Path file(AvatarUpload upload) throws IOException {
+        Files.createDirectories(uploadsDir);
+        return uploadsDir.resolve(upload.getId() + SUFFIX);
+    }
+
+    private void sessionEvent(String result) {
+        meterRegistry.counter("avatar.upload.sessions", "result", result).increment();
+    }
+
+    private static AvatarUploadStatus status(AvatarUpload upload, long offset) {
+        return new AvatarUploadStatus(upload.getId(), upload.getStudentId(), offset, upload.getTotalSize(), upload.getExpiresAt());
+    }
+
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    }
+}
@@ -0,0 +1,65 @@
+package ru.hogwarts.school.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Долгая фоновая работа на собственном потоке, пачками: каждая пачка возвращает паузу до следующей.
+ * Ограничение скорости - это пауза между пачками, а не сон посреди работы, и общий поток {@code @Scheduled}
+ * ею не занят: остальные периодические задачи приложения идут по своему расписанию.
+ */
+final class BackgroundJob {
+
+    private final Logger logger = LoggerFactory.getLogger(BackgroundJob.class);
+    private final String name;
+    private final LongSupplier batch;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param batch            выполняет одну пачку и возвращает паузу до следующей в мс
+     * @param retryDelayMillis пауза после пачки, завершившейся исключением
+     */
+    BackgroundJob(String name, LongSupplier batch, long retryDelayMillis) {
+        this.name = name;
+        this.batch = batch;
+        this.retryDelayMillis = retryDelayMillis;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(name + "-");
+        threadFactory.setDaemon(true);
+        this.executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    }
+
+    void start(long initialDelayMillis) {
+        schedule(initialDelayMillis);
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void run() {
+        long delay;
+        try {
+            delay = batch.getAsLong();
+        } catch (RuntimeException e) {
+            logger.error("Фоновая задача {} завершилась ошибкой", name, e);
+            delay = retryDelayMillis;
+        }
+        schedule(delay);
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            executor.schedule(this::run, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // приложение останавливается
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ru.hogwarts.school.service.impl;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Индекс по таблице student в памяти процесса. Изменения студентов из сервисов приложения применяются
+ * после коммита, чтобы откаченные в него не попали. Изменения в обход приложения (SQL, другие экземпляры)
+ * подхватывает полная перестройка; изменения, закоммиченные во время перестройки, применяются к новому
+ * индексу перед подменой. Сам индекс может быть не потокобезопасным: доступ к нему идет под блокировкой.
+ *
+ * @param <I> структура индекса
+ */
+final class CommittedIndex<I> {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // под lock
+    private I index;
+    private List<Consumer<I>> changedDuringRebuild;
+
+    /**
+     * @return результат запроса к индексу или null, пока индекс не построен
+     */
+    <R> R read(Function<I, R> query) {
+        lock.readLock().lock();
+        try {
+            return index != null ? query.apply(index) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Применяет изменение после коммита текущей транзакции, вне транзакции - сразу
+     */
+    void change(Consumer<I> change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(change);
+                }
+            });
+        } else {
+            apply(change);
+        }
+    }
+
+    /**
+     * Строит новый индекс и подменяет им текущий. Если построение упало, текущий индекс остается
+     *
+     * @return новый индекс
+     */
+    I rebuild(Supplier<I> build) {
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        I rebuilt;
+        try {
+            rebuilt = build.get();
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                changedDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        lock.writeLock().lock();
+        try {
+            changedDuringRebuild.forEach(change -> change.accept(rebuilt));
+            changedDuringRebuild = null;
+            index = rebuilt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return rebuilt;
+    }
+
+    private void apply(Consumer<I> change) {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                change.accept(index);
+            }
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
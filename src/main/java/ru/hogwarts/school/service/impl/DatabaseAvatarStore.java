@@ -0,0 +1,70 @@
+package ru.hogwarts.school.service.impl;
+
+import org.hibernate.engine.jdbc.BlobProxy;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.service.AvatarStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * Содержимое в колонке avatar_content.data (large object PostgreSQL)
+ */
+@Service
+public class DatabaseAvatarStore implements AvatarStore {
+
+    private final AvatarContentRepository avatarContentRepository;
+
+    public DatabaseAvatarStore(AvatarContentRepository avatarContentRepository) {
+        this.avatarContentRepository = avatarContentRepository;
+    }
+
+    @Override
+    public AvatarContent save(AvatarContent content, Path source) throws IOException {
+        try (InputStream data = Files.newInputStream(source)) {
+            return save(content, data);
+        }
+    }
+
+    /**
+     * flush сразу, пока поток открыт: драйвер вычитывает его в large object
+     */
+    AvatarContent save(AvatarContent content, InputStream data) {
+        content.setData(BlobProxy.generateProxy(data, content.getFileSize()));
+        content.setInDatabase(true);
+        return avatarContentRepository.saveAndFlush(content);
+    }
+
+    @Override
+    public boolean holds(AvatarContent content) {
+        return content.isInDatabase() && content.getData() != null;
+    }
+
+    @Override
+    public InputStream openStream(AvatarContent content) throws IOException {
+        try {
+            return content.getData().getBinaryStream();
+        } catch (SQLException e) {
+            throw new IOException("Не удалось прочитать содержимое аватара " + content.getHash(), e);
+        }
+    }
+
+    @Override
+    public Optional<AvatarLocation> locate(AvatarContent content) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void remove(AvatarContent content) {
+        avatarContentRepository.unlinkData(content.getHash());
+        content.setData(null);
+        content.setInDatabase(false);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.hogwarts.school.service.impl;
+
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.service.AvatarStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Пишет и в файлы, и в БД; читает из файла, если он есть
+ */
+public class DualWriteAvatarStore implements AvatarStore {
+
+    private final DatabaseAvatarStore databaseStore;
+    private final FileSystemAvatarStore fileSystemStore;
+
+    public DualWriteAvatarStore(DatabaseAvatarStore databaseStore, FileSystemAvatarStore fileSystemStore) {
+        this.databaseStore = databaseStore;
+        this.fileSystemStore = fileSystemStore;
+    }
+
+    /**
+     * Сначала файл (источник может быть перемещен в хранилище), затем blob из уже записанного файла -
+     * одним saveAndFlush
+     */
+    @Override
+    public AvatarContent save(AvatarContent content, Path source) throws IOException {
+        fileSystemStore.writeFile(content, source);
+        try (InputStream data = fileSystemStore.openStream(content)) {
+            return databaseStore.save(content, data);
+        }
+    }
+
+    @Override
+    public boolean holds(AvatarContent content) {
+        return fileSystemStore.holds(content) || databaseStore.holds(content);
+    }
+
+    @Override
+    public InputStream openStream(AvatarContent content) throws IOException {
+        return fileSystemStore.holds(content) ? fileSystemStore.openStream(content) : databaseStore.openStream(content);
+    }
+
+    @Override
+    public Optional<AvatarLocation> locate(AvatarContent content) {
+        return fileSystemStore.locate(content);
+    }
+
+    @Override
+    public void remove(AvatarContent content) throws IOException {
+        if (fileSystemStore.holds(content)) {
+            fileSystemStore.remove(content);
+        }
+        if (databaseStore.holds(content)) {
+            databaseStore.remove(content);
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package ru.hogwarts.school.service.impl;
 
+import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import ru.hogwarts.school.exception.NotFoundException;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.repositories.StudentRepository.FacultyAssignmentRow;
 import ru.hogwarts.school.service.FacultyService;
 
 import java.util.List;
@@ -18,10 +23,20 @@ public class FacultyServiceImpl implements FacultyService {
     private final Logger logger = LoggerFactory.getLogger(FacultyServiceImpl.class);
     private final FacultyRepository facultyRepository;
     private final StudentRepository studentRepository;
+    private final StudentAgeStatsRepository studentAgeStatsRepository;
+    private final StudentNameIndex studentNameIndex;
+    private final StudentAgeIndex studentAgeIndex;
 
-    public FacultyServiceImpl(FacultyRepository facultyRepository, StudentRepository studentRepository) {
+    public FacultyServiceImpl(FacultyRepository facultyRepository,
+                              StudentRepository studentRepository,
+                              StudentAgeStatsRepository studentAgeStatsRepository,
+                              StudentNameIndex studentNameIndex,
+                              StudentAgeIndex studentAgeIndex) {
         this.facultyRepository = facultyRepository;
         this.studentRepository = studentRepository;
+        this.studentAgeStatsRepository = studentAgeStatsRepository;
+        this.studentNameIndex = studentNameIndex;
+        this.studentAgeIndex = studentAgeIndex;
     }
 
     @Override
@@ -40,6 +55,11 @@ public class FacultyServiceImpl implements FacultyService {
         });
     }
 
+    /**
+     * Студенты факультета удаляются каскадом, поэтому в той же транзакции их строки блокируются
+     * и вычитаются из счетчиков student_age_stats, а после коммита убираются из индексов имен и возрастов
+     */
+    @Transactional
     @Override
     public void deleteFaculty(long id) {
         logger.info("Delete faculty by id: {}", id);
@@ -47,7 +67,15 @@ public class FacultyServiceImpl implements FacultyService {
             logger.error("Факультет с id {} не найден", id);
             return new NotFoundException(Faculty.class, id);
         });
+        List<FacultyAssignmentRow> students = studentRepository.lockByFacultyId(id);
         facultyRepository.deleteById(id);
+        StatsDeltas deltas = new StatsDeltas();
+        for (FacultyAssignmentRow student : students) {
+            deltas.remove(student.getFacultyId(), student.getAge());
+            studentNameIndex.remove(student.getId());
+            studentAgeIndex.remove(student.getId());
+        }
+        deltas.applyTo(studentAgeStatsRepository);
         logger.debug("Faculty {} deleted", id);
     }
 
@@ -79,13 +107,17 @@ public class FacultyServiceImpl implements FacultyService {
     }
 
     @Override
-    public List<Student> getStudentsByFaculty(long id) {
+    public KeysetPage<Student> getStudentsByFaculty(long id, String cursor, int limit) {
         logger.info("Get students by id: {}", id);
         Faculty faculty = facultyRepository.findById(id)
                 .orElseThrow(() -> {
                     logger.error("Not found students by faculty by id: {}", id);
                     return new NotFoundException(Faculty.class, id);
                 });
-        return studentRepository.findAllByFaculty(faculty);
+        Keyset.Position after = Keyset.decode(cursor);
+        int size = Keyset.limit(limit);
+        List<Student> rows = studentRepository.findByFacultyIdAfter(faculty.getId(),
+                after == null ? Long.MIN_VALUE : after.id(), PageRequest.ofSize(size + 1));
+        return Keyset.page(rows, size, Student::getId, Student::getId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package ru.hogwarts.school.service.impl;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Один файл на ключ в каталоге path.to.avatars.folder, разложенный по двум уровням каталогов
+ * из первых символов хеша: ab/cd/abcd.... Так в одном каталоге остается не больше нескольких сотен файлов
+ * даже на сотнях тысяч аватаров. Файлы прежней плоской раскладки читаются, пока их не перенесет
+ * {@link #shardFlatFiles}.
+ * <p>
+ * Файл появляется под своим именем только целиком: содержимое пишется во временный файл рядом,
+ * сбрасывается на диск и атомарно переименовывается. После сбоя посреди записи остается
+ * лишь временный *.part, а файл по ключу либо прежний, либо новый полностью.
+ */
+@Service
+@ConditionalOnProperty(name = "avatar.storage.engine", havingValue = "file", matchIfMissing = true)
+public class FilePerAvatarStorageEngine implements AvatarStorageEngine {
+
+    /**
+     * Ключи хранилища: хеш содержимого или хеш_размер.формат для миниатюр
+     */
+    static final Pattern KEY = Pattern.compile("[0-9a-f]{64}(_\\d+\\.[a-z0-9]+)?");
+
+    private final Path dir;
+
+    public FilePerAvatarStorageEngine(@Value("${path.to.avatars.folder}") String avatarsDir) {
+        this.dir = Path.of(avatarsDir);
+    }
+
+    /**
+     * Источник переносится под ключ, если файла по ключу еще нет. Ключи - хеши содержимого,
+     * поэтому при гонке двух записей одного ключа атомарная замена подставляет те же байты.
+     */
+    @Override
+    public AvatarLocation write(String key, Path source) throws IOException {
+        Path target = resolve(key);
+        if (Files.exists(target)) {
+            touch(target);
+        } else {
+            Files.createDirectories(target.getParent());
+            force(source);
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // источник на другом разделе: сначала копия рядом с целью, потом атомарное переименование
+                Path temp = Files.createTempFile(target.getParent(), "write-", ".part");
+                try {
+                    Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+                    publish(temp, target);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            forceDirectory(target.getParent());
+        }
+        return AvatarLocation.wholeFile(target, Files.size(target));
+    }
+
+    @Override
+    public AvatarLocation write(String key, byte[] data) throws IOException {
+        Path target = resolve(key);
+        if (Files.exists(target)) {
+            touch(target);
+        } else {
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), "write-", ".part");
+            try {
+                Files.write(temp, data);
+                publish(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return AvatarLocation.wholeFile(target, Files.size(target));
+    }
+
+    /**
+     * Повторно используемый файл считается свежим: очистка сирот не удалит его, пока ссылка на него не закоммичена
+     */
+    private static void touch(Path target) throws IOException {
+        Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+    }
+
+    private static void publish(Path temp, Path target) throws IOException {
+        force(temp);
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(target.getParent());
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Сбрасывает запись каталога, чтобы переименование пережило отключение питания.
+     * Не везде каталог можно открыть как канал (Windows) - там полагаемся на файловую систему.
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // не поддерживается платформой
+        }
+    }
+
+    @Override
+    public Optional<AvatarLocation> locate(String key) {
+        Path path = existing(key);
+        try {
+            return Optional.of(AvatarLocation.wholeFile(path, Files.size(path)));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public InputStream openStream(String key) throws IOException {
+        Path path = existing(key);
+        if (!Files.isReadable(path)) {
+            throw new FileNotFoundException(path.toString());
+        }
+        return Files.newInputStream(path);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        Files.deleteIfExists(resolve(key));
+        Files.deleteIfExists(dir.resolve(key));
+    }
+
+    /**
+     * Переносит файлы плоской раскладки из корня каталога аватаров в их каталоги.
+     * Файлы с другими именами (аватары, загруженные до хранения по хешу) не трогает.
+     *
+     * @param moved вызывается для каждого перенесенного ключа с новым путем
+     * @return число перенесенных файлов
+     */
+    int shardFlatFiles(BiConsumer<String, Path> moved) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                file -> Files.isRegularFile(file) && KEY.matcher(file.getFileName().toString()).matches())) {
+            for (Path file : files) {
+                String key = file.getFileName().toString();
+                Path target = resolve(key);
+                Files.createDirectories(target.getParent());
+                if (Files.exists(target)) {
+                    Files.delete(file);
+                } else {
+                    Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                    forceDirectory(target.getParent());
+                }
+                moved.accept(key, target);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    Path root() {
+        return dir;
+    }
+
+    Path resolve(String key) {
+        if (!KEY.matcher(key).matches()) {
+            return dir.resolve(key);
+        }
+        return dir.resolve(key.substring(0, 2)).resolve(key.substring(2, 4)).resolve(key);
+    }
+
+    /**
+     * Путь по новой раскладке, а если там файла нет, но он остался в корне - прежний
+     */
+    private Path existing(String key) {
+        Path path = resolve(key);
+        if (Files.exists(path)) {
+            return path;
+        }
+        Path flat = dir.resolve(key);
+        return Files.exists(flat) ? flat : path;
+    }
+}
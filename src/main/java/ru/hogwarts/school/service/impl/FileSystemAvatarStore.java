@@ -0,0 +1,84 @@
+package ru.hogwarts.school.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+import ru.hogwarts.school.service.AvatarStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Содержимое в {@link AvatarStorageEngine} (файл на аватар или сегменты)
+ */
+@Service
+public class FileSystemAvatarStore implements AvatarStore {
+
+    private final Logger logger = LoggerFactory.getLogger(FileSystemAvatarStore.class);
+    private final AvatarStorageEngine avatarStorageEngine;
+    private final AvatarContentRepository avatarContentRepository;
+
+    public FileSystemAvatarStore(AvatarStorageEngine avatarStorageEngine,
+                                 AvatarContentRepository avatarContentRepository) {
+        this.avatarStorageEngine = avatarStorageEngine;
+        this.avatarContentRepository = avatarContentRepository;
+    }
+
+    @Override
+    public AvatarContent save(AvatarContent content, Path source) throws IOException {
+        writeFile(content, source);
+        return avatarContentRepository.saveAndFlush(content);
+    }
+
+    void writeFile(AvatarContent content, Path source) throws IOException {
+        AvatarLocation location = avatarStorageEngine.write(content.getHash(), source);
+        content.setFilePath(location.path().toString());
+        content.setInFileSystem(true);
+    }
+
+    @Override
+    public boolean holds(AvatarContent content) {
+        return content.isInFileSystem();
+    }
+
+    @Override
+    public InputStream openStream(AvatarContent content) throws IOException {
+        return avatarStorageEngine.openStream(content.getHash());
+    }
+
+    @Override
+    public Optional<AvatarLocation> locate(AvatarContent content) {
+        return avatarStorageEngine.locate(content.getHash());
+    }
+
+    /**
+     * Файл удаляется после коммита: при откате флаг останется и должен указывать на существующий файл
+     */
+    @Override
+    public void remove(AvatarContent content) throws IOException {
+        content.setInFileSystem(false);
+        String hash = content.getHash();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        avatarStorageEngine.delete(hash);
+                    } catch (IOException e) {
+                        logger.warn("Не удалось удалить файл аватара {}", hash, e);
+                    }
+                }
+            });
+        } else {
+            avatarStorageEngine.delete(hash);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package ru.hogwarts.school.service.impl;
+
+import ru.hogwarts.school.exception.InvalidCursorException;
+import ru.hogwarts.school.model.KeysetPage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Курсоры постраничной выборки по ключу. Курсор - base64url от "id:ключ сортировки" последней строки;
+ * клиент его не разбирает, а передает обратно как есть. ID идет первым, потому что в ключе может быть двоеточие.
+ * Запрос страницы выбирает на одну строку больше лимита: так без COUNT видно, есть ли следующая.
+ */
+final class Keyset {
+
+    static final int MAX_LIMIT = 1000;
+
+    private Keyset() {
+    }
+
+    /**
+     * Ключ сортировки и ID последней строки предыдущей страницы
+     */
+    record Position(String key, long id) {
+
+        int intKey() {
+            try {
+                return Integer.parseInt(key);
+            } catch (NumberFormatException e) {
+                throw new InvalidCursorException(key);
+            }
+        }
+    }
+
+    /**
+     * @return позиция из курсора или null для первой страницы
+     */
+    static Position decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            return new Position(decoded.substring(separator + 1), Long.parseLong(decoded.substring(0, separator)));
+        } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+    static String encode(Object key, long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((id + ":" + key).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return размер страницы в пределах 1..{@value #MAX_LIMIT}
+     */
+    static int limit(int requested) {
+        return Math.max(1, Math.min(requested, MAX_LIMIT));
+    }
+
+    /**
+     * @param rows выборка размером до limit + 1 строк
+     */
+    static <T> KeysetPage<T> page(List<T> rows, int limit, Function<T, Object> key, ToLongFunction<T> id) {
+        if (rows.size() <= limit) {
+            return new KeysetPage<>(rows, null);
+        }
+        List<T> items = rows.subList(0, limit);
+        T last = items.get(limit - 1);
+        return new KeysetPage<>(List.copyOf(items), encode(key.apply(last), id.applyAsLong(last)));
+    }
+}
@@ -0,0 +1,26 @@
+package ru.hogwarts.school.service.impl;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Приведение имен для поиска, общее для {@link NameTrigramIndex} и {@link NameTrie}: что находит
+ * автодополнение, находит и поиск по подстроке
+ */
+final class NameFolding {
+
+    private NameFolding() {
+    }
+
+    /**
+     * NFC (буква с отдельным диакритическим знаком, например "й" из "и" и бреве, совпадает с цельной),
+     * полное приведение регистра (через верхний, чтобы "ß" совпадала с "ss", а "ς" с "σ")
+     * и "ё" как "е" - по-русски их обычно не различают при наборе
+     */
+    static String fold(String name) {
+        String folded = Normalizer.normalize(name.strip(), Normalizer.Form.NFC)
+                .toUpperCase(Locale.ROOT)
+                .toLowerCase(Locale.ROOT);
+        return folded.replace('ё', 'е');
+    }
+}
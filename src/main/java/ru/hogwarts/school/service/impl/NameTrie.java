@@ -0,0 +1,319 @@
+package ru.hogwarts.school.service.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Сжатое префиксное дерево (radix tree) имен для автодополнения. Ребро хранит не один символ, а всю
+ * неветвящуюся цепочку (char[]), поэтому узлов не больше двух на имя, а общие начала имен хранятся один раз.
+ * Узел знает длину кратчайшего имени в своем поддереве - по ней лучшие дополнения находятся обходом
+ * с приоритетом, без перебора всего поддерева префикса. Имена сравниваются после {@link NameFolding#fold(String)},
+ * а длина для ранжирования - у исходного имени: приведение может ее менять ("ß" - "ss").
+ * <p>
+ * Хранит только ID: имена для ответа берутся из {@link NameTrigramIndex}. Не потокобезопасен:
+ * доступ упорядочивает {@link StudentNameIndex}
+ */
+final class NameTrie {
+
+    private static final int NONE = Integer.MAX_VALUE;
+    private static final char[] EMPTY = new char[0];
+    private static final Comparator<Candidate> ORDER = Comparator.comparingInt(Candidate::length)
+            .thenComparing(Candidate::path);
+
+    private final Node root = new Node(EMPTY);
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    void put(long id, String name) {
+        char[] key = NameFolding.fold(name).toCharArray();
+        int length = name.length();
+        Node node = root;
+        int depth = 0;
+        while (true) {
+            if (depth == key.length) {
+                if (node.indexOf(id) < 0) {
+                    node.addId(id, length);
+                    size++;
+                }
+                node.minLength = Math.min(node.minLength, length);
+                return;
+            }
+            // при добавлении кратчайшее имя поддерева может только укоротиться
+            node.minLength = Math.min(node.minLength, length);
+            int index = node.find(key[depth]);
+            if (index < 0) {
+                Node leaf = new Node(Arrays.copyOfRange(key, depth, key.length));
+                leaf.addId(id, length);
+                leaf.minLength = length;
+                node.insertChild(-index - 1, leaf);
+                size++;
+                return;
+            }
+            Node child = node.children[index];
+            int common = commonPrefix(child.label, key, depth);
+            if (common < child.label.length) {
+                Node middle = new Node(Arrays.copyOf(child.label, common));
+                child.label = Arrays.copyOfRange(child.label, common, child.label.length);
+                middle.children = new Node[]{child};
+                middle.minLength = child.minLength;
+                node.children[index] = middle;
+                child = middle;
+            }
+            node = child;
+            depth += common;
+        }
+    }
+
+    /**
+     * @param name имя, под которым студент был добавлен
+     */
+    void remove(long id, String name) {
+        char[] key = NameFolding.fold(name).toCharArray();
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        int depth = 0;
+        while (depth < key.length) {
+            int index = node.find(key[depth]);
+            if (index < 0) {
+                return;
+            }
+            Node child = node.children[index];
+            if (commonPrefix(child.label, key, depth) < child.label.length) {
+                return;
+            }
+            path.add(node);
+            node = child;
+            depth += child.label.length;
+        }
+        int at = node.indexOf(id);
+        if (at < 0) {
+            return;
+        }
+        node.removeIdAt(at);
+        size--;
+        node.updateMinLength();
+        // снизу вверх: пустой лист уходит, узел с единственным ребенком и без имени сливается с ним
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node parent = path.get(i);
+            if (node.ids == null && node.children == null) {
+                parent.removeChild(node);
+            } else if (node.ids == null && node.children.length == 1) {
+                Node child = node.children[0];
+                char[] label = Arrays.copyOf(node.label, node.label.length + child.label.length);
+                System.arraycopy(child.label, 0, label, node.label.length, child.label.length);
+                node.label = label;
+                node.ids = child.ids;
+                node.lengths = child.lengths;
+                node.children = child.children;
+                node.minLength = child.minLength;
+            }
+            node = parent;
+            node.updateMinLength();
+        }
+    }
+
+    /**
+     * @return ID лучших дополнений: сначала более короткие исходные имена, при равной длине - по алфавиту
+     * приведенного имени, для одинаковых после приведения имен - по ID
+     */
+    List<Long> complete(String prefix, int limit) {
+        char[] key = NameFolding.fold(prefix).toCharArray();
+        Node node = root;
+        StringBuilder path = new StringBuilder();
+        int depth = 0;
+        while (depth < key.length) {
+            int index = node.find(key[depth]);
+            if (index < 0) {
+                return List.of();
+            }
+            Node child = node.children[index];
+            int common = commonPrefix(child.label, key, depth);
+            if (common < child.label.length && depth + common < key.length) {
+                return List.of();
+            }
+            path.append(child.label);
+            node = child;
+            depth += child.label.length;
+        }
+        List<Long> ids = new ArrayList<>(limit);
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(ORDER);
+        queue.add(new Candidate(node, path.toString(), node.minLength, false));
+        while (!queue.isEmpty() && ids.size() < limit) {
+            Candidate candidate = queue.poll();
+            Node current = candidate.node();
+            if (candidate.terminal()) {
+                // имена узла одной длины выдаются по ID, более длинные ждут своей очереди
+                int next = NONE;
+                for (int i = 0; i < current.ids.length; i++) {
+                    if (current.lengths[i] == candidate.length()) {
+                        if (ids.size() < limit) {
+                            ids.add(current.ids[i]);
+                        }
+                    } else if (current.lengths[i] > candidate.length()) {
+                        next = Math.min(next, current.lengths[i]);
+                    }
+                }
+                if (next != NONE) {
+                    queue.add(new Candidate(current, candidate.path(), next, true));
+                }
+                continue;
+            }
+            if (current.ids != null) {
+                queue.add(new Candidate(current, candidate.path(), current.ownMinLength(), true));
+            }
+            if (current.children != null) {
+                for (Node child : current.children) {
+                    queue.add(new Candidate(child, candidate.path() + new String(child.label), child.minLength, false));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static int commonPrefix(char[] label, char[] key, int from) {
+        int common = 0;
+        while (common < label.length && from + common < key.length && label[common] == key[from + common]) {
+            common++;
+        }
+        return common;
+    }
+
+    /**
+     * @param length длина исходных имен (для имен узла) или кратчайшего имени поддерева
+     * @param path   приведенный путь от корня до конца ребра узла
+     * @param terminal кандидат - само имя узла, а не его поддерево
+     */
+    private record Candidate(Node node, String path, int length, boolean terminal) {
+    }
+
+    /**
+     * Дети упорядочены по первому символу ребра; у разных детей он всегда разный.
+     * ID упорядочены, рядом - длины исходных имен. Пустые массивы детей и ID не хранятся - вместо них null
+     */
+    private static final class Node {
+
+        char[] label;
+        Node[] children;
+        long[] ids;
+        int[] lengths;
+        int minLength = NONE;
+
+        Node(char[] label) {
+            this.label = label;
+        }
+
+        int find(char first) {
+            if (children == null) {
+                return -1;
+            }
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char current = children[middle].label[0];
+                if (current < first) {
+                    low = middle + 1;
+                } else if (current > first) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -low - 1;
+        }
+
+        void insertChild(int at, Node child) {
+            if (children == null) {
+                children = new Node[]{child};
+                return;
+            }
+            Node[] extended = new Node[children.length + 1];
+            System.arraycopy(children, 0, extended, 0, at);
+            extended[at] = child;
+            System.arraycopy(children, at, extended, at + 1, children.length - at);
+            children = extended;
+        }
+
+        void removeChild(Node child) {
+            if (children.length == 1) {
+                children = null;
+                return;
+            }
+            Node[] reduced = new Node[children.length - 1];
+            for (int i = 0, j = 0; i < children.length; i++) {
+                if (children[i] != child) {
+                    reduced[j++] = children[i];
+                }
+            }
+            children = reduced;
+        }
+
+        int indexOf(long id) {
+            return ids != null ? Arrays.binarySearch(ids, id) : -1;
+        }
+
+        void addId(long id, int length) {
+            if (ids == null) {
+                ids = new long[]{id};
+                lengths = new int[]{length};
+                return;
+            }
+            int at = -Arrays.binarySearch(ids, id) - 1;
+            long[] extendedIds = new long[ids.length + 1];
+            int[] extendedLengths = new int[ids.length + 1];
+            System.arraycopy(ids, 0, extendedIds, 0, at);
+            System.arraycopy(lengths, 0, extendedLengths, 0, at);
+            extendedIds[at] = id;
+            extendedLengths[at] = length;
+            System.arraycopy(ids, at, extendedIds, at + 1, ids.length - at);
+            System.arraycopy(lengths, at, extendedLengths, at + 1, ids.length - at);
+            ids = extendedIds;
+            lengths = extendedLengths;
+        }
+
+        void removeIdAt(int at) {
+            if (ids.length == 1) {
+                ids = null;
+                lengths = null;
+                return;
+            }
+            long[] reducedIds = new long[ids.length - 1];
+            int[] reducedLengths = new int[ids.length - 1];
+            System.arraycopy(ids, 0, reducedIds, 0, at);
+            System.arraycopy(lengths, 0, reducedLengths, 0, at);
+            System.arraycopy(ids, at + 1, reducedIds, at, ids.length - at - 1);
+            System.arraycopy(lengths, at + 1, reducedLengths, at, ids.length - at - 1);
+            ids = reducedIds;
+            lengths = reducedLengths;
+        }
+
+        /**
+         * @return длина кратчайшего из имен самого узла или {@link #NONE}
+         */
+        int ownMinLength() {
+            int min = NONE;
+            if (lengths != null) {
+                for (int length : lengths) {
+                    min = Math.min(min, length);
+                }
+            }
+            return min;
+        }
+
+        void updateMinLength() {
+            int min = ownMinLength();
+            if (children != null) {
+                for (Node child : children) {
+                    min = Math.min(min, child.minLength);
+                }
+            }
+            minLength = min;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package ru.hogwarts.school.service.impl;
+
+import ru.hogwarts.school.model.StudentNameMatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Триграммный инвертированный индекс имен для поиска по подстроке после {@link NameFolding#fold(String)}.
+ * Имя раскладывается на все тройки подряд идущих символов, для каждой тройки хранится отсортированный
+ * массив ID студентов (long[], без упаковки в Long). Кандидаты на запрос - пересечение списков его троек:
+ * самый короткий обходится по порядку, по остальным курсоры идут галопом. Каждый кандидат затем проверяется
+ * по самому имени, потому что все тройки на месте еще не значит, что они стоят подряд. Ключи таблиц -
+ * примитивные long, а приведенное имя хранится рядом с исходным (одна строка, если они совпадают),
+ * поэтому проверка не создает объектов на каждого кандидата.
+ * Для частых троек просмотр ограничен: он останавливается, набрав limit полных совпадений имени,
+ * и в любом случае после {@value #MAX_CANDIDATES} кандидатов - тогда ранжируются только просмотренные.
+ * <p>
+ * Не потокобезопасен: доступ упорядочивает {@link StudentNameIndex}
+ */
+final class NameTrigramIndex {
+
+    static final int MIN_QUERY_LENGTH = 3;
+    static final int MAX_CANDIDATES = 1_000;
+
+    private static final Comparator<Match> RANKING = Comparator.comparingInt(Match::rank)
+            .thenComparingInt(match -> match.name().length())
+            .thenComparingLong(Match::id);
+
+    private final LongMap<SortedIds> postings = new LongMap<>();
+    private final LongMap<String> names = new LongMap<>();
+    private final LongMap<String> foldedNames = new LongMap<>();
+
+    int size() {
+        return names.size();
+    }
+
+    /**
+     * @return имя студента в индексе или null
+     */
+    String name(long id) {
+        return names.get(id);
+    }
+
+    /**
+     * Добавляет студента или заменяет его прежнее имя
+     */
+    void put(long id, String name) {
+        remove(id);
+        if (name == null) {
+            return;
+        }
+        String folded = NameFolding.fold(name);
+        names.put(id, name);
+        foldedNames.put(id, folded.equals(name) ? name : folded);
+        for (long trigram : trigrams(folded)) {
+            SortedIds ids = postings.get(trigram);
+            if (ids == null) {
+                ids = new SortedIds();
+                postings.put(trigram, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    void remove(long id) {
+        names.remove(id);
+        String folded = foldedNames.remove(id);
+        if (folded == null) {
+            return;
+        }
+        for (long trigram : trigrams(folded)) {
+            SortedIds ids = postings.get(trigram);
+            if (ids != null && ids.remove(id) && ids.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    /**
+     * Ранжирование: полное совпадение имени, затем начало имени, затем начало слова, затем любое место;
+     * внутри ранга - более короткие имена, затем меньший ID
+     *
+     * @param query подстрока не короче {@value #MIN_QUERY_LENGTH} символов
+     * @param limit сколько лучших совпадений вернуть
+     */
+    List<StudentNameMatch> search(String query, int limit) {
+        String folded = NameFolding.fold(query);
+        long[] keys = trigrams(folded);
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("Строка поиска должна быть не короче " + MIN_QUERY_LENGTH + " символов");
+        }
+        SortedIds[] lists = new SortedIds[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            lists[i] = postings.get(keys[i]);
+            if (lists[i] == null) {
+                return List.of();
+            }
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, RANKING.reversed());
+        SortedIds shortest = lists[0];
+        int[] cursors = new int[lists.length];
+        int scanned = 0;
+        candidates:
+        for (int i = 0; i < shortest.size && scanned < MAX_CANDIDATES; i++) {
+            long id = shortest.ids[i];
+            for (int j = 1; j < lists.length; j++) {
+                cursors[j] = lists[j].seek(id, cursors[j]);
+                if (cursors[j] == lists[j].size) {
+                    break candidates;
+                }
+                if (lists[j].ids[cursors[j]] != id) {
+                    continue candidates;
+                }
+            }
+            scanned++;
+            int rank = rank(foldedNames.get(id), folded);
+            if (rank < 0) {
+                continue;
+            }
+            if (best.size() == limit && rank > best.peek().rank()) {
+                continue;
+            }
+            String name = names.get(id);
+            if (best.size() == limit && !better(rank, name.length(), best.peek())) {
+                continue;
+            }
+            if (best.size() == limit) {
+                best.poll();
+            }
+            best.add(new Match(id, name, rank));
+            if (best.size() == limit && best.peek().rank() == 0) {
+                break;
+            }
+        }
+        List<Match> sorted = new ArrayList<>(best);
+        sorted.sort(RANKING);
+        return sorted.stream().map(match -> new StudentNameMatch(match.id(), match.name())).toList();
+    }
+
+    /**
+     * Кандидаты идут по возрастанию ID, поэтому при равных ранге и длине более поздний не лучше
+     */
+    private static boolean better(int rank, int length, Match worst) {
+        return rank != worst.rank() ? rank < worst.rank() : length < worst.name().length();
+    }
+
+    /**
+     * Сравнение идет с приведенным именем: приведение может менять длину ("ß" - "ss"),
+     * поэтому сравнивать по месту с исходным именем нельзя
+     *
+     * @param name  приведенное имя
+     * @param query приведенный запрос
+     * @return 0 - имя совпадает с запросом, 1 - начинается с него, 2 - с него начинается слово,
+     * 3 - запрос внутри слова, -1 - запроса в имени нет
+     */
+    private static int rank(String name, String query) {
+        int at = name.indexOf(query);
+        if (at == 0) {
+            return name.length() == query.length() ? 0 : 1;
+        }
+        int rank = -1;
+        for (; at > 0; at = name.indexOf(query, at + 1)) {
+            if (!Character.isLetterOrDigit(name.codePointBefore(at))) {
+                return 2;
+            }
+            rank = 3;
+        }
+        return rank;
+    }
+
+    /**
+     * @return различные тройки символов строки, каждая упакована в long по 21 биту на символ
+     */
+    static long[] trigrams(String text) {
+        int[] codePoints = text.codePoints().toArray();
+        if (codePoints.length < MIN_QUERY_LENGTH) {
+            return new long[0];
+        }
+        long[] keys = new long[codePoints.length - 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) codePoints[i] << 42 | (long) codePoints[i + 1] << 21 | codePoints[i + 2];
+        }
+        Arrays.sort(keys);
+        int distinct = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, distinct);
+    }
+
+    private record Match(long id, String name, int rank) {
+    }
+}
@@ -0,0 +1,81 @@
+package ru.hogwarts.school.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Принятое содержимое аватара: временный файл, его размер и SHA-256, посчитанные за один проход по потоку
+ */
+record ReceivedFile(Path path, String hash, long size) {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Копирует поток во временный файл в dir. Если поток длиннее maxSize, чтение прерывается,
+     * а временный файл удаляется - в память и на диск больше лимита не попадает.
+     * Поток in не закрывается, это делает вызывающий.
+     */
+    static ReceivedFile receive(InputStream in, Path dir, String prefix, long maxSize) throws IOException {
+        Files.createDirectories(dir);
+        Path tempFile = Files.createTempFile(dir, prefix, ".part");
+        try {
+            MessageDigest digest = sha256();
+            long size = 0;
+            // входной поток не закрываем: для архива это поток всего тела запроса, а не одной записи
+            InputStream is = new DigestInputStream(in, digest);
+            try (OutputStream os = Files.newOutputStream(tempFile)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    size += read;
+                    if (size > maxSize) {
+                        throw new SizeLimitExceededException(maxSize);
+                    }
+                    os.write(buffer, 0, read);
+                }
+            }
+            return new ReceivedFile(tempFile, HexFormat.of().formatHex(digest.digest()), size);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Считает SHA-256 уже записанного файла, например собранного из частей
+     */
+    static ReceivedFile of(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        long size = 0;
+        try (InputStream is = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        return new ReceivedFile(file, HexFormat.of().formatHex(digest.digest()), size);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static class SizeLimitExceededException extends IOException {
+        SizeLimitExceededException(long maxSize) {
+            super("Размер содержимого больше " + maxSize + " байт");
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Аватары упакованы в большие файлы-сегменты только на дозапись (по мотивам Haystack):
+ * тысячи мелких картинок - это десяток файлов, а не тысячи inode.
+ * <p>
+ * Запись сегмента: magic, тип (PUT / DELETE), длина ключа, длина данных, ключ, данные, CRC32 всего предыдущего.
+ * Индекс ключ -> (сегмент, смещение) живет в памяти и восстанавливается при старте проходом по сегментам;
+ * оборванный или испорченный хвост последнего сегмента после падения обрезается.
+ * Чтение идет через отображение сегмента в память, отдача файла - через sendfile с участком сегмента.
+ * Перезаписанные и удаленные записи считаются мертвыми; фоновое сжатие переносит живые записи
+ * из сегментов с большой долей мертвых байт в активный сегмент, а старый файл удаляет на следующем проходе,
+ * чтобы уже начатые отдачи успели дочитать его. Надгробие переносится, только пока в более старом сегменте
+ * лежит PUT этого ключа: для этого сегмент помнит ключи своих мертвых PUT, и набор исчезает вместе с ним.
+ */
+@Service
+@ConditionalOnProperty(name = "avatar.storage.engine", havingValue = "segment")
+public class SegmentStorageEngine implements AvatarStorageEngine {
+
+    static final int MAGIC = 0x41565452;
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final int HEADER_SIZE = 4 + 1 + 2 + 8;
+    static final int TRAILER_SIZE = 4;
+
+    private static final long MB = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(SegmentStorageEngine.class);
+    private final Path dir;
+    private final long maxSegmentSize;
+    private final boolean fsync;
+    private final double compactionThreshold;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final List<Segment> retired = new ArrayList<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile Segment active;
+
+    public SegmentStorageEngine(@Value("${path.to.avatars.folder}") String avatarsDir,
+                                @Value("${avatar.storage.segment.max-size-mb:256}") long maxSegmentSizeMb,
+                                @Value("${avatar.storage.segment.fsync:true}") boolean fsync,
+                                @Value("${avatar.storage.segment.compaction-threshold:0.5}") double compactionThreshold,
+                                MeterRegistry meterRegistry) throws IOException {
+        this.dir = Path.of(avatarsDir, "segments");
+        this.maxSegmentSize = Math.min(maxSegmentSizeMb * MB, Integer.MAX_VALUE);
+        this.fsync = fsync;
+        this.compactionThreshold = compactionThreshold;
+        Files.createDirectories(dir);
+        recover();
+
+        Gauge.builder("avatar.storage.segments", segments, Map::size)
+                .description("Число файлов-сегментов аватаров")
+                .register(meterRegistry);
+        Gauge.builder("avatar.storage.dead.bytes", this, SegmentStorageEngine::deadBytes)
+                .description("Байты перезаписанных и удаленных записей, ожидающие сжатия")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Проходит сегменты по возрастанию номера: более поздняя запись ключа побеждает
+     */
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(path -> path.getFileName().toString().matches("segment-\\d+\\.dat")).sorted().toList();
+        }
+        for (int i = 0; i < files.size(); i++) {
+            Segment segment = Segment.open(files.get(i));
+            segments.put(segment.id, segment);
+            long validEnd = scan(segment);
+            if (validEnd < segment.size) {
+                if (i == files.size() - 1) {
+                    logger.warn("Сегмент {} оборван на {} из {} байт, хвост отрезан", segment.path, validEnd, segment.size);
+                    segment.channel.truncate(validEnd);
+                    segment.size = validEnd;
+                    segment.mapped = null;
+                } else {
+                    logger.error("Сегмент {} поврежден начиная с {}, записи после этого места недоступны", segment.path, validEnd);
+                    segment.dead.addAndGet(segment.size - validEnd);
+                    segment.validEnd = validEnd;
+                }
+            }
+        }
+        active = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        logger.info("Хранилище сегментов: {} сегментов, {} ключей", segments.size(), index.size());
+    }
+
+    /**
+     * @return смещение конца последней целой записи
+     */
+    private long scan(Segment segment) throws IOException {
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE + TRAILER_SIZE <= segment.size) {
+            header.clear();
+            segment.channel.read(header, position);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                return position;
+            }
+            byte type = header.get();
+            int keyLength = Short.toUnsignedInt(header.getShort());
+            long dataLength = header.getLong();
+            long recordLength = HEADER_SIZE + keyLength + dataLength + TRAILER_SIZE;
+            if ((type != PUT && type != DELETE) || dataLength < 0 || position + recordLength > segment.size) {
+                return position;
+            }
+            ByteBuffer record = segment.read(position, recordLength);
+            CRC32 crc = new CRC32();
+            crc.update(record.slice(4, (int) recordLength - 4 - TRAILER_SIZE));
+            if ((int) crc.getValue() != record.getInt((int) recordLength - TRAILER_SIZE)) {
+                return position;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            record.get(HEADER_SIZE, keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            if (type == PUT) {
+                replace(key, new Entry(segment.id, position, HEADER_SIZE + keyLength, dataLength, recordLength));
+            } else {
+                remove(key);
+                segment.dead.addAndGet(recordLength);
+            }
+            position += recordLength;
+        }
+        return position;
+    }
+
+    @Override
+    public AvatarLocation write(String key, Path source) throws IOException {
+        Entry existing = index.get(key);
+        if (existing != null) {
+            return location(existing);
+        }
+        try (FileChannel in = FileChannel.open(source, READ)) {
+            return location(append(key, PUT, in, in.size()));
+        }
+    }
+
+    @Override
+    public AvatarLocation write(String key, byte[] data) throws IOException {
+        Entry existing = index.get(key);
+        if (existing != null) {
+            return location(existing);
+        }
+        return location(append(key, PUT, new ByteArrayChannel(data), data.length));
+    }
+
+    @Override
+    public Optional<AvatarLocation> locate(String key) {
+        return Optional.ofNullable(index.get(key)).map(this::location);
+    }
+
+    @Override
+    public InputStream openStream(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            throw new FileNotFoundException(key);
+        }
+        return new ByteBufferInputStream(segments.get(entry.segment).read(entry.dataOffset(), entry.dataLength));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        if (index.containsKey(key)) {
+            append(key, DELETE, null, 0);
+        }
+    }
+
+    private AvatarLocation location(Entry entry) {
+        return new AvatarLocation(segments.get(entry.segment).path, entry.dataOffset(), entry.dataLength);
+    }
+
+    /**
+     * Пишет запись в конец активного сегмента и обновляет индекс
+     */
+    private Entry append(String key, byte type, ReadableByteChannel data, long dataLength) throws IOException {
+        writeLock.lock();
+        try {
+            Entry entry = writeRecord(key, type, data, dataLength);
+            if (type == PUT) {
+                replace(key, entry);
+            } else {
+                remove(key);
+                segments.get(entry.segment).dead.addAndGet(entry.recordLength);
+            }
+            return entry;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Пишет запись в конец активного сегмента, не трогая индекс; вызывается под writeLock.
+     * При ошибке сегмент обрезается до начала записи, при падении процесса оборванную запись
+     * отбросит проверка CRC при старте.
+     */
+    private Entry writeRecord(String key, byte type, ReadableByteChannel data, long dataLength) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long recordLength = HEADER_SIZE + keyBytes.length + dataLength + TRAILER_SIZE;
+        if (active.size > 0 && active.size + recordLength > maxSegmentSize) {
+            active = createSegment(active.id + 1);
+        }
+        Segment segment = active;
+        long position = segment.size;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length)
+                    .putInt(MAGIC).put(type).putShort((short) keyBytes.length).putLong(dataLength).put(keyBytes)
+                    .flip();
+            CRC32 crc = new CRC32();
+            crc.update(header.slice(4, header.limit() - 4));
+            long offset = position + writeFully(segment.channel, header, position);
+            if (data != null) {
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+                long remaining = dataLength;
+                while (remaining > 0) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                    if (data.read(buffer) < 0) {
+                        throw new IOException("Источник короче заявленных " + dataLength + " байт");
+                    }
+                    buffer.flip();
+                    crc.update(buffer.duplicate());
+                    remaining -= buffer.remaining();
+                    offset += writeFully(segment.channel, buffer, offset);
+                }
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).putInt((int) crc.getValue()).flip();
+            writeFully(segment.channel, trailer, offset);
+            if (fsync) {
+                segment.channel.force(false);
+            }
+        } catch (IOException | RuntimeException e) {
+            segment.channel.truncate(position);
+            throw e;
+        }
+        segment.size = position + recordLength;
+        return new Entry(segment.id, position, HEADER_SIZE + keyBytes.length, dataLength, recordLength);
+    }
+
+    private void replace(String key, Entry entry) {
+        retire(key, index.put(key, entry));
+    }
+
+    private void remove(String key) {
+        retire(key, index.remove(key));
+    }
+
+    private void retire(String key, Entry previous) {
+        if (previous != null) {
+            Segment segment = segments.get(previous.segment);
+            segment.dead.addAndGet(previous.recordLength);
+            segment.deadPuts.add(key);
+        }
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = Segment.open(dir.resolve("segment-%06d.dat".formatted(id)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Удаляет сегменты, сжатые на прошлом проходе, и сжимает закрытые сегменты,
+     * в которых доля мертвых байт выше avatar.storage.segment.compaction-threshold
+     */
+    @Scheduled(fixedDelayString = "${avatar.storage.segment.compaction-interval-ms:600000}")
+    public void compact() {
+        deleteRetired();
+        for (Segment segment : List.copyOf(segments.headMap(active.id).values())) {
+            if (!retired.contains(segment) && segment.size > 0
+                    && (double) segment.dead.get() / segment.size >= compactionThreshold) {
+                try {
+                    compact(segment);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Не удалось сжать сегмент {}", segment.path, e);
+                }
+            }
+        }
+    }
+
+    private void compact(Segment segment) throws IOException {
+        long reclaimed = segment.size;
+        long position = 0;
+        long end = Math.min(segment.size, segment.validEnd);
+        while (position < end) {
+            ByteBuffer header = segment.read(position, HEADER_SIZE);
+            byte type = header.get(4);
+            int keyLength = Short.toUnsignedInt(header.getShort(5));
+            long dataLength = header.getLong(7);
+            long recordLength = HEADER_SIZE + keyLength + dataLength + TRAILER_SIZE;
+            byte[] keyBytes = new byte[keyLength];
+            segment.read(position + HEADER_SIZE, keyLength).get(keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+
+            Entry entry = index.get(key);
+            if (type == PUT && entry != null && entry.segment == segment.id && entry.recordOffset == position) {
+                copyLive(key, entry, segment);
+                reclaimed -= recordLength;
+            } else if (type == DELETE && entry == null) {
+                copyTombstone(key, segment);
+            }
+            position += recordLength;
+        }
+        retired.add(segment);
+        logger.info("Сегмент {} сжат, освобождено {} байт", segment.path, reclaimed);
+    }
+
+    private void copyLive(String key, Entry entry, Segment segment) throws IOException {
+        ByteBuffer data = segment.read(entry.dataOffset(), entry.dataLength);
+        writeLock.lock();
+        try {
+            // ключ могли удалить или перезаписать, пока читали
+            if (index.get(key) == entry) {
+                append(key, PUT, new ByteArrayChannel(data), entry.dataLength);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Надгробие нужно, только пока в более старом сегменте лежит PUT ключа, иначе после перезапуска ключ воскреснет.
+     * Проверка и запись идут под writeLock: ключ могли записать заново, пока сегмент читался.
+     * Индекс не трогается - надгробие ничего в нем не удаляет, а сразу мертвое
+     */
+    private void copyTombstone(String key, Segment segment) throws IOException {
+        writeLock.lock();
+        try {
+            if (index.containsKey(key)
+                    || segments.headMap(segment.id).values().stream().noneMatch(older -> older.deadPuts.contains(key))) {
+                return;
+            }
+            Entry tombstone = writeRecord(key, DELETE, null, 0);
+            segments.get(tombstone.segment).dead.addAndGet(tombstone.recordLength);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void deleteRetired() {
+        for (Segment segment : retired) {
+            segments.remove(segment.id);
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                logger.warn("Не удалось удалить сжатый сегмент {}", segment.path, e);
+            }
+        }
+        retired.clear();
+    }
+
+    long deadBytes() {
+        return segments.values().stream().mapToLong(segment -> segment.dead.get()).sum();
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @param recordOffset начало записи в сегменте
+     * @param dataStart    смещение данных от начала записи
+     */
+    private record Entry(int segment, long recordOffset, int dataStart, long dataLength, long recordLength) {
+        long dataOffset() {
+            return recordOffset + dataStart;
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong dead = new AtomicLong();
+        /**
+         * Ключи перезаписанных и удаленных PUT этого сегмента - по ним решается, нужны ли надгробия в более новых
+         */
+        private final Set<String> deadPuts = ConcurrentHashMap.newKeySet();
+        private volatile long size;
+        private volatile MappedByteBuffer mapped;
+        /**
+         * Конец последней целой записи; меньше size, только если середина закрытого сегмента повреждена
+         */
+        private long validEnd = Long.MAX_VALUE;
+
+        private Segment(int id, Path path, FileChannel channel, long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        static Segment open(Path path) throws IOException {
+            String name = path.getFileName().toString();
+            int id = Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+            FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE);
+            return new Segment(id, path, channel, channel.size());
+        }
+
+        /**
+         * Участок сегмента через отображение в память. Активный сегмент растет,
+         * поэтому отображение пересоздается, когда запрошенный участок выходит за его границу.
+         */
+        ByteBuffer read(long position, long length) throws IOException {
+            MappedByteBuffer buffer = mapped;
+            if (buffer == null || position + length > buffer.capacity()) {
+                synchronized (this) {
+                    buffer = mapped;
+                    if (buffer == null || position + length > buffer.capacity()) {
+                        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                        mapped = buffer;
+                    }
+                }
+            }
+            return buffer.slice((int) position, (int) length);
+        }
+    }
+
+    private static final class ByteArrayChannel implements ReadableByteChannel {
+        private final ByteBuffer source;
+
+        ByteArrayChannel(byte[] data) {
+            this(ByteBuffer.wrap(data));
+        }
+
+        ByteArrayChannel(ByteBuffer source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(dst.remaining(), source.remaining());
+            dst.put(source.slice(source.position(), n));
+            source.position(source.position() + n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package ru.hogwarts.school.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Отсортированный список ID без повторов на примитивном массиве, без упаковки в Long.
+ * ID новых студентов растут, поэтому добавление - почти всегда дозапись в конец
+ */
+final class SortedIds {
+
+    long[] ids = new long[4];
+    int size;
+
+    void add(long id) {
+        int at = size > 0 && ids[size - 1] < id ? -size - 1 : Arrays.binarySearch(ids, 0, size, id);
+        if (at >= 0) {
+            return;
+        }
+        int insertAt = -at - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+        ids[insertAt] = id;
+        size++;
+    }
+
+    boolean remove(long id) {
+        int at = Arrays.binarySearch(ids, 0, size, id);
+        if (at < 0) {
+            return false;
+        }
+        System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Галопом от позиции from: при обходе по возрастанию ID каждый шаг стоит логарифм расстояния, а не всего списка
+     *
+     * @return позиция первого ID не меньше заданного или size
+     */
+    int seek(long id, int from) {
+        int bound = 1;
+        while (from + bound < size && ids[from + bound] < id) {
+            bound <<= 1;
+        }
+        int at = Arrays.binarySearch(ids, from + bound / 2, Math.min(from + bound + 1, size), id);
+        return at >= 0 ? at : -at - 1;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.hogwarts.school.service.impl;
+
+import ru.hogwarts.school.model.StudentAgeStats;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Разница счетчиков student_age_stats, накопленная за одну транзакцию. Применяется в порядке ключа,
+ * чтобы встречные переносы не ждали друг друга по кругу
+ */
+final class StatsDeltas {
+
+    private static final Comparator<StudentAgeStats.Key> ORDER =
+            Comparator.comparingLong(StudentAgeStats.Key::getFacultyId).thenComparingInt(StudentAgeStats.Key::getAge);
+
+    private final Map<StudentAgeStats.Key, Long> deltas = new TreeMap<>(ORDER);
+
+    StatsDeltas add(long facultyId, int age) {
+        deltas.merge(new StudentAgeStats.Key(facultyId, age), 1L, Long::sum);
+        return this;
+    }
+
+    StatsDeltas remove(long facultyId, int age) {
+        deltas.merge(new StudentAgeStats.Key(facultyId, age), -1L, Long::sum);
+        return this;
+    }
+
+    void applyTo(StudentAgeStatsRepository repository) {
+        deltas.forEach((key, delta) -> {
+            if (delta != 0) {
+                repository.add(key.getFacultyId(), key.getAge(), delta);
+            }
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package ru.hogwarts.school.service.impl;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Фиксированный набор блокировок, ключ попадает в одну из них по хешу.
+ * Разные ключи в разных полосах не мешают друг другу, память не растет с числом ключей.
+ * Блокировки действуют только внутри одного экземпляра приложения.
+ */
+final class StripedLocks {
+
+    private final ReentrantLock[] stripes;
+
+    StripedLocks(int count) {
+        stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Захватывает полосы всех ключей в порядке возрастания номера,
+     * поэтому два потока с пересекающимися наборами ключей не блокируют друг друга навсегда.
+     */
+    Held lock(Collection<?> keys) {
+        int[] indexes = keys.stream().mapToInt(this::stripe).distinct().sorted().toArray();
+        int locked = 0;
+        try {
+            for (int index : indexes) {
+                stripes[index].lock();
+                locked++;
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(indexes, locked);
+            throw e;
+        }
+        return () -> unlock(indexes, indexes.length);
+    }
+
+    int stripe(Object key) {
+        // перемешиваем биты: у соседних ID младшие биты хеша почти совпадают
+        int hash = key.hashCode() * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+
+    private void unlock(int[] indexes, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            stripes[indexes[i]].unlock();
+        }
+    }
+
+    @FunctionalInterface
+    interface Held extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,124 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.KeysetPage;
+import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.repositories.StudentRepository;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.stream.Stream;
+
+/**
+ * Выборка студентов по диапазону возрастов и гистограмма возрастов через {@link AgeIndex} в памяти:
+ * страница ID считается без запроса к БД, а сами студенты загружаются потом одним findAllById.
+ * Индекс поддерживается как {@link CommittedIndex}: строится на своем потоке после старта приложения
+ * и перестраивается раз в student.age-index.rebuild-interval-ms. Пока индекс не построен, методы
+ * возвращают null, и запрос идет в БД.
+ */
+@Service
+public class StudentAgeIndex {
+
+    private final Logger logger = LoggerFactory.getLogger(StudentAgeIndex.class);
+    private final StudentRepository studentRepository;
+    private final TransactionTemplate readTransaction;
+    private final CommittedIndex<AgeIndex> index = new CommittedIndex<>();
+    private final BackgroundJob job;
+
+    public StudentAgeIndex(StudentRepository studentRepository,
+                           PlatformTransactionManager transactionManager,
+                           MeterRegistry meterRegistry,
+                           @Value("${student.age-index.rebuild-interval-ms:600000}") long rebuildIntervalMs) {
+        this.studentRepository = studentRepository;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.job = new BackgroundJob("student-age-index", () -> {
+            rebuild();
+            return rebuildIntervalMs;
+        }, rebuildIntervalMs);
+        Gauge.builder("student.age.index.size", this, StudentAgeIndex::size)
+                .description("Студенты в индексе по возрасту")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        job.start(0);
+    }
+
+    @PreDestroy
+    public void stop() {
+        job.stop();
+    }
+
+    /**
+     * Добавляет студента или меняет его возраст после коммита текущей транзакции
+     */
+    public void put(long id, int age) {
+        index.change(ages -> ages.put(id, age));
+    }
+
+    /**
+     * Убирает студента после коммита текущей транзакции
+     */
+    public void remove(long id) {
+        index.change(ages -> ages.remove(id));
+    }
+
+    /**
+     * @param after позиция курсора или null для первой страницы
+     * @return ID студентов страницы в порядке (возраст, ID) или null, пока индекс не построен
+     */
+    KeysetPage<Long> findByAgeBetween(int minAge, int maxAge, Keyset.Position after, int size) {
+        int afterAge = after == null ? Integer.MIN_VALUE : after.intKey();
+        long afterId = after == null ? Long.MIN_VALUE : after.id();
+        List<AgeIndex.Entry> rows = index.read(ages -> ages.page(minAge, maxAge, afterAge, afterId, size + 1));
+        if (rows == null) {
+            return null;
+        }
+        KeysetPage<AgeIndex.Entry> page = Keyset.page(rows, size, AgeIndex.Entry::age, AgeIndex.Entry::id);
+        return new KeysetPage<>(page.items().stream().map(AgeIndex.Entry::id).toList(), page.nextCursor());
+    }
+
+    /**
+     * @return число студентов каждого возраста или null, пока индекс не построен
+     */
+    public SortedMap<Integer, Long> histogram() {
+        return index.read(AgeIndex::histogram);
+    }
+
+    public void rebuild() {
+        long started = System.nanoTime();
+        AgeIndex rebuilt;
+        try {
+            rebuilt = index.rebuild(() -> readTransaction.execute(status -> {
+                AgeIndex built = new AgeIndex();
+                try (Stream<StudentProjection> students =
+                             studentRepository.streamForExport(null, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+                    students.forEach(student -> built.put(student.getId(), student.getAge()));
+                }
+                return built;
+            }));
+        } catch (RuntimeException e) {
+            logger.warn("Не удалось перестроить индекс студентов по возрасту", e);
+            return;
+        }
+        logger.info("Индекс студентов по возрасту перестроен: {} студентов за {} мс",
+                rebuilt.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private double size() {
+        return Objects.requireNonNullElse(index.read(AgeIndex::size), 0);
+    }
+}
@@ -0,0 +1,83 @@
+package ru.hogwarts.school.service.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.StudentExportService;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Студенты читаются серверным курсором: в read-only транзакции PostgreSQL отдает строки порциями
+ * по {@link StudentRepository#EXPORT_FETCH_SIZE}, а не всей выборкой, и каждая порция сразу уходит клиенту.
+ * Строки - скалярные проекции, в контексте персистентности они не копятся, поэтому память не зависит от размера таблицы.
+ */
+@Service
+public class StudentExportServiceImpl implements StudentExportService {
+
+    private final Logger logger = LoggerFactory.getLogger(StudentExportServiceImpl.class);
+    private final StudentRepository studentRepository;
+    private final TransactionTemplate readTransaction;
+    private final ObjectMapper objectMapper;
+
+    public StudentExportServiceImpl(StudentRepository studentRepository,
+                                    PlatformTransactionManager transactionManager,
+                                    ObjectMapper objectMapper) {
+        this.studentRepository = studentRepository;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public long exportStudents(Long facultyId, Integer minAge, Integer maxAge, OutputStream out) throws IOException {
+        logger.info("Выгрузка студентов: facultyId {}, возраст от {} до {}", facultyId, minAge, maxAge);
+        Long exported;
+        try {
+            exported = readTransaction.execute(status -> write(facultyId, minAge, maxAge, out));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.info("Выгружено студентов: {}", exported);
+        return exported != null ? exported : 0;
+    }
+
+    private long write(Long facultyId, Integer minAge, Integer maxAge, OutputStream out) {
+        try (Stream<StudentProjection> students = studentRepository.streamForExport(facultyId,
+                minAge != null ? minAge : Integer.MIN_VALUE, maxAge != null ? maxAge : Integer.MAX_VALUE);
+             // объекты разделяет перевод строки, а не пробел, который Jackson ставит между значениями верхнего уровня
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(out)
+                     .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                     .setRootValueSeparator(null)) {
+            long count = 0;
+            Iterator<StudentProjection> iterator = students.iterator();
+            while (iterator.hasNext()) {
+                StudentProjection student = iterator.next();
+                generator.writeStartObject();
+                generator.writeNumberField("id", student.getId());
+                generator.writeStringField("name", student.getName());
+                generator.writeNumberField("age", student.getAge());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                // отдаем клиенту каждую прочитанную порцию, а не весь ответ в конце
+                if (++count % StudentRepository.EXPORT_FETCH_SIZE == 0) {
+                    generator.flush();
+                }
+            }
+            generator.flush();
+            return count;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
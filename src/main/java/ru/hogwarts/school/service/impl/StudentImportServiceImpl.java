@@ -0,0 +1,488 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentAgeStats;
+import ru.hogwarts.school.model.StudentBatchResult.Reason;
+import ru.hogwarts.school.model.StudentImportReport;
+import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.FacultyRepository.FacultyKeyRow;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.repositories.StudentRepository.ImportTargetRow;
+import ru.hogwarts.school.repositories.StudentRepository.UpsertedRow;
+import ru.hogwarts.school.service.StudentImportService;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Импорт студентов из CSV конвейером: разбор в потоке запроса, проверка, поиск факультетов и запись -
+ * каждая стадия в своем потоке; пачки идут через ограниченные очереди student.import.queue-capacity.
+ */
+@Service
+public class StudentImportServiceImpl implements StudentImportService {
+
+    private static final int STAGE_THREADS = 3;
+    private static final int MAX_REPORTED_FAILURES = 1000;
+    private static final long PROGRESS_LOG_ROWS = 100_000;
+    private static final long POLL_MILLIS = 100;
+    private static final List<?> END = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Logger logger = LoggerFactory.getLogger(StudentImportServiceImpl.class);
+    private final StudentRepository studentRepository;
+    private final FacultyRepository facultyRepository;
+    private final StudentAgeStatsRepository studentAgeStatsRepository;
+    private final StudentNameIndex studentNameIndex;
+    private final StudentAgeIndex studentAgeIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int batchSize;
+    private final int queueCapacity;
+    private final Semaphore imports;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Import> running = new ConcurrentHashMap<>();
+
+    public StudentImportServiceImpl(StudentRepository studentRepository,
+                                    FacultyRepository facultyRepository,
+                                    StudentAgeStatsRepository studentAgeStatsRepository,
+                                    StudentNameIndex studentNameIndex,
+                                    StudentAgeIndex studentAgeIndex,
+                                    PlatformTransactionManager transactionManager,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${student.import.batch-size:500}") int batchSize,
+                                    @Value("${student.import.queue-capacity:4}") int queueCapacity,
+                                    @Value("${student.import.max-concurrent:2}") int maxConcurrent) {
+        this.studentRepository = studentRepository;
+        this.facultyRepository = facultyRepository;
+        this.studentAgeStatsRepository = studentAgeStatsRepository;
+        this.studentNameIndex = studentNameIndex;
+        this.studentAgeIndex = studentAgeIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.meterRegistry = meterRegistry;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+        // каждому импорту нужно по потоку на стадию: семафор не пускает больше импортов, чем потоков в пуле
+        this.imports = new Semaphore(maxConcurrent);
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("student-import-");
+        threadFactory.setDaemon(true);
+        this.executor = new ThreadPoolExecutor(STAGE_THREADS * maxConcurrent, STAGE_THREADS * maxConcurrent,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(STAGE_THREADS * maxConcurrent), threadFactory);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public StudentImportReport importStudents(Reader csv) throws IOException {
+        CsvReader reader = new CsvReader(csv);
+        Columns columns = Columns.of(reader.next());
+        try {
+            imports.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Импорт прерван до начала", e);
+        }
+        Import job = new Import();
+        running.put(job.id, job);
+        try {
+            logger.info("Начат импорт студентов {}", job.id);
+            List<Future<?>> stages = List.of(
+                    executor.submit(() -> runStage(job, "проверка", job.parsed, job.validated, rows -> validate(job, columns, rows))),
+                    executor.submit(() -> runStage(job, "поиск факультетов", job.validated, job.resolved, rows -> resolve(job, rows))),
+                    executor.submit(() -> runStage(job, "запись", job.resolved, null, rows -> write(job, rows))));
+            parse(job, reader);
+            for (Future<?> stage : stages) {
+                await(job, stage);
+            }
+        } finally {
+            running.remove(job.id);
+            imports.release();
+        }
+        StudentImportReport report = job.report(true);
+        logger.info("Импорт студентов {} завершен: строк {}, создано {}, обновлено {}, отклонено {}",
+                job.id, report.read(), report.inserted(), report.updated(), report.failed());
+        return report;
+    }
+
+    @Override
+    public List<StudentImportReport> getRunningImports() {
+        return running.values().stream().map(job -> job.report(false)).toList();
+    }
+
+    /**
+     * Оборванный файл не отменяет уже прочитанное - ошибка попадает в отчет
+     */
+    private void parse(Import job, CsvReader reader) {
+        List<CsvRow> chunk = new ArrayList<>(batchSize);
+        try {
+            try {
+                List<String> fields;
+                while ((fields = reader.next()) != null) {
+                    if (fields.size() == 1 && fields.get(0).isBlank()) {
+                        continue;
+                    }
+                    chunk.add(new CsvRow(reader.line(), fields));
+                    job.read.incrementAndGet();
+                    if (chunk.size() == batchSize) {
+                        if (!put(job, job.parsed, chunk)) {
+                            return;
+                        }
+                        chunk = new ArrayList<>(batchSize);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Чтение CSV импорта {} прервано на строке {}", job.id, reader.line(), e);
+                job.fail(reader.line(), Reason.FAILED, "CSV поврежден или оборван: " + e.getMessage());
+            }
+            if (!chunk.isEmpty() && !put(job, job.parsed, chunk)) {
+                return;
+            }
+            put(job, job.parsed, end());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.abort("Импорт прерван");
+        }
+    }
+
+    private List<ImportRow> validate(Import job, Columns columns, List<CsvRow> rows) {
+        List<ImportRow> valid = new ArrayList<>(rows.size());
+        for (CsvRow row : rows) {
+            String name = columns.value(row.fields(), columns.name());
+            String age = columns.value(row.fields(), columns.age());
+            String facultyName = columns.value(row.fields(), columns.facultyName());
+            String facultyColor = columns.value(row.fields(), columns.facultyColor());
+            if (name.isEmpty()) {
+                job.fail(row.line(), Reason.INVALID, "Имя студента не задано");
+                continue;
+            }
+            int parsedAge;
+            try {
+                parsedAge = Integer.parseInt(age);
+            } catch (NumberFormatException e) {
+                job.fail(row.line(), Reason.INVALID, "Возраст не является целым числом: " + age);
+                continue;
+            }
+            if (parsedAge < Student.MIN_AGE) {
+                job.fail(row.line(), Reason.AGE_CONSTRAINT, "Возраст должен быть не меньше " + Student.MIN_AGE);
+                continue;
+            }
+            if (facultyName.isEmpty() != facultyColor.isEmpty()) {
+                job.fail(row.line(), Reason.INVALID, "Факультет задается названием и цветом вместе");
+                continue;
+            }
+            valid.add(new ImportRow(row.line(), name, parsedAge,
+                    facultyName.isEmpty() ? null : new FacultyKey(facultyName, facultyColor), null));
+        }
+        return valid;
+    }
+
+    private List<ImportRow> resolve(Import job, List<ImportRow> rows) {
+        Set<FacultyKey> missing = new LinkedHashSet<>();
+        for (ImportRow row : rows) {
+            if (row.faculty() != null && !job.faculties.containsKey(row.faculty())) {
+                missing.add(row.faculty());
+            }
+        }
+        if (!missing.isEmpty()) {
+            String[] names = missing.stream().map(FacultyKey::name).toArray(String[]::new);
+            String[] colors = missing.stream().map(FacultyKey::color).toArray(String[]::new);
+            List<FacultyKeyRow> found = transactionTemplate.execute(status -> {
+                facultyRepository.insertMissing(names, colors);
+                return facultyRepository.findByNamesAndColors(names, colors);
+            });
+            for (FacultyKeyRow faculty : found) {
+                job.faculties.put(new FacultyKey(faculty.getName(), faculty.getColor()), faculty.getId());
+            }
+        }
+        List<ImportRow> resolved = new ArrayList<>(rows.size());
+        for (ImportRow row : rows) {
+            if (row.faculty() == null) {
+                resolved.add(row);
+                continue;
+            }
+            Long facultyId = job.faculties.get(row.faculty());
+            if (facultyId == null) {
+                job.fail(row.line(), Reason.FAILED, "Факультет не найден и не создан: " + row.faculty().name());
+            } else {
+                resolved.add(row.withFacultyId(facultyId));
+            }
+        }
+        return resolved;
+    }
+
+    private List<Object> write(Import job, List<ImportRow> rows) {
+        // одно имя дважды в одном INSERT ... ON CONFLICT недопустимо: остается последняя строка
+        Map<String, ImportRow> byName = new LinkedHashMap<>();
+        rows.forEach(row -> byName.put(row.name(), row));
+        try {
+            int inserted = transactionTemplate.execute(status -> upsert(byName.values()));
+            job.written(inserted, rows.size() - inserted);
+            count("inserted", inserted);
+            count("updated", rows.size() - inserted);
+        } catch (DataAccessException e) {
+            String message = String.valueOf(e.getMostSpecificCause().getMessage());
+            logger.warn("Пачка импорта {} из {} строк не записана: {}", job.id, rows.size(), message);
+            rows.forEach(row -> job.fail(row.line(), Reason.FAILED, message));
+        }
+        return List.of();
+    }
+
+    /**
+     * Пачка пишется одним INSERT ... ON CONFLICT по name_unique. Если студента с тем же именем создали
+     * параллельно, он обновляется, а счетчики student_age_stats расходятся на единицу до {@link StudentStatsReconciler}
+     *
+     * @return сколько студентов создано; остальные обновлены
+     */
+    private int upsert(Collection<ImportRow> rows) {
+        String[] names = rows.stream().map(ImportRow::name).toArray(String[]::new);
+        Map<String, ImportTargetRow> existing = new HashMap<>();
+        for (ImportTargetRow row : studentRepository.lockForImport(names)) {
+            existing.put(row.getName(), row);
+        }
+        Iterator<Long> newIds = allocateIds(rows.size() - existing.size()).iterator();
+        Long[] ids = new Long[names.length];
+        Integer[] ages = new Integer[names.length];
+        Long[] facultyIds = new Long[names.length];
+        StatsDeltas deltas = new StatsDeltas();
+        int i = 0;
+        for (ImportRow row : rows) {
+            ImportTargetRow current = existing.get(row.name());
+            if (current != null) {
+                ids[i] = current.getId();
+                deltas.remove(current.getFacultyId(), current.getAge());
+            } else {
+                ids[i] = newIds.next();
+            }
+            ages[i] = row.age();
+            facultyIds[i] = row.facultyId();
+            deltas.add(row.facultyId() != null ? row.facultyId() : StudentAgeStats.NO_FACULTY, row.age());
+            i++;
+        }
+        Map<String, Integer> agesByName = new HashMap<>();
+        for (int j = 0; j < names.length; j++) {
+            agesByName.put(names[j], ages[j]);
+        }
+        List<UpsertedRow> written = studentRepository.upsertByName(ids, names, ages, facultyIds);
+        deltas.applyTo(studentAgeStatsRepository);
+        for (UpsertedRow row : written) {
+            studentNameIndex.put(row.getId(), row.getName());
+            studentAgeIndex.put(row.getId(), agesByName.get(row.getName()));
+        }
+        return rows.size() - existing.size();
+    }
+
+    private List<Long> allocateIds(int count) {
+        if (count == 0) {
+            return List.of();
+        }
+        int step = Student.ID_ALLOCATION_SIZE;
+        List<Long> ids = new ArrayList<>(count);
+        for (long last : studentRepository.nextIdBlocks((count + step - 1) / step)) {
+            for (long id = last - step + 1; id <= last && ids.size() < count; id++) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Берет пачки из in, пока не придет конец потока, и отдает результат step в out.
+     * Ошибка стадии останавливает весь импорт: остальные стадии выходят, не дожидаясь очередей
+     */
+    private <I, O> void runStage(Import job, String stage, BlockingQueue<List<I>> in, BlockingQueue<List<O>> out,
+                                 Function<List<I>, List<O>> step) {
+        try {
+            List<I> chunk;
+            while ((chunk = take(job, in)) != null && chunk != END) {
+                List<O> next = step.apply(chunk);
+                if (out != null && !next.isEmpty() && !put(job, out, next)) {
+                    return;
+                }
+            }
+            if (out != null && chunk != null) {
+                put(job, out, end());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.abort("Импорт прерван");
+        } catch (RuntimeException e) {
+            logger.error("Стадия \"{}\" импорта {} завершилась с ошибкой", stage, job.id, e);
+            job.abort("Стадия \"" + stage + "\": " + e.getMessage());
+        }
+    }
+
+    private static <T> boolean put(Import job, BlockingQueue<T> queue, T item) throws InterruptedException {
+        while (!job.aborted()) {
+            if (queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static <T> T take(Import job, BlockingQueue<T> queue) throws InterruptedException {
+        while (!job.aborted()) {
+            T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private static void await(Import job, Future<?> stage) {
+        try {
+            stage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.abort("Импорт прерван");
+        } catch (ExecutionException e) {
+            job.abort(e.getCause().getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> end() {
+        return (List<T>) END;
+    }
+
+    private void count(String result, long rows) {
+        if (rows > 0) {
+            meterRegistry.counter("student.import.rows", "result", result).increment(rows);
+        }
+    }
+
+    /**
+     * Позиции колонок по заголовку; -1 - колонки нет
+     */
+    private record Columns(int name, int age, int facultyName, int facultyColor) {
+
+        private static final String BOM = "\uFEFF";
+
+        static Columns of(List<String> header) {
+            if (header == null) {
+                throw new BadRequestException("CSV пуст: нужен заголовок с колонками name и age");
+            }
+            List<String> names = new ArrayList<>(header.stream().map(column -> column.strip().toLowerCase(Locale.ROOT)).toList());
+            // Excel сохраняет CSV в UTF-8 с BOM, и без этого первая колонка не узнается
+            if (!names.isEmpty() && names.get(0).startsWith(BOM)) {
+                names.set(0, names.get(0).substring(BOM.length()).strip());
+            }
+            Columns columns = new Columns(names.indexOf("name"), names.indexOf("age"),
+                    names.indexOf("faculty_name"), names.indexOf("faculty_color"));
+            if (columns.name() < 0 || columns.age() < 0) {
+                throw new BadRequestException("В заголовке CSV нет обязательных колонок name и age: " + header);
+            }
+            return columns;
+        }
+
+        String value(List<String> fields, int index) {
+            return index >= 0 && index < fields.size() ? fields.get(index).strip() : "";
+        }
+    }
+
+    private record CsvRow(long line, List<String> fields) {
+    }
+
+    private record FacultyKey(String name, String color) {
+    }
+
+    private record ImportRow(long line, String name, int age, FacultyKey faculty, Long facultyId) {
+
+        ImportRow withFacultyId(Long facultyId) {
+            return new ImportRow(line, name, age, faculty, facultyId);
+        }
+    }
+
+    /**
+     * Состояние одного импорта: очереди между стадиями и счетчики для отчета
+     */
+    private final class Import {
+
+        final String id = UUID.randomUUID().toString();
+        final Instant startedAt = Instant.now();
+        final BlockingQueue<List<CsvRow>> parsed = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<List<ImportRow>> validated = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<List<ImportRow>> resolved = new ArrayBlockingQueue<>(queueCapacity);
+        // только поток стадии поиска факультетов
+        final Map<FacultyKey, Long> faculties = new HashMap<>();
+        final AtomicLong read = new AtomicLong();
+        final AtomicLong inserted = new AtomicLong();
+        final AtomicLong updated = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final List<StudentImportReport.Failure> failures = Collections.synchronizedList(new ArrayList<>());
+        volatile String error;
+
+        boolean aborted() {
+            return error != null;
+        }
+
+        synchronized void abort(String reason) {
+            if (error == null) {
+                error = String.valueOf(reason);
+            }
+        }
+
+        void fail(long line, Reason reason, String message) {
+            if (failed.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+                failures.add(new StudentImportReport.Failure(line, reason, message));
+            }
+            count("failed", 1);
+        }
+
+        void written(long newRows, long updatedRows) {
+            long before = inserted.get() + updated.get();
+            inserted.addAndGet(newRows);
+            updated.addAndGet(updatedRows);
+            if ((before + newRows + updatedRows) / PROGRESS_LOG_ROWS > before / PROGRESS_LOG_ROWS) {
+                logger.info("Импорт студентов {}: прочитано {}, записано {}, отклонено {}",
+                        id, read.get(), before + newRows + updatedRows, failed.get());
+            }
+        }
+
+        StudentImportReport report(boolean finished) {
+            List<StudentImportReport.Failure> reported;
+            if (finished) {
+                synchronized (failures) {
+                    reported = failures.stream()
+                            .sorted(Comparator.comparingLong(StudentImportReport.Failure::line))
+                            .toList();
+                }
+            } else {
+                reported = List.of();
+            }
+            return new StudentImportReport(id, startedAt, read.get(), inserted.get(), updated.get(), failed.get(),
+                    reported, finished, error);
+        }
+    }
+}
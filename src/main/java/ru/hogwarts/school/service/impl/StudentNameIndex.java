@@ -0,0 +1,179 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.model.StudentNameMatch;
+import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.repositories.StudentRepository;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Поиск студентов по подстроке имени через {@link NameTrigramIndex} в памяти: LIKE '%x%' не может
+ * использовать student_name_index и читает всю таблицу. Автодополнение имени по началу - через
+ * {@link NameTrie} с ранжированием по длине, которого нет у запроса к БД. Оба индекса строятся потоком из БД
+ * на своем потоке после старта приложения и поддерживаются как {@link CommittedIndex}; полная перестройка -
+ * раз в student.search.rebuild-interval-ms. Пока индексы не построены, поиск идет запросом к БД.
+ * Первая сборка читает всю таблицу и не должна занимать общий поток {@code @Scheduled}.
+ */
+@Service
+public class StudentNameIndex {
+
+    private static final int FALLBACK_CANDIDATES = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(StudentNameIndex.class);
+    private final StudentRepository studentRepository;
+    private final TransactionTemplate readTransaction;
+    private final CommittedIndex<Indexes> index = new CommittedIndex<>();
+    private final BackgroundJob job;
+
+    public StudentNameIndex(StudentRepository studentRepository,
+                            PlatformTransactionManager transactionManager,
+                            MeterRegistry meterRegistry,
+                            @Value("${student.search.rebuild-interval-ms:600000}") long rebuildIntervalMs) {
+        this.studentRepository = studentRepository;
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.job = new BackgroundJob("student-name-index", () -> {
+            rebuild();
+            return rebuildIntervalMs;
+        }, rebuildIntervalMs);
+        Gauge.builder("student.search.index.size", this, StudentNameIndex::size)
+                .description("Студенты в индексе поиска по имени")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        job.start(0);
+    }
+
+    @PreDestroy
+    public void stop() {
+        job.stop();
+    }
+
+    /**
+     * Пока индекс не построен, ранжируются только первые {@value #FALLBACK_CANDIDATES} совпадений по ID из БД
+     *
+     * @param query подстрока имени без учета регистра, не короче трех символов
+     * @param limit сколько лучших совпадений вернуть
+     */
+    public List<StudentNameMatch> search(String query, int limit) {
+        if (NameTrigramIndex.trigrams(NameFolding.fold(query)).length == 0) {
+            throw new BadRequestException("Строка поиска должна быть не короче " + NameTrigramIndex.MIN_QUERY_LENGTH + " символов");
+        }
+        List<StudentNameMatch> indexed = index.read(indexes -> indexes.trigrams().search(query, limit));
+        if (indexed != null) {
+            return indexed;
+        }
+        logger.debug("Индекс имен еще не построен, поиск \"{}\" идет по БД", query);
+        NameTrigramIndex found = new NameTrigramIndex();
+        studentRepository.findByNameContainsIgnoreCaseOrderById(query.strip(), PageRequest.ofSize(FALLBACK_CANDIDATES))
+                .forEach(student -> found.put(student.getId(), student.getName()));
+        return found.search(query, limit);
+    }
+
+    /**
+     * @param prefix начало имени, сравнивается после {@link NameFolding#fold(String)}
+     * @param limit  сколько дополнений вернуть
+     * @return сначала более короткие имена, при равной длине - по алфавиту
+     */
+    public List<StudentNameMatch> autocomplete(String prefix, int limit) {
+        List<StudentNameMatch> indexed = index.read(indexes -> indexes.complete(prefix, limit));
+        if (indexed != null) {
+            return indexed;
+        }
+        // без индекса ранжируются только первые по алфавиту имена из БД: короткое имя дальше по алфавиту будет пропущено
+        logger.debug("Индекс имен еще не построен, автодополнение \"{}\" идет по БД", prefix);
+        String from = prefix.strip().toLowerCase(Locale.ROOT);
+        Indexes found = new Indexes();
+        studentRepository.findByNamePrefix(StudentServiceImpl.prefixEnd(from), from, Long.MIN_VALUE, PageRequest.ofSize(limit))
+                .forEach(student -> found.put(student.getId(), student.getName()));
+        return found.complete(prefix, limit);
+    }
+
+    /**
+     * Добавляет студента или меняет его имя после коммита текущей транзакции
+     */
+    public void put(long id, String name) {
+        index.change(indexes -> indexes.put(id, name));
+    }
+
+    /**
+     * Убирает студента после коммита текущей транзакции
+     */
+    public void remove(long id) {
+        index.change(indexes -> indexes.remove(id));
+    }
+
+    public void rebuild() {
+        long started = System.nanoTime();
+        Indexes rebuilt;
+        try {
+            rebuilt = index.rebuild(() -> readTransaction.execute(status -> {
+                Indexes built = new Indexes();
+                try (Stream<StudentProjection> students =
+                             studentRepository.streamForExport(null, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+                    students.forEach(student -> built.put(student.getId(), student.getName()));
+                }
+                return built;
+            }));
+        } catch (RuntimeException e) {
+            logger.warn("Не удалось перестроить индекс имен студентов", e);
+            return;
+        }
+        logger.info("Индекс имен студентов перестроен: {} имен за {} мс",
+                rebuilt.trigrams().size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private double size() {
+        return Objects.requireNonNullElse(index.read(indexes -> indexes.trigrams().size()), 0);
+    }
+
+    /**
+     * Индексы меняются вместе: дерево находит студента по прежнему имени, которое помнит триграммный индекс
+     */
+    private record Indexes(NameTrigramIndex trigrams, NameTrie trie) {
+
+        Indexes() {
+            this(new NameTrigramIndex(), new NameTrie());
+        }
+
+        void put(long id, String name) {
+            remove(id);
+            if (name != null) {
+                trigrams.put(id, name);
+                trie.put(id, name);
+            }
+        }
+
+        void remove(long id) {
+            String previous = trigrams.name(id);
+            if (previous != null) {
+                trie.remove(id, previous);
+                trigrams.remove(id);
+            }
+        }
+
+        List<StudentNameMatch> complete(String prefix, int limit) {
+            return trie.complete(prefix, limit).stream()
+                    .map(id -> new StudentNameMatch(id, trigrams.name(id)))
+                    .toList();
+        }
+    }
+}
@@ -3,38 +3,191 @@ package ru.hogwarts.school.service.impl;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.exception.BadRequestException;
 import ru.hogwarts.school.exception.NotFoundException;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyAssignmentResult;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentAgeStats;
+import ru.hogwarts.school.model.StudentBatchResult;
+import ru.hogwarts.school.model.StudentNameKeyProjection;
+import ru.hogwarts.school.model.StudentNameMatch;
 import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.model.StudentStats;
 import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository.AgeBucket;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.repositories.StudentRepository.FacultyAssignmentRow;
 import ru.hogwarts.school.service.StudentService;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 @Service
 public class StudentServiceImpl implements StudentService {
 
+    private static final int BATCH_CHUNK = 500;
+    private static final int MAX_SEARCH_LIMIT = 100;
+
     private final Logger logger = LoggerFactory.getLogger(StudentServiceImpl.class);
     private final StudentRepository studentRepository;
     private final FacultyRepository facultyRepository;
+    private final StudentAgeStatsRepository studentAgeStatsRepository;
+    private final StudentNameIndex studentNameIndex;
+    private final StudentAgeIndex studentAgeIndex;
+    private final TransactionTemplate transactionTemplate;
 
-    public StudentServiceImpl(StudentRepository studentRepository, FacultyRepository facultyRepository) {
+    public StudentServiceImpl(StudentRepository studentRepository,
+                              FacultyRepository facultyRepository,
+                              StudentAgeStatsRepository studentAgeStatsRepository,
+                              StudentNameIndex studentNameIndex,
+                              StudentAgeIndex studentAgeIndex,
+                              PlatformTransactionManager transactionManager) {
         this.studentRepository = studentRepository;
         this.facultyRepository = facultyRepository;
+        this.studentAgeStatsRepository = studentAgeStatsRepository;
+        this.studentNameIndex = studentNameIndex;
+        this.studentAgeIndex = studentAgeIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
+    @Transactional
     @Override
     public Student createStudent(Student student) {
         logger.info("Вызван метод createStudent");
         logger.debug("Создаваемый студент: {}", student);
-        return studentRepository.save(student);
+        // ID из тела запроса превратил бы save в merge существующей строки мимо счетчиков
+        student.setId(null);
+        Student saved = studentRepository.save(student);
+        moveStats(null, saved);
+        studentNameIndex.put(saved.getId(), saved.getName());
+        studentAgeIndex.put(saved.getId(), saved.getAge());
+        return saved;
+    }
+
+    /**
+     * Строки проверяются заранее (пустое имя, возраст ниже age_constraint, имя уже занято), остальные
+     * вставляются частями по {@value #BATCH_CHUNK} в одной транзакции: ID берутся блоками из student_seq,
+     * поэтому Hibernate отправляет INSERT пакетами по hibernate.jdbc.batch_size.
+     * Если часть все же нарушила ограничение (имя заняли параллельно), она повторяется построчно.
+     */
+    @Override
+    public StudentBatchResult createStudents(List<Student> students) {
+        logger.info("Вызван метод createStudents, строк: {}", students.size());
+        List<StudentBatchResult.Failure> failures = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        int created = 0;
+        for (int from = 0; from < students.size(); from += BATCH_CHUNK) {
+            Map<Integer, Student> chunk = new LinkedHashMap<>();
+            for (int index = from; index < Math.min(from + BATCH_CHUNK, students.size()); index++) {
+                Student student = students.get(index);
+                StudentBatchResult.Failure failure = validate(index, student, names);
+                if (failure != null) {
+                    failures.add(failure);
+                } else {
+                    student.setId(null);
+                    chunk.put(index, student);
+                }
+            }
+            if (chunk.isEmpty()) {
+                continue;
+            }
+            Set<String> existing = new HashSet<>(studentRepository.findExistingNames(
+                    chunk.values().stream().map(Student::getName).toList()));
+            chunk.entrySet().removeIf(entry -> {
+                if (!existing.contains(entry.getValue().getName())) {
+                    return false;
+                }
+                failures.add(new StudentBatchResult.Failure(entry.getKey(), entry.getValue().getName(),
+                        StudentBatchResult.Reason.DUPLICATE_NAME, "Студент с таким именем уже есть"));
+                return true;
+            });
+            created += insert(chunk, failures);
+        }
+        failures.sort(Comparator.comparingInt(StudentBatchResult.Failure::index));
+        logger.info("Создано студентов: {}, отклонено строк: {}", created, failures.size());
+        return new StudentBatchResult(created, failures);
+    }
+
+    private static StudentBatchResult.Failure validate(int index, Student student, Set<String> names) {
+        if (student == null || student.getName() == null || student.getName().isBlank()) {
+            return new StudentBatchResult.Failure(index, student != null ? student.getName() : null,
+                    StudentBatchResult.Reason.INVALID, "Имя студента не задано");
+        }
+        if (student.getAge() < Student.MIN_AGE) {
+            return new StudentBatchResult.Failure(index, student.getName(),
+                    StudentBatchResult.Reason.AGE_CONSTRAINT, "Возраст должен быть не меньше " + Student.MIN_AGE);
+        }
+        if (!names.add(student.getName())) {
+            return new StudentBatchResult.Failure(index, student.getName(),
+                    StudentBatchResult.Reason.DUPLICATE_NAME, "Имя повторяется в запросе");
+        }
+        return null;
+    }
+
+    /**
+     * @return сколько строк части создано; отказы добавляются в failures
+     */
+    private int insert(Map<Integer, Student> chunk, List<StudentBatchResult.Failure> failures) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                StatsDeltas deltas = new StatsDeltas();
+                for (Student saved : studentRepository.saveAllAndFlush(chunk.values())) {
+                    deltas.add(StudentAgeStats.facultyKey(saved), saved.getAge());
+                    studentNameIndex.put(saved.getId(), saved.getName());
+                    studentAgeIndex.put(saved.getId(), saved.getAge());
+                }
+                deltas.applyTo(studentAgeStatsRepository);
+            });
+            return chunk.size();
+        } catch (DataIntegrityViolationException e) {
+            logger.warn("Часть из {} студентов нарушила ограничение, повтор по одному: {}",
+                    chunk.size(), e.getMostSpecificCause().getMessage());
+        }
+        int created = 0;
+        for (Map.Entry<Integer, Student> entry : chunk.entrySet()) {
+            Student student = entry.getValue();
+            // ID, выданный в откаченной транзакции, не сохранился
+            student.setId(null);
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    Student saved = studentRepository.saveAndFlush(student);
+                    moveStats(null, saved);
+                    studentNameIndex.put(saved.getId(), saved.getName());
+                    studentAgeIndex.put(saved.getId(), saved.getAge());
+                });
+                created++;
+            } catch (DataIntegrityViolationException e) {
+                String message = String.valueOf(e.getMostSpecificCause().getMessage());
+                StudentBatchResult.Reason reason = message.contains("name_unique") ? StudentBatchResult.Reason.DUPLICATE_NAME
+                        : message.contains("age_constraint") ? StudentBatchResult.Reason.AGE_CONSTRAINT
+                        : StudentBatchResult.Reason.FAILED;
+                failures.add(new StudentBatchResult.Failure(entry.getKey(), student.getName(), reason, message));
+            }
+        }
+        return created;
     }
 
     @Override
@@ -51,6 +204,7 @@ public class StudentServiceImpl implements StudentService {
         }
     }
 
+    @Transactional
     @Override
     public Student editStudent(Student student) {
         logger.info("Вызван метод editStudent с id: {}", student.getId());
@@ -59,9 +213,15 @@ public class StudentServiceImpl implements StudentService {
             logger.error("Студент с id {} не найден", student.getId());
             throw new NotFoundException(Student.class, student.getId());
         }
-        return studentRepository.save(student);
+        AgeBucket before = studentAgeStatsRepository.lockStudentBucket(student.getId()).orElse(null);
+        Student saved = studentRepository.save(student);
+        moveStats(before, saved);
+        studentNameIndex.put(saved.getId(), saved.getName());
+        studentAgeIndex.put(saved.getId(), saved.getAge());
+        return saved;
     }
 
+    @Transactional
     @Override
     public void deleteStudent(long id) {
         logger.info("Вызван метод deleteStudent с id: {}", id);
@@ -70,7 +230,11 @@ public class StudentServiceImpl implements StudentService {
                 logger.error("Студент с id {} не найден", id);
                 return new NotFoundException(Student.class, id);
             });
+            AgeBucket before = studentAgeStatsRepository.lockStudentBucket(student.getId()).orElse(null);
             studentRepository.deleteById(student.getId());
+            moveStats(before, null);
+            studentNameIndex.remove(student.getId());
+            studentAgeIndex.remove(student.getId());
             logger.debug("Студент с id {} успешно удален", id);
         } catch (NotFoundException e) {
             logger.warn("Студент с id {} не найден", id, e);
@@ -79,9 +243,84 @@ public class StudentServiceImpl implements StudentService {
     }
 
     @Override
-    public List<Student> findByAgeBetween(int minAge, int maxAge) {
+    public KeysetPage<Student> findByAgeBetween(int minAge, int maxAge, String cursor, int limit) {
         logger.info("Вызван метод findByAgeBetween с minAge: {}, maxAge: {}", minAge, maxAge);
-        return studentRepository.findByAgeBetween(minAge, maxAge);
+        Keyset.Position after = Keyset.decode(cursor);
+        int size = Keyset.limit(limit);
+        KeysetPage<Long> ids = studentAgeIndex.findByAgeBetween(minAge, maxAge, after, size);
+        if (ids != null) {
+            // индекс мог отстать от изменений в обход приложения: удаленные и вышедшие из диапазона отбрасываются
+            Map<Long, Student> found = new HashMap<>();
+            studentRepository.findAllById(ids.items()).forEach(student -> found.put(student.getId(), student));
+            List<Student> items = ids.items().stream()
+                    .map(found::get)
+                    .filter(student -> student != null && student.getAge() >= minAge && student.getAge() <= maxAge)
+                    .toList();
+            return new KeysetPage<>(items, ids.nextCursor());
+        }
+        List<Student> rows = after == null
+                ? studentRepository.findByAgeBetweenAfter(minAge, maxAge, Integer.MIN_VALUE, Long.MIN_VALUE, PageRequest.ofSize(size + 1))
+                : studentRepository.findByAgeBetweenAfter(minAge, maxAge, after.intKey(), after.id(), PageRequest.ofSize(size + 1));
+        return Keyset.page(rows, size, Student::getAge, Student::getId);
+    }
+
+    @Override
+    public KeysetPage<StudentProjection> findByNameStartingWith(String prefix, String cursor, int limit) {
+        logger.info("Вызван метод findByNameStartingWith с prefix: {}", prefix);
+        if (prefix == null || prefix.isBlank()) {
+            throw new BadRequestException("Префикс имени не должен быть пустым");
+        }
+        String from = prefix.toLowerCase(Locale.ROOT);
+        Keyset.Position after = Keyset.decode(cursor);
+        int size = Keyset.limit(limit);
+        List<StudentNameKeyProjection> rows = after == null
+                ? studentRepository.findByNamePrefix(prefixEnd(from), from, Long.MIN_VALUE, PageRequest.ofSize(size + 1))
+                : studentRepository.findByNamePrefix(prefixEnd(from), after.key(), after.id(), PageRequest.ofSize(size + 1));
+        // ключ курсора - lower(name) из БД: строка сравнивается с ним же в следующем запросе
+        KeysetPage<StudentNameKeyProjection> page = Keyset.page(rows, size, StudentNameKeyProjection::getNameKey,
+                StudentNameKeyProjection::getId);
+        return new KeysetPage<>(List.copyOf(page.items()), page.nextCursor());
+    }
+
+    @Override
+    public List<StudentNameMatch> searchByName(String query, int limit) {
+        logger.info("Вызван метод searchByName с query: {}", query);
+        if (query == null || limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new BadRequestException("Нужна строка поиска и limit от 1 до " + MAX_SEARCH_LIMIT);
+        }
+        return studentNameIndex.search(query, limit);
+    }
+
+    @Override
+    public List<StudentNameMatch> autocomplete(String prefix, int limit) {
+        logger.info("Вызван метод autocomplete с prefix: {}", prefix);
+        if (prefix == null || prefix.isBlank() || limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new BadRequestException("Нужно непустое начало имени и limit от 1 до " + MAX_SEARCH_LIMIT);
+        }
+        return studentNameIndex.autocomplete(prefix, limit);
+    }
+
+    /**
+     * Порядок "C" - это порядок кодовых точек. Последний символ увеличивается на единицу, суррогатный диапазон
+     * перескакивается (за U+D7FF идет U+E000), а U+10FFFF увеличить нельзя - он отбрасывается с переносом
+     * в предыдущий символ.
+     *
+     * @return наименьшая строка больше всех строк с этим префиксом
+     * @throws BadRequestException если префикс состоит из одних U+10FFFF и верхней границы у него нет
+     */
+    static String prefixEnd(String prefix) {
+        int[] codePoints = prefix.codePoints().toArray();
+        for (int i = codePoints.length - 1; i >= 0; i--) {
+            int next = codePoints[i] + 1;
+            if (next >= Character.MIN_SURROGATE && next <= Character.MAX_SURROGATE) {
+                next = Character.MAX_SURROGATE + 1;
+            }
+            if (next <= Character.MAX_CODE_POINT) {
+                codePoints[i] = next;
+                return new String(codePoints, 0, i + 1);
+            }
+        }
+        throw new BadRequestException("У префикса имени из одних U+10FFFF нет верхней границы");
     }
 
     @Override
@@ -106,6 +345,7 @@ public class StudentServiceImpl implements StudentService {
         }
     }
 
+    @Transactional
     @Override
     public Student assignFacultyToStudent(Long studentId, Long facultyId) {
         logger.info("Вызван метод assignFacultyToStudent, studentId: {}, facultyId: {}", studentId, facultyId);
@@ -113,8 +353,11 @@ public class StudentServiceImpl implements StudentService {
         Optional<Faculty> faculty = facultyRepository.findById(facultyId);
 
         if (student.isPresent() && faculty.isPresent()) {
+            AgeBucket before = studentAgeStatsRepository.lockStudentBucket(studentId).orElse(null);
             student.get().setFaculty(faculty.get());
-            return studentRepository.save(student.get());
+            Student saved = studentRepository.save(student.get());
+            moveStats(before, saved);
+            return saved;
         } else {
             try {
                 throw new ClassNotFoundException("Студент или факультет не найден");
@@ -124,16 +367,151 @@ public class StudentServiceImpl implements StudentService {
         }
     }
 
+    @Transactional
+    @Override
+    public FacultyAssignmentResult assignFacultyToStudents(long facultyId, Collection<Long> studentIds) {
+        logger.info("Вызван метод assignFacultyToStudents, facultyId: {}, студентов: {}", facultyId, studentIds.size());
+        requireFaculty(facultyId);
+        Long[] ids = studentIds.stream().filter(Objects::nonNull).distinct().toArray(Long[]::new);
+        List<FacultyAssignmentRow> rows = ids.length == 0 ? List.of() : studentRepository.lockForFacultyAssignment(ids);
+        Set<Long> found = new HashSet<>();
+        rows.forEach(row -> found.add(row.getId()));
+        List<Long> notFound = Arrays.stream(ids).filter(id -> !found.contains(id)).toList();
+        return assignFaculty(facultyId, rows, notFound);
+    }
+
+    @Transactional
+    @Override
+    public FacultyAssignmentResult assignFacultyToStudentRange(long facultyId, long fromId, long toId) {
+        logger.info("Вызван метод assignFacultyToStudentRange, facultyId: {}, ID с {} по {}", facultyId, fromId, toId);
+        if (fromId > toId) {
+            throw new BadRequestException("Начало диапазона ID больше конца: " + fromId + " > " + toId);
+        }
+        requireFaculty(facultyId);
+        return assignFaculty(facultyId, studentRepository.lockRangeForFacultyAssignment(fromId, toId), List.of());
+    }
+
+    private void requireFaculty(long facultyId) {
+        if (!facultyRepository.existsById(facultyId)) {
+            logger.error("Факультет с id {} не найден", facultyId);
+            throw new NotFoundException(Faculty.class, facultyId);
+        }
+    }
+
+    /**
+     * Переводит заблокированные строки одним UPDATE и переносит их между счетчиками, сгруппировав по ключу
+     */
+    private FacultyAssignmentResult assignFaculty(long facultyId, List<FacultyAssignmentRow> rows, List<Long> notFound) {
+        List<Long> assigned = new ArrayList<>();
+        List<Long> unchanged = new ArrayList<>();
+        StatsDeltas deltas = new StatsDeltas();
+        for (FacultyAssignmentRow row : rows) {
+            if (row.getFacultyId() == facultyId) {
+                unchanged.add(row.getId());
+                continue;
+            }
+            assigned.add(row.getId());
+            deltas.remove(row.getFacultyId(), row.getAge()).add(facultyId, row.getAge());
+        }
+        if (!assigned.isEmpty()) {
+            studentRepository.updateFaculty(assigned.toArray(Long[]::new), facultyId);
+            deltas.applyTo(studentAgeStatsRepository);
+        }
+        logger.info("Факультет {} назначен студентам: {}, уже на нем: {}, не найдено: {}",
+                facultyId, assigned.size(), unchanged.size(), notFound.size());
+        return new FacultyAssignmentResult(facultyId, assigned, unchanged, notFound);
+    }
+
     @Override
     public long countAllStudents() {
         logger.info("Вызван метод countAllStudents");
-        return studentRepository.countAllStudents();
+        return getStats().count();
     }
 
     @Override
     public Double getAverageAge() {
         logger.info("Вызван метод getAverageAge");
-        return studentRepository.getAverageAge();
+        return getStats().averageAge();
+    }
+
+    @Override
+    public StudentStats getStats() {
+        StudentStats total = StudentStats.EMPTY;
+        for (StudentAgeStats stats : studentAgeStatsRepository.findNonEmpty()) {
+            total = total.plus(stats.getAge(), stats.getStudentCount());
+        }
+        return total;
+    }
+
+    @Override
+    public Map<Long, StudentStats> getStatsByFaculty() {
+        Map<Long, StudentStats> byFaculty = new TreeMap<>();
+        for (StudentAgeStats stats : studentAgeStatsRepository.findNonEmpty()) {
+            byFaculty.merge(stats.getFacultyId(), StudentStats.EMPTY.plus(stats.getAge(), stats.getStudentCount()),
+                    (current, ignored) -> current.plus(stats.getAge(), stats.getStudentCount()));
+        }
+        return byFaculty;
+    }
+
+    /**
+     * Гистограмма берется из индекса по возрасту, пока он не построен - из счетчиков
+     */
+    @Override
+    public SortedMap<Integer, Long> getAgeHistogram() {
+        SortedMap<Integer, Long> indexed = studentAgeIndex.histogram();
+        if (indexed != null) {
+            return indexed;
+        }
+        SortedMap<Integer, Long> histogram = new TreeMap<>();
+        for (StudentAgeStats stats : studentAgeStatsRepository.findNonEmpty()) {
+            histogram.merge(stats.getAge(), stats.getStudentCount(), Long::sum);
+        }
+        return histogram;
+    }
+
+    /**
+     * Процентиль по ближайшему рангу: наименьший возраст, до которого включительно набирается p% студентов
+     */
+    @Override
+    public Map<Double, Integer> getAgePercentiles(List<Double> percentiles) {
+        for (double p : percentiles) {
+            if (!(p > 0 && p <= 100)) {
+                throw new BadRequestException("Процентиль должен быть в диапазоне (0, 100], получено: " + p);
+            }
+        }
+        SortedMap<Integer, Long> histogram = getAgeHistogram();
+        long total = histogram.values().stream().mapToLong(Long::longValue).sum();
+        Map<Double, Integer> result = new LinkedHashMap<>();
+        if (total == 0) {
+            return result;
+        }
+        for (double p : percentiles) {
+            long rank = (long) Math.ceil(p / 100 * total);
+            long seen = 0;
+            for (Map.Entry<Integer, Long> bucket : histogram.entrySet()) {
+                seen += bucket.getValue();
+                if (seen >= rank) {
+                    result.put(p, bucket.getKey());
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Переносит студента между счетчиками в той же транзакции, что и изменение студента.
+     * from - счетчик до изменения (null для нового студента), to - студент после (null после удаления)
+     */
+    private void moveStats(AgeBucket from, Student to) {
+        StatsDeltas deltas = new StatsDeltas();
+        if (from != null) {
+            deltas.remove(from.getFacultyId(), from.getAge());
+        }
+        if (to != null) {
+            deltas.add(StudentAgeStats.facultyKey(to), to.getAge());
+        }
+        deltas.applyTo(studentAgeStatsRepository);
     }
 
     @Transactional
@@ -0,0 +1,53 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
+
+/**
+ * Периодическая сверка счетчиков student_age_stats с таблицей студентов. Сверка идет под эксклюзивной
+ * блокировкой счетчиков: незакоммиченные изменения студентов к этому моменту либо уже учтены, либо ждут
+ * блокировку и применят свою разницу поверх пересчета. При расхождении счетчики пересобираются из таблицы.
+ */
+@Service
+public class StudentStatsReconciler {
+
+    private final Logger logger = LoggerFactory.getLogger(StudentStatsReconciler.class);
+    private final StudentAgeStatsRepository studentAgeStatsRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter mismatches;
+
+    public StudentStatsReconciler(StudentAgeStatsRepository studentAgeStatsRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry) {
+        this.studentAgeStatsRepository = studentAgeStatsRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.mismatches = Counter.builder("student.stats.mismatches")
+                .description("Счетчики студентов, разошедшиеся с таблицей при сверке")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${student.stats.reconcile-interval-ms:3600000}",
+            initialDelayString = "${student.stats.reconcile-interval-ms:3600000}")
+    public void reconcile() {
+        Long found = transactionTemplate.execute(status -> {
+            studentAgeStatsRepository.lock();
+            long mismatched = studentAgeStatsRepository.countMismatches();
+            if (mismatched > 0) {
+                studentAgeStatsRepository.deleteAllCounters();
+                studentAgeStatsRepository.rebuildFromStudents();
+            }
+            return mismatched;
+        });
+        if (found != null && found > 0) {
+            mismatches.increment(found);
+            logger.warn("Счетчики студентов разошлись с таблицей в {} группах и пересобраны", found);
+        }
+    }
+}
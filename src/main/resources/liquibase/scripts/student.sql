@@ -4,4 +4,72 @@
 CREATE INDEX student_name_index ON student (name);
 
 -- changeset Linskay:2
-CREATE INDEX faculty_cn_index ON faculty (color, name);
\ No newline at end of file
+CREATE INDEX faculty_cn_index ON faculty (color, name);
+
+-- changeset Linskay:3
+-- preconditions onFail:MARK_RAN
+-- precondition-sql-check expectedResult:1 SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = current_schema() AND table_name = 'avatar' AND column_name = 'data'
+-- Аватары до хранения по хешу держали байты в avatar.data (large object). Содержимое переносится в avatar_content:
+-- хеш считается по самому large object, первый аватар с этим хешем отдает ему свой oid, large object дублей
+-- отвязываются, колонка data удаляется. Файлы аватаров остаются по прежним путям в avatar.file_path
+CREATE TABLE IF NOT EXISTS avatar_content
+(
+    hash       VARCHAR(64) PRIMARY KEY,
+    file_size  BIGINT NOT NULL,
+    media_type VARCHAR(255),
+    file_path  VARCHAR(255),
+    data       OID
+);
+ALTER TABLE avatar ADD COLUMN IF NOT EXISTS checksum VARCHAR(255);
+UPDATE avatar SET checksum = encode(sha256(lo_get(data)), 'hex') WHERE checksum IS NULL AND data IS NOT NULL;
+INSERT INTO avatar_content (hash, file_size, media_type, data)
+SELECT DISTINCT ON (checksum) checksum, file_size, media_type, data
+FROM avatar
+WHERE data IS NOT NULL
+ORDER BY checksum, id
+ON CONFLICT (hash) DO NOTHING;
+SELECT lo_unlink(a.data)
+FROM avatar a
+WHERE a.data IS NOT NULL
+  AND NOT EXISTS (SELECT 1 FROM avatar_content c WHERE c.data = a.data);
+ALTER TABLE avatar DROP COLUMN data;
+
+-- changeset Linskay:4
+-- preconditions onFail:MARK_RAN
+-- precondition-sql-check expectedResult:1 SELECT COUNT(*) FROM information_schema.tables WHERE table_schema = current_schema() AND table_name = 'avatar_content'
+-- Где лежит содержимое. У перенесенного из avatar.data файла нет - его докладывает фоновый перенос между хранилищами
+ALTER TABLE avatar_content ADD COLUMN IF NOT EXISTS in_database BOOLEAN NOT NULL DEFAULT TRUE;
+ALTER TABLE avatar_content ADD COLUMN IF NOT EXISTS in_file_system BOOLEAN NOT NULL DEFAULT TRUE;
+UPDATE avatar_content SET in_file_system = FALSE WHERE file_path IS NULL;
+
+-- changeset Linskay:5
+CREATE INDEX student_name_prefix_index ON student ((lower(name) COLLATE "C"), id);
+
+-- changeset Linskay:6
+CREATE TABLE student_age_stats
+(
+    faculty_id    BIGINT NOT NULL,
+    age           INTEGER NOT NULL,
+    student_count BIGINT NOT NULL,
+    PRIMARY KEY (faculty_id, age)
+);
+INSERT INTO student_age_stats (faculty_id, age, student_count)
+SELECT COALESCE(faculty_id, 0), age, COUNT(*)
+FROM student
+GROUP BY 1, 2;
+
+-- changeset Linskay:7
+CREATE INDEX student_age_index ON student (age, id);
+
+-- changeset Linskay:8
+-- ID выдаются последовательностью блоками по 50 (allocationSize в сущностях): Hibernate берет блок
+-- одним nextval и может пакетировать INSERT. Значение по умолчанию тоже берется из последовательности,
+-- поэтому вставка в обход приложения занимает целый блок, а не пересекается с ним
+CREATE SEQUENCE student_seq INCREMENT BY 50;
+SELECT setval('student_seq', COALESCE((SELECT MAX(id) FROM student), 0) + 50, false);
+ALTER TABLE student ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE student ALTER COLUMN id SET DEFAULT nextval('student_seq');
+CREATE SEQUENCE faculty_seq INCREMENT BY 50;
+SELECT setval('faculty_seq', COALESCE((SELECT MAX(id) FROM faculty), 0) + 50, false);
+ALTER TABLE faculty ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE faculty ALTER COLUMN id SET DEFAULT nextval('faculty_seq');
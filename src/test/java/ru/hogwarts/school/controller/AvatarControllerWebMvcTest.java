@@ -0,0 +1,175 @@
+package ru.hogwarts.school.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import ru.hogwarts.school.model.AvatarMetadata;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.repositories.AvatarRepository;
+import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.AvatarCache;
+import ru.hogwarts.school.service.AvatarExportService;
+import ru.hogwarts.school.service.AvatarImportService;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+import ru.hogwarts.school.service.AvatarThumbnailService;
+import ru.hogwarts.school.service.AvatarUploadService;
+import ru.hogwarts.school.service.StudentExportService;
+import ru.hogwarts.school.service.StudentImportService;
+import ru.hogwarts.school.service.impl.AvatarServiceImpl;
+import ru.hogwarts.school.service.impl.AvatarStores;
+import ru.hogwarts.school.service.impl.FacultyServiceImpl;
+import ru.hogwarts.school.service.impl.StudentAgeIndex;
+import ru.hogwarts.school.service.impl.StudentNameIndex;
+import ru.hogwarts.school.service.impl.StudentServiceImpl;
+
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest
+public class AvatarControllerWebMvcTest {
+    final long studentId = 1L;
+    final String checksum = "abc";
+    final Instant updatedAt = Instant.parse("2024-10-01T10:00:00Z");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private StudentRepository studentRepository;
+
+    @MockBean
+    private AvatarRepository avatarRepository;
+
+    @MockBean
+    private AvatarContentRepository avatarContentRepository;
+
+    @MockBean
+    private AvatarThumbnailService avatarThumbnailService;
+
+    @MockBean
+    private AvatarCache avatarCache;
+
+    @MockBean
+    private AvatarStorageEngine avatarStorageEngine;
+
+    @MockBean
+    private AvatarStores avatarStores;
+
+    @MockBean
+    private AvatarImportService avatarImportService;
+
+    @MockBean
+    private AvatarExportService avatarExportService;
+
+    @MockBean
+    private AvatarUploadService avatarUploadService;
+
+    @MockBean
+    private StudentAgeStatsRepository studentAgeStatsRepository;
+
+    @MockBean
+    private StudentExportService studentExportService;
+
+    @MockBean
+    private StudentImportService studentImportService;
+
+    @MockBean
+    private StudentNameIndex studentNameIndex;
+
+    @MockBean
+    private StudentAgeIndex studentAgeIndex;
+
+    @MockBean
+    private PlatformTransactionManager transactionManager;
+
+    @MockBean
+    private FacultyRepository facultyRepository;
+
+    @SpyBean
+    private StudentServiceImpl studentService;
+
+    @SpyBean
+    private AvatarServiceImpl avatarService;
+
+    @SpyBean
+    private FacultyServiceImpl facultyService;
+
+    @BeforeEach
+    void setUp() {
+        AvatarMetadata metadata = mock(AvatarMetadata.class);
+        when(metadata.getChecksum()).thenReturn(checksum);
+        when(metadata.getUpdatedAt()).thenReturn(updatedAt);
+        when(metadata.getMediaType()).thenReturn("image/png");
+        when(metadata.getFilePath()).thenReturn("/not/opened");
+        when(metadata.getFileSize()).thenReturn(4L);
+        when(avatarRepository.findMetadataByStudentId(studentId)).thenReturn(Optional.of(metadata));
+    }
+
+    @Test
+    @DisplayName("If-None-Match с актуальным ETag - 304 без чтения содержимого из БД")
+    void downloadFromDbNotModified() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/avatar/" + studentId + "/avatar-from-db")
+                        .header(HttpHeaders.IF_NONE_MATCH, "\"" + checksum + "\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + checksum + "\""));
+
+        verify(avatarService, never()).findAvatarData(any());
+        verify(studentRepository, never()).findById(any());
+    }
+
+    @Test
+    @DisplayName("Оригинал из БД пишется в ответ потоком с длиной из метаданных")
+    void downloadFromDbStreams() throws Exception {
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(2).write(new byte[]{1, 2, 3, 4});
+            return true;
+        }).when(avatarService).writeContentData(eq(checksum), eq(4L), any(OutputStream.class));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/avatar/" + studentId + "/avatar-from-db"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/png"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+                .andExpect(content().bytes(new byte[]{1, 2, 3, 4}));
+
+        verify(avatarService, never()).findContentData(any());
+    }
+
+    @Test
+    @DisplayName("Содержимого нет в хранилище - 404")
+    void downloadFromDbMissingContent() throws Exception {
+        doReturn(false).when(avatarService).writeContentData(eq(checksum), eq(4L), any(OutputStream.class));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/avatar/" + studentId + "/avatar-from-db"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("If-Modified-Since не раньше Last-Modified - 304 без открытия файла")
+    void downloadFromFileNotModified() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/avatar/" + studentId + "/avatar-from-file")
+                        .header(HttpHeaders.IF_MODIFIED_SINCE, updatedAt.toEpochMilli()))
+                .andExpect(status().isNotModified());
+
+        verify(avatarService, never()).findAvatarVariant(any(), anyInt());
+    }
+}
@@ -13,6 +13,7 @@ import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.*;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.impl.FacultyServiceImpl;
 
@@ -206,7 +207,7 @@ class FacultyControllerTest {
 
         List<Student> students = Arrays.asList(student1, student2);
 
-        when(facultyService.getStudentsByFaculty(facultyId)).thenReturn(students);
+        when(facultyService.getStudentsByFaculty(facultyId, null, 100)).thenReturn(new KeysetPage<>(students, null));
 
         ResponseEntity<Collection<Student>> response = restTemplate.exchange(
                 "http://localhost:" + port + "/faculty/" + facultyId + "/students-faculty",
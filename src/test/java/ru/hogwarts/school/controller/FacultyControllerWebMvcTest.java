@@ -8,16 +8,31 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
 import ru.hogwarts.school.repositories.AvatarRepository;
 import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.AvatarCache;
+import ru.hogwarts.school.service.AvatarExportService;
+import ru.hogwarts.school.service.AvatarImportService;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+import ru.hogwarts.school.service.AvatarThumbnailService;
+import ru.hogwarts.school.service.AvatarUploadService;
+import ru.hogwarts.school.service.StudentExportService;
+import ru.hogwarts.school.service.StudentImportService;
 import ru.hogwarts.school.service.impl.AvatarServiceImpl;
+import ru.hogwarts.school.service.impl.AvatarStores;
 import ru.hogwarts.school.service.impl.FacultyServiceImpl;
+import ru.hogwarts.school.service.impl.StudentAgeIndex;
+import ru.hogwarts.school.service.impl.StudentNameIndex;
 import ru.hogwarts.school.service.impl.StudentServiceImpl;
 
 import java.util.Arrays;
@@ -52,6 +67,48 @@ public class FacultyControllerWebMvcTest {
     @MockBean
     private AvatarRepository avatarRepository;
 
+    @MockBean
+    private AvatarContentRepository avatarContentRepository;
+
+    @MockBean
+    private AvatarThumbnailService avatarThumbnailService;
+
+    @MockBean
+    private AvatarCache avatarCache;
+
+    @MockBean
+    private AvatarStorageEngine avatarStorageEngine;
+
+    @MockBean
+    private AvatarStores avatarStores;
+
+    @MockBean
+    private AvatarImportService avatarImportService;
+
+    @MockBean
+    private AvatarExportService avatarExportService;
+
+    @MockBean
+    private AvatarUploadService avatarUploadService;
+
+    @MockBean
+    private StudentAgeStatsRepository studentAgeStatsRepository;
+
+    @MockBean
+    private StudentExportService studentExportService;
+
+    @MockBean
+    private StudentImportService studentImportService;
+
+    @MockBean
+    private StudentNameIndex studentNameIndex;
+
+    @MockBean
+    private StudentAgeIndex studentAgeIndex;
+
+    @MockBean
+    private PlatformTransactionManager transactionManager;
+
     @SpyBean
     private FacultyServiceImpl facultyService;
 
@@ -239,9 +296,9 @@ public class FacultyControllerWebMvcTest {
         List<Student> students = Arrays.asList(student1, student2);
 
         when(facultyRepository.findById(id)).thenReturn(Optional.of(faculty));
-        when(studentRepository.findAllByFaculty(faculty)).thenReturn(students);
+        when(studentRepository.findByFacultyIdAfter(id, Long.MIN_VALUE, PageRequest.ofSize(11))).thenReturn(students);
 
-        List<Student> result = facultyService.getStudentsByFaculty(id);
+        List<Student> result = facultyService.getStudentsByFaculty(id, null, 10).items();
 
         assertThat(result).hasSize(2);
         assertThat(result.get(0).getId()).isEqualTo(student1.getId());
@@ -12,6 +12,7 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.*;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.service.impl.StudentServiceImpl;
 
@@ -188,7 +189,7 @@ class StudentControllerTest {
 
         List<Student> students = Arrays.asList(student1, student2);
 
-        when(studentService.findByAgeBetween(minAge, maxAge)).thenReturn(students);
+        when(studentService.findByAgeBetween(minAge, maxAge, null, 100)).thenReturn(new KeysetPage<>(students, null));
 
         ResponseEntity<List> response = restTemplate.exchange(
                 "http://localhost:" + port + "/student/by-age?minAge=" + minAge + "&maxAge=" + maxAge,
@@ -10,14 +10,29 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
 import ru.hogwarts.school.repositories.AvatarRepository;
 import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.AvatarCache;
+import ru.hogwarts.school.service.AvatarExportService;
+import ru.hogwarts.school.service.AvatarImportService;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+import ru.hogwarts.school.service.AvatarThumbnailService;
+import ru.hogwarts.school.service.AvatarUploadService;
+import ru.hogwarts.school.service.StudentExportService;
+import ru.hogwarts.school.service.StudentImportService;
 import ru.hogwarts.school.service.impl.AvatarServiceImpl;
+import ru.hogwarts.school.service.impl.AvatarStores;
 import ru.hogwarts.school.service.impl.FacultyServiceImpl;
+import ru.hogwarts.school.service.impl.StudentAgeIndex;
+import ru.hogwarts.school.service.impl.StudentNameIndex;
 import ru.hogwarts.school.service.impl.StudentServiceImpl;
 
 import java.util.Arrays;
@@ -26,6 +41,8 @@ import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -56,6 +73,48 @@ public class StudentControllerWebMvcTest {
     @MockBean
     private AvatarRepository avatarRepository;
 
+    @MockBean
+    private AvatarContentRepository avatarContentRepository;
+
+    @MockBean
+    private AvatarThumbnailService avatarThumbnailService;
+
+    @MockBean
+    private AvatarCache avatarCache;
+
+    @MockBean
+    private AvatarStorageEngine avatarStorageEngine;
+
+    @MockBean
+    private AvatarStores avatarStores;
+
+    @MockBean
+    private AvatarImportService avatarImportService;
+
+    @MockBean
+    private AvatarExportService avatarExportService;
+
+    @MockBean
+    private AvatarUploadService avatarUploadService;
+
+    @MockBean
+    private StudentAgeStatsRepository studentAgeStatsRepository;
+
+    @MockBean
+    private StudentExportService studentExportService;
+
+    @MockBean
+    private StudentImportService studentImportService;
+
+    @MockBean
+    private StudentNameIndex studentNameIndex;
+
+    @MockBean
+    private StudentAgeIndex studentAgeIndex;
+
+    @MockBean
+    private PlatformTransactionManager transactionManager;
+
     @MockBean
     private FacultyRepository facultyRepository;
 
@@ -205,7 +264,7 @@ public class StudentControllerWebMvcTest {
 
         List<Student> students = Arrays.asList(student1, student2);
 
-        when(studentService.findByAgeBetween(minAge, maxAge)).thenReturn(students);
+        when(studentService.findByAgeBetween(minAge, maxAge, null, 100)).thenReturn(new KeysetPage<>(students, "next"));
 
         mockMvc.perform(MockMvcRequestBuilders
                         .get("/student/by-age")
@@ -213,6 +272,7 @@ public class StudentControllerWebMvcTest {
                         .param("maxAge", String.valueOf(maxAge))
                         .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
+                .andExpect(header().string("X-Next-Cursor", "next"))
                 .andExpect(jsonPath("$.length()").value(students.size()))
                 .andExpect(jsonPath("$[0].id").value(student1.getId()))
                 .andExpect(jsonPath("$[0].name").value(student1.getName()))
@@ -272,4 +332,26 @@ public class StudentControllerWebMvcTest {
                         .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk());
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Некорректные параметры запроса - 400 с текстом ошибки")
+    public void badRequestTest() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .get("/student/search?q=Гарри&limit=0")
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Нужна строка поиска и limit от 1 до 100"));
+    }
+
+    @Test
+    @DisplayName("Неизвестная кодировка тела импорта - ошибка клиента, импорт не начинается")
+    public void importUnknownCharsetTest() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders
+                        .post("/student/import")
+                        .contentType("text/csv;charset=x-no-such-charset")
+                        .content("name,age\nHarry,17\n"))
+                .andExpect(status().is4xxClientError());
+
+        verifyNoInteractions(studentImportService);
+    }
+}
@@ -0,0 +1,127 @@
+package ru.hogwarts.school.repositories;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.engine.jdbc.BlobProxy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Время получения страницы /avatar/pageable: как было (строки аватаров вместе с содержимым)
+ * и как стало (проекция метаданных). Запуск: mvn test -Pbenchmark, нужна БД из application.properties.
+ */
+@Tag("benchmark")
+@SpringBootTest
+class AvatarListingBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(AvatarListingBenchmarkTest.class);
+
+    private static final int AVATARS = 100;
+    private static final int AVATAR_SIZE = 256 * 1024;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 30;
+
+    /**
+     * Прежнее поведение findAll(Pageable): сущность Avatar с @Lob data читалась целиком
+     */
+    private static final String LEGACY_PAGE_SQL = "SELECT a.id, a.student_id, a.file_path, a.file_size, a.media_type, " +
+            "lo_get(c.data) AS data FROM avatar a JOIN avatar_content c ON c.hash = a.checksum ORDER BY a.id LIMIT ? OFFSET 0";
+
+    @Autowired
+    private StudentRepository studentRepository;
+
+    @Autowired
+    private AvatarRepository avatarRepository;
+
+    @Autowired
+    private AvatarContentRepository avatarContentRepository;
+
+    @Autowired
+    private AvatarService avatarService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final List<Student> students = new ArrayList<>();
+    private final List<String> hashes = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < AVATARS; i++) {
+            byte[] data = new byte[AVATAR_SIZE];
+            ThreadLocalRandom.current().nextBytes(data);
+            String hash = HexFormat.of().formatHex(Arrays.copyOf(data, 32));
+            avatarContentRepository.saveAndFlush(
+                    new AvatarContent(hash, data.length, "image/png", "benchmark/" + hash, BlobProxy.generateProxy(data)));
+            hashes.add(hash);
+
+            Student student = studentRepository.save(new Student("Benchmark " + i, 20));
+            avatarRepository.save(new Avatar("benchmark/" + hash, data.length, "image/png", hash, student));
+            students.add(student);
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM avatar WHERE student_id = ANY(?)",
+                (Object) students.stream().map(Student::getId).toArray(Long[]::new));
+        for (String hash : hashes) {
+            jdbcTemplate.queryForList("SELECT lo_unlink(data) FROM avatar_content WHERE hash = ?", hash);
+        }
+        avatarContentRepository.deleteAllById(hashes);
+        studentRepository.deleteAll(students);
+    }
+
+    @Test
+    @DisplayName("Страница метаданных не читает содержимое и быстрее страницы с blob")
+    void pageLatency() throws Exception {
+        PageRequest page = PageRequest.of(0, AVATARS);
+
+        long legacy = medianNanos(() -> objectMapper.writeValueAsBytes(
+                jdbcTemplate.queryForList(LEGACY_PAGE_SQL, AVATARS)).length);
+        long projection = medianNanos(() -> objectMapper.writeValueAsBytes(
+                avatarService.getAllAvatars(page).getContent()).length);
+
+        logger.info("Страница из {} аватаров по {} КБ: с содержимым {} мс, метаданные {} мс",
+                AVATARS, AVATAR_SIZE / 1024, legacy / 1_000_000.0, projection / 1_000_000.0);
+        assertThat(projection).isLessThan(legacy);
+    }
+
+    private static long medianNanos(Callable<Integer> action) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            action.call();
+        }
+        long[] samples = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            action.call();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[ITERATIONS / 2];
+    }
+}
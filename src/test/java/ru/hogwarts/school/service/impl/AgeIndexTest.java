@@ -0,0 +1,52 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AgeIndexTest {
+
+    private AgeIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new AgeIndex();
+        index.put(5L, 20);
+        index.put(1L, 20);
+        index.put(3L, 18);
+        index.put(2L, 22);
+        index.put(4L, 30);
+    }
+
+    @Test
+    @DisplayName("Страница идет в порядке (возраст, ID) строго после курсора")
+    void page() {
+        assertThat(index.page(18, 22, Integer.MIN_VALUE, Long.MIN_VALUE, 10)).containsExactly(
+                new AgeIndex.Entry(3L, 18), new AgeIndex.Entry(1L, 20), new AgeIndex.Entry(5L, 20), new AgeIndex.Entry(2L, 22));
+        assertThat(index.page(18, 22, Integer.MIN_VALUE, Long.MIN_VALUE, 2)).containsExactly(
+                new AgeIndex.Entry(3L, 18), new AgeIndex.Entry(1L, 20));
+        assertThat(index.page(18, 22, 20, 1L, 2)).containsExactly(
+                new AgeIndex.Entry(5L, 20), new AgeIndex.Entry(2L, 22));
+        assertThat(index.page(18, 22, 20, 3L, 10)).containsExactly(
+                new AgeIndex.Entry(5L, 20), new AgeIndex.Entry(2L, 22));
+        assertThat(index.page(25, 22, Integer.MIN_VALUE, Long.MIN_VALUE, 10)).isEmpty();
+        assertThat(index.page(18, 22, 22, 2L, 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Изменение возраста переносит студента, удаление убирает опустевший возраст")
+    void putAndRemove() {
+        index.put(1L, 22);
+        index.remove(3L);
+        index.remove(42L);
+
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.histogram()).containsExactly(Map.entry(20, 1L), Map.entry(22, 2L), Map.entry(30, 1L));
+        assertThat(index.page(0, 100, 20, 5L, 10)).containsExactly(
+                new AgeIndex.Entry(1L, 22), new AgeIndex.Entry(2L, 22), new AgeIndex.Entry(4L, 30));
+    }
+}
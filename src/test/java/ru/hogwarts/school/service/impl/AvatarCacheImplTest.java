@@ -0,0 +1,141 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AvatarCacheImplTest {
+
+    private static final int KB = 1024;
+
+    private SimpleMeterRegistry meterRegistry;
+    private AvatarCacheImpl avatarCache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        avatarCache = new AvatarCacheImpl(meterRegistry, 1, 256);
+        loads = new AtomicInteger();
+    }
+
+    @Test
+    @DisplayName("Повторное обращение отдается из кэша без загрузки")
+    void getCachesLoadedData() {
+        avatarCache.get("a", loader(100 * KB));
+        avatarCache.get("a", loader(100 * KB));
+
+        assertThat(loads).hasValue(1);
+        assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Суммарный объем не превышает бюджет в байтах")
+    void weightIsBounded() {
+        for (int i = 0; i < 20; i++) {
+            avatarCache.get("hash" + i, loader(200 * KB));
+        }
+
+        assertThat(avatarCache.weightedSize()).isLessThanOrEqualTo(1024 * KB);
+    }
+
+    @Test
+    @DisplayName("Аватар больше лимита записи не кэшируется")
+    void oversizedEntryIsNotCached() {
+        avatarCache.get("big", loader(300 * KB));
+        avatarCache.get("big", loader(300 * KB));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("Вне транзакции invalidate убирает запись сразу")
+    void invalidate() {
+        avatarCache.get("a", loader(KB));
+        avatarCache.invalidate("a");
+        avatarCache.get("a", loader(KB));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("Одновременные промахи по одному ключу загружают содержимое один раз")
+    void concurrentMissesLoadOnce() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<String, byte[]> slowLoader = hash -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new byte[KB];
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> gets = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                gets.add(executor.submit(() -> avatarCache.get("hot", slowLoader)));
+            }
+            assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<byte[]> get : gets) {
+                assertThat(get.get(5, TimeUnit.SECONDS)).hasSize(KB);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("Разовый проход по множеству аватаров не вымывает часто запрашиваемые")
+    void scanDoesNotEvictHotEntries() {
+        avatarCache = new AvatarCacheImpl(meterRegistry, 1, 256, Runnable::run);
+        // частота учитывается, когда кэш заполнен хотя бы наполовину: горячие занимают ~60% его объема
+        int hot = 60;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < hot; i++) {
+                avatarCache.get("hot" + i, loader(10 * KB));
+            }
+        }
+        // проход в пять раз больше всего кэша, каждый аватар по одному разу
+        for (int i = 0; i < 500; i++) {
+            avatarCache.get("scan" + i, loader(10 * KB));
+        }
+        avatarCache.weightedSize();
+        loads.set(0);
+
+        for (int i = 0; i < hot; i++) {
+            avatarCache.get("hot" + i, loader(10 * KB));
+        }
+
+        assertThat(loads.get()).as("перезагружено часто запрашиваемых после прохода").isLessThanOrEqualTo(hot / 10);
+        assertThat(avatarCache.weightedSize()).isLessThanOrEqualTo(1024 * KB);
+    }
+
+    private Function<String, byte[]> loader(int size) {
+        return hash -> {
+            loads.incrementAndGet();
+            return new byte[size];
+        };
+    }
+}
@@ -0,0 +1,152 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarLocation;
+import ru.hogwarts.school.model.AvatarMetadata;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.service.AvatarService;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+
+import javax.sql.rowset.serial.SerialBlob;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.LongStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AvatarExportServiceImplTest {
+
+    @TempDir
+    Path avatarsDir;
+
+    @Mock
+    private AvatarService avatarService;
+
+    @Mock
+    private AvatarContentRepository avatarContentRepository;
+
+    @Mock
+    private AvatarStorageEngine avatarStorageEngine;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private AvatarExportServiceImpl exportService;
+
+    @BeforeEach
+    void setUp() {
+        AvatarStores avatarStores = new AvatarStores("dual", new DatabaseAvatarStore(avatarContentRepository),
+                new FileSystemAvatarStore(avatarStorageEngine, avatarContentRepository));
+        exportService = new AvatarExportServiceImpl(avatarService, avatarContentRepository, avatarStores, transactionManager);
+    }
+
+    @Test
+    @DisplayName("Участок файла и blob из БД попадают в архив под именами <studentId>.<ext>")
+    void exportAvatars() throws IOException, SQLException {
+        Path segment = Files.writeString(avatarsDir.resolve("segment.dat"), "headerFILE-BYTEStrailer");
+        AvatarMetadata fromFile = metadata(1L, "file-hash", "image/png");
+        AvatarMetadata fromDb = metadata(2L, "db-hash", "image/jpeg");
+        AvatarContent fileContent = new AvatarContent("file-hash", 10, "image/png", segment.toString(), null);
+        fileContent.setInFileSystem(true);
+        when(avatarContentRepository.findAllById(Set.of("file-hash", "db-hash"))).thenReturn(List.of(fileContent,
+                new AvatarContent("db-hash", 8, "image/jpeg", null, new SerialBlob("DB-BYTES".getBytes(StandardCharsets.UTF_8)))));
+        when(avatarStorageEngine.locate("file-hash")).thenReturn(Optional.of(new AvatarLocation(segment, 6, 10)));
+
+        Map<String, String> entries = unzip(export(List.of(fromFile, fromDb)));
+
+        assertThat(entries).containsExactly(Map.entry("1.png", "FILE-BYTES"), Map.entry("2.jpeg", "DB-BYTES"));
+        verify(transactionManager).commit(any());
+        verify(avatarContentRepository, never()).findById(anyString());
+    }
+
+    @Test
+    @DisplayName("Строки содержимого загружаются одним запросом на страницу")
+    void loadContentPerPage() throws IOException {
+        List<AvatarMetadata> avatars = LongStream.range(0, AvatarExportServiceImpl.PAGE_SIZE + 1)
+                .mapToObj(id -> metadata(id, "hash" + id, "image/png"))
+                .toList();
+        when(avatarContentRepository.findAllById(anyCollection())).thenReturn(List.of());
+
+        export(avatars);
+
+        verify(avatarContentRepository, times(2)).findAllById(anyCollection());
+        verify(transactionManager, times(2)).commit(any());
+    }
+
+    @Test
+    @DisplayName("Старый аватар без checksum берется по пути из метаданных")
+    void exportLegacyFile() throws IOException {
+        Path legacy = Files.writeString(avatarsDir.resolve("4.png"), "LEGACY");
+        AvatarMetadata metadata = metadata(4L, null, "image/png");
+        when(avatarService.findAvatarFile(metadata)).thenReturn(Optional.of(AvatarLocation.wholeFile(legacy, 6)));
+
+        assertThat(unzip(export(List.of(metadata)))).containsExactly(Map.entry("4.png", "LEGACY"));
+    }
+
+    @Test
+    @DisplayName("Аватар без содержимого пропускается, архив остается корректным")
+    void skipMissingContent() throws IOException {
+        AvatarMetadata missing = metadata(3L, "gone", "image/png");
+        when(avatarContentRepository.findAllById(Set.of("gone"))).thenReturn(List.of());
+
+        assertThat(unzip(export(List.of(missing)))).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Расширение берется из подтипа media type")
+    void extension() {
+        assertThat(AvatarExportServiceImpl.extension("image/png")).isEqualTo("png");
+        assertThat(AvatarExportServiceImpl.extension("image/svg+xml")).isEqualTo("svg");
+        assertThat(AvatarExportServiceImpl.extension(null)).isEqualTo("bin");
+    }
+
+    private byte[] export(List<AvatarMetadata> avatars) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportService.exportAvatars(avatars, out);
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> unzip(byte[] archive) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    private static AvatarMetadata metadata(Long studentId, String checksum, String mediaType) {
+        AvatarMetadata metadata = mock(AvatarMetadata.class);
+        lenient().when(metadata.getStudentId()).thenReturn(studentId);
+        lenient().when(metadata.getChecksum()).thenReturn(checksum);
+        lenient().when(metadata.getMediaType()).thenReturn(mediaType);
+        lenient().when(metadata.getUpdatedAt()).thenReturn(Instant.parse("2024-10-01T10:00:00Z"));
+        return metadata;
+    }
+}
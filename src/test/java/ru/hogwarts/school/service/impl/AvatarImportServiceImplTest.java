@@ -0,0 +1,176 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarImportResult;
+import ru.hogwarts.school.model.AvatarImportResult.Status;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class AvatarImportServiceImplTest {
+
+    private static final int MAX_ENTRY_SIZE_KB = 1;
+
+    @TempDir
+    Path avatarsDir;
+
+    @Mock
+    private AvatarService avatarService;
+
+    private AvatarImportServiceImpl importService;
+
+    @BeforeEach
+    void setUp() {
+        importService = importService(2);
+        when(avatarService.saveContent(anyString(), any(Path.class), anyLong(), anyString()))
+                .thenAnswer(invocation -> new AvatarContent(invocation.getArgument(0), invocation.getArgument(2),
+                        invocation.getArgument(3), null, null));
+        when(avatarService.attachAvatars(anyMap())).thenAnswer(invocation -> {
+            Map<Long, AvatarContent> contents = invocation.getArgument(0);
+            return contents.keySet().stream().filter(studentId -> studentId >= 100).collect(Collectors.toSet());
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        importService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Каждая запись архива получает свой результат")
+    void importReport() throws IOException {
+        byte[] archive = zip(Map.of(
+                "1.png", bytes(10),
+                "photos/2.jpg", bytes(20),
+                "readme.txt", bytes(5),
+                "3.txt", bytes(5),
+                "big/4.png", bytes(MAX_ENTRY_SIZE_KB * 1024 + 1),
+                "101.png", bytes(30)));
+
+        Map<String, Status> statuses = statuses(importService.importAvatars(new ByteArrayInputStream(archive)));
+
+        assertThat(statuses).containsExactlyInAnyOrderEntriesOf(Map.of(
+                "1.png", Status.IMPORTED,
+                "photos/2.jpg", Status.IMPORTED,
+                "readme.txt", Status.INVALID_NAME,
+                "3.txt", Status.UNSUPPORTED_MEDIA_TYPE,
+                "big/4.png", Status.TOO_LARGE,
+                "101.png", Status.STUDENT_NOT_FOUND));
+        verify(avatarService).saveContent(anyString(), any(Path.class), eq(20L), eq("image/jpeg"));
+        try (var files = Files.list(avatarsDir)) {
+            assertThat(files).as("временные файлы удалены").isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Повторная запись того же студента не импортируется")
+    void duplicateStudent() throws IOException {
+        byte[] archive = zip(Map.of("1.png", bytes(10), "again/1.jpg", bytes(20)));
+
+        List<AvatarImportResult> report = importService.importAvatars(new ByteArrayInputStream(archive));
+
+        assertThat(report).extracting(AvatarImportResult::status)
+                .containsExactlyInAnyOrder(Status.IMPORTED, Status.DUPLICATE);
+    }
+
+    @Test
+    @DisplayName("Аватары назначаются пачками размера batch-size")
+    void attachInBatches() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 1; i <= 5; i++) {
+            entries.put(i + ".png", bytes(i));
+        }
+
+        List<AvatarImportResult> report = importService.importAvatars(new ByteArrayInputStream(zip(entries)));
+
+        assertThat(report).extracting(AvatarImportResult::status).containsOnly(Status.IMPORTED).hasSize(5);
+        verify(avatarService, times(3)).attachAvatars(anyMap());
+    }
+
+    @Test
+    @DisplayName("Студент, удаленный до назначения аватара, попадает в отчет")
+    void studentDeletedBeforeAttach() throws IOException {
+        when(avatarService.attachAvatars(anyMap())).thenReturn(Set.of(2L));
+
+        Map<String, Status> statuses = statuses(importService.importAvatars(
+                new ByteArrayInputStream(zip(Map.of("1.png", bytes(1), "2.png", bytes(2))))));
+
+        assertThat(statuses).containsExactlyInAnyOrderEntriesOf(Map.of(
+                "1.png", Status.IMPORTED,
+                "2.png", Status.STUDENT_NOT_FOUND));
+    }
+
+    @Test
+    @DisplayName("Оборванный архив: принятые записи импортируются, ошибка чтения в отчете")
+    void truncatedArchive() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("1.png", bytes(10));
+        byte[] incompressible = new byte[600];
+        new Random(42).nextBytes(incompressible);
+        entries.put("2.png", incompressible);
+        byte[] archive = zip(entries);
+        byte[] truncated = Arrays.copyOf(archive, archive.length / 2 + 50);
+
+        List<AvatarImportResult> report = importService.importAvatars(new ByteArrayInputStream(truncated));
+
+        assertThat(report).extracting(AvatarImportResult::status).contains(Status.IMPORTED, Status.FAILED);
+        verify(avatarService).attachAvatars(argThat(contents -> contents.keySet().equals(Set.of(1L))));
+    }
+
+    private AvatarImportServiceImpl importService(int batchSize) {
+        return new AvatarImportServiceImpl(avatarService, new SimpleMeterRegistry(),
+                avatarsDir.toString(), 2, 4, batchSize, MAX_ENTRY_SIZE_KB);
+    }
+
+    private static Map<String, Status> statuses(List<AvatarImportResult> report) {
+        return report.stream().collect(Collectors.toMap(AvatarImportResult::entry, AvatarImportResult::status));
+    }
+
+    private static byte[] zip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) size);
+        return data;
+    }
+}
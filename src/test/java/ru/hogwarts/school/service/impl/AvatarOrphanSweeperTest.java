@@ -0,0 +1,145 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Pageable;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.repositories.AvatarVariantRepository;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AvatarOrphanSweeperTest {
+
+    private static final String LIVE = "aa" + "1".repeat(62);
+    private static final String ORPHAN = "bb" + "2".repeat(62);
+    private static final String FRESH = "cc" + "3".repeat(62);
+
+    @TempDir
+    Path avatarsDir;
+
+    @Mock
+    private AvatarContentRepository avatarContentRepository;
+
+    @Mock
+    private AvatarVariantRepository avatarVariantRepository;
+
+    @Mock
+    private AvatarService avatarService;
+
+    private FilePerAvatarStorageEngine engine;
+    private SimpleMeterRegistry meterRegistry;
+    private AvatarOrphanSweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        engine = new FilePerAvatarStorageEngine(avatarsDir.toString());
+        meterRegistry = new SimpleMeterRegistry();
+        sweeper = new AvatarOrphanSweeper(provider(engine), avatarContentRepository, avatarVariantRepository, avatarService,
+                meterRegistry, true, 3_600_000, 60, 10_000);
+        lenient().when(avatarContentRepository.findUnreferencedHashes(anyString(), any(Pageable.class))).thenReturn(List.of());
+    }
+
+    @Test
+    @DisplayName("Старые файлы без записи в БД и брошенные временные файлы удаляются, остальные остаются")
+    void sweepFiles() throws IOException {
+        Path live = old(engine.write(LIVE, new byte[]{1}).path());
+        Path orphan = old(engine.write(ORPHAN, new byte[]{2}).path());
+        Path fresh = engine.write(FRESH, new byte[]{3}).path();
+        Path liveVariant = old(engine.write(LIVE + "_64.png", new byte[]{4}).path());
+        Path orphanVariant = old(engine.write(LIVE + "_128.png", new byte[]{5}).path());
+        Path temp = old(Files.writeString(avatarsDir.resolve("upload-1.part"), "x"));
+        Path legacy = old(Files.writeString(avatarsDir.resolve("legacy.png"), "x"));
+        when(avatarContentRepository.findHashesInFileSystem(anyCollection())).thenReturn(List.of(LIVE));
+        when(avatarVariantRepository.existsByContentHashAndSize(LIVE, 64)).thenReturn(true);
+        when(avatarVariantRepository.existsByContentHashAndSize(LIVE, 128)).thenReturn(false);
+
+        sweeper.sweep();
+
+        assertThat(live).exists();
+        assertThat(fresh).as("моложе grace - возможно, транзакция еще идет").exists();
+        assertThat(liveVariant).exists();
+        assertThat(legacy).as("посторонние файлы в корне не трогаем").exists();
+        assertThat(orphan).doesNotExist();
+        assertThat(orphanVariant).doesNotExist();
+        assertThat(temp).doesNotExist();
+        assertThat(meterRegistry.counter("avatar.sweeper.deleted", "kind", "content").count()).isEqualTo(1);
+        assertThat(meterRegistry.counter("avatar.sweeper.deleted", "kind", "temp").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Содержимое без ссылок удаляется, только если оставалось таким два прохода подряд")
+    void releaseUnreferencedContentOnSecondPass() {
+        when(avatarContentRepository.findUnreferencedHashes(eq(""), any(Pageable.class))).thenReturn(List.of(ORPHAN));
+        when(avatarContentRepository.findUnreferencedHashes(eq(ORPHAN), any(Pageable.class))).thenReturn(List.of());
+        when(avatarService.releaseContent(ORPHAN)).thenReturn(true);
+
+        sweeper.sweep();
+        verify(avatarService, never()).releaseContent(anyString());
+
+        sweeper.sweep();
+        verify(avatarService).releaseContent(ORPHAN);
+        assertThat(meterRegistry.counter("avatar.sweeper.deleted", "kind", "content").count()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Без файлового движка содержимое без ссылок все равно освобождается")
+    void releaseContentWithoutFileEngine() {
+        sweeper = new AvatarOrphanSweeper(provider(null), avatarContentRepository, avatarVariantRepository, avatarService,
+                meterRegistry, true, 3_600_000, 60, 10_000);
+        when(avatarContentRepository.findUnreferencedHashes(eq(""), any(Pageable.class))).thenReturn(List.of(ORPHAN));
+        when(avatarContentRepository.findUnreferencedHashes(eq(ORPHAN), any(Pageable.class))).thenReturn(List.of());
+        when(avatarService.releaseContent(ORPHAN)).thenReturn(true);
+
+        sweeper.sweep();
+        sweeper.sweep();
+
+        verify(avatarService).releaseContent(ORPHAN);
+        verifyNoInteractions(avatarVariantRepository);
+    }
+
+    @Test
+    @DisplayName("Занятое загрузкой содержимое остается кандидатом и повторяется следующим проходом")
+    void retryBusyContent() {
+        when(avatarContentRepository.findUnreferencedHashes(eq(""), any(Pageable.class))).thenReturn(List.of(ORPHAN));
+        when(avatarContentRepository.findUnreferencedHashes(eq(ORPHAN), any(Pageable.class))).thenReturn(List.of());
+        when(avatarService.releaseContent(ORPHAN)).thenReturn(false, true);
+
+        sweeper.sweep();
+        sweeper.sweep();
+        sweeper.sweep();
+
+        verify(avatarService, times(2)).releaseContent(ORPHAN);
+        assertThat(meterRegistry.counter("avatar.sweeper.deleted", "kind", "content").count()).isEqualTo(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ObjectProvider<FilePerAvatarStorageEngine> provider(FilePerAvatarStorageEngine engine) {
+        ObjectProvider<FilePerAvatarStorageEngine> provider = mock(ObjectProvider.class);
+        lenient().when(provider.getIfAvailable()).thenReturn(engine);
+        return provider;
+    }
+
+    private static Path old(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+        return file;
+    }
+}
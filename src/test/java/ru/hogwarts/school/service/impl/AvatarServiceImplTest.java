@@ -0,0 +1,368 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.multipart.MultipartFile;
+import ru.hogwarts.school.model.Avatar;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.repositories.AvatarRepository;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.AvatarCache;
+import ru.hogwarts.school.service.AvatarThumbnailService;
+
+import javax.sql.rowset.serial.SerialBlob;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AvatarServiceImplTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Mock
+    private AvatarRepository avatarRepository;
+
+    @Mock
+    private AvatarContentRepository avatarContentRepository;
+
+    @Mock
+    private StudentRepository studentRepository;
+
+    @Mock
+    private AvatarThumbnailService avatarThumbnailService;
+
+    @Mock
+    private AvatarCache avatarCache;
+
+    private AvatarServiceImpl avatarService;
+
+    @TempDir
+    Path avatarsDir;
+
+    private Student TEST_STUDENT;
+
+    /**
+     * Строки avatar_content: вставка без конфликта и блокировка работают по ней
+     */
+    private final Map<String, AvatarContent> contents = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        FilePerAvatarStorageEngine storageEngine = new FilePerAvatarStorageEngine(avatarsDir.toString());
+        AvatarStores avatarStores = new AvatarStores("dual", new DatabaseAvatarStore(avatarContentRepository),
+                new FileSystemAvatarStore(storageEngine, avatarContentRepository));
+        avatarService = new AvatarServiceImpl(avatarRepository, avatarContentRepository, studentRepository,
+                avatarThumbnailService, avatarCache, storageEngine, avatarStores, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(avatarService, "avatarsDir", avatarsDir.toString());
+
+        TEST_STUDENT = new Student();
+        TEST_STUDENT.setId(1L);
+        TEST_STUDENT.setName("Oleg");
+        TEST_STUDENT.setAge(20);
+
+        lenient().when(studentRepository.getById(TEST_STUDENT.getId())).thenReturn(TEST_STUDENT);
+        lenient().when(avatarRepository.saveAndFlush(any(Avatar.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        lenient().when(avatarContentRepository.saveAndFlush(any(AvatarContent.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        lenient().when(avatarContentRepository.insertIfAbsent(anyString(), anyLong(), any())).thenAnswer(invocation ->
+                contents.putIfAbsent(invocation.getArgument(0), new AvatarContent(invocation.getArgument(0),
+                        invocation.getArgument(1), invocation.getArgument(2), null, null)) == null ? 1 : 0);
+        lenient().when(avatarContentRepository.lockByHash(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(contents.get(invocation.<String>getArgument(0))));
+    }
+
+    @Test
+    @DisplayName("Загрузка аватара пишет файл, размер и контрольную сумму без getBytes()")
+    void uploadAvatar() throws IOException {
+        MultipartFile file = multipartFile(MB);
+
+        avatarService.uploadAvatar(TEST_STUDENT.getId(), file);
+
+        verify(file, never()).getBytes();
+        ArgumentCaptor<AvatarContent> content = ArgumentCaptor.forClass(AvatarContent.class);
+        verify(avatarContentRepository).saveAndFlush(content.capture());
+        assertThat(content.getValue().getFileSize()).isEqualTo(MB);
+        assertThat(content.getValue().getHash()).hasSize(64);
+        assertThat(content.getValue().getData()).isNotNull();
+        verify(avatarThumbnailService).enqueue(content.getValue().getHash());
+        verify(avatarRepository).saveAndFlush(argThat(avatar ->
+                avatar.getFileSize() == MB && content.getValue().getHash().equals(avatar.getChecksum())));
+        assertThat(Files.size(shard(content.getValue().getHash()))).isEqualTo(MB);
+        try (Stream<Path> files = Files.walk(avatarsDir)) {
+            assertThat(files.filter(Files::isRegularFile)).hasSize(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Повторная загрузка того же содержимого не пишет файл и blob")
+    void uploadAvatarDeduplicates() throws IOException {
+        AvatarContent existing = new AvatarContent();
+        existing.setFileSize(MB);
+        existing.setFilePath("existing");
+        existing.setInFileSystem(true);
+        when(avatarContentRepository.insertIfAbsent(anyString(), anyLong(), any())).thenReturn(0);
+        when(avatarContentRepository.lockByHash(anyString())).thenReturn(Optional.of(existing));
+
+        avatarService.uploadAvatar(TEST_STUDENT.getId(), multipartFile(MB));
+
+        verify(avatarContentRepository, never()).saveAndFlush(any(AvatarContent.class));
+        verify(avatarThumbnailService, never()).enqueue(anyString());
+        verify(avatarRepository).saveAndFlush(argThat(avatar -> "existing".equals(avatar.getFilePath())));
+        try (Stream<Path> files = Files.list(avatarsDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    @DisplayName("Прежнее содержимое без ссылок удаляется, а то, что держит другая транзакция, - нет")
+    void uploadAvatarReleasesPreviousContent() throws IOException {
+        Avatar previous = new Avatar(null, 10, "image/png", "old", TEST_STUDENT);
+        TEST_STUDENT.setAvatar(previous);
+        when(avatarContentRepository.lockUnlessBusy("old")).thenReturn(Optional.of(new AvatarContent("old", 10, "image/png", null, null)));
+        when(avatarRepository.countByChecksum("old")).thenReturn(0L);
+
+        avatarService.uploadAvatar(TEST_STUDENT.getId(), multipartFile(MB));
+
+        verify(avatarContentRepository).delete(argThat(released -> "old".equals(released.getHash())));
+
+        previous.setChecksum("busy");
+        when(avatarContentRepository.lockUnlessBusy("busy")).thenReturn(Optional.empty());
+        avatarService.uploadAvatar(TEST_STUDENT.getId(), multipartFile(2 * MB));
+
+        verify(avatarRepository, never()).countByChecksum("busy");
+        verify(avatarContentRepository, times(1)).delete(any(AvatarContent.class));
+    }
+
+    @Test
+    @DisplayName("Строку нового хеша удалили между вставкой и блокировкой - она занимается заново")
+    void uploadAvatarReclaimsAfterConcurrentRelease() throws IOException {
+        when(avatarContentRepository.insertIfAbsent(anyString(), anyLong(), any())).thenReturn(0, 1);
+        AvatarContent claimed = new AvatarContent("h", MB, "image/png", null, null);
+        when(avatarContentRepository.lockByHash(anyString())).thenReturn(Optional.empty(), Optional.of(claimed));
+
+        avatarService.uploadAvatar(TEST_STUDENT.getId(), multipartFile(MB));
+
+        verify(avatarContentRepository, times(2)).insertIfAbsent(anyString(), anyLong(), any());
+        verify(avatarContentRepository).saveAndFlush(claimed);
+        assertThat(claimed.getData()).isNotNull();
+        assertThat(claimed.getFilePath()).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Выделение памяти при загрузке не растет вместе с размером файла")
+    void uploadAvatarAllocationIsFlat() throws IOException {
+        // прогрев: классы, буферы канала, MessageDigest
+        avatarService.uploadAvatar(TEST_STUDENT.getId(), multipartFile(MB));
+
+        long small = allocatedDuringUpload(MB);
+        long large = allocatedDuringUpload(64 * MB);
+
+        assertThat(large).isLessThan(4L * MB);
+        assertThat(large - small).isLessThan(MB);
+    }
+
+    @Test
+    @DisplayName("Пачка аватаров сохраняется одним saveAll, отсутствующие студенты возвращаются")
+    void attachAvatars() {
+        Student other = new Student();
+        other.setId(2L);
+        Avatar previous = new Avatar();
+        previous.setChecksum("old");
+        TEST_STUDENT.setAvatar(previous);
+        AvatarContent content = new AvatarContent("new", 10, "image/png", null, null);
+        when(studentRepository.findAllById(any())).thenReturn(List.of(TEST_STUDENT, other));
+        contents.put("new", content);
+        when(avatarRepository.countByChecksum("old")).thenReturn(0L);
+        when(avatarContentRepository.lockUnlessBusy("old")).thenReturn(Optional.of(new AvatarContent("old", 10, "image/png", null, null)));
+
+        Set<Long> missing = avatarService.attachAvatars(Map.of(1L, content, 2L, content, 3L, content));
+
+        assertThat(missing).containsExactly(3L);
+        verify(avatarRepository).saveAll(argThat(avatars -> ((List<?>) avatars).size() == 2));
+        assertThat(previous.getChecksum()).isEqualTo("new");
+        verify(avatarRepository, never()).saveAndFlush(any(Avatar.class));
+        verify(avatarRepository).countByChecksum("old");
+        verify(avatarContentRepository).delete(argThat(released -> "old".equals(released.getHash())));
+    }
+
+    @Test
+    @DisplayName("Содержимое, которое держит другая транзакция, не освобождается и ссылки не считаются")
+    void releaseContentSkipsBusyRow() {
+        when(avatarContentRepository.lockUnlessBusy("busy")).thenReturn(Optional.empty());
+
+        assertThat(avatarService.releaseContent("busy")).isFalse();
+
+        verify(avatarRepository, never()).countByChecksum(anyString());
+        verify(avatarContentRepository, never()).delete(any(AvatarContent.class));
+    }
+
+    @Test
+    @DisplayName("Содержимое больше записи кэша пишется в поток кусками, не собираясь в памяти")
+    void writeContentDataStreams() throws Exception {
+        byte[] data = new byte[3 * 64 * 1024 + 5];
+        new Random(7).nextBytes(data);
+        when(avatarCache.admits(data.length)).thenReturn(false);
+        when(avatarContentRepository.findById("big")).thenReturn(Optional.of(
+                new AvatarContent("big", data.length, "image/png", null, new SerialBlob(data))));
+        AtomicInteger largestWrite = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                largestWrite.accumulateAndGet(len, Math::max);
+                super.write(b, off, len);
+            }
+        };
+
+        assertThat(avatarService.writeContentData("big", data.length, out)).isTrue();
+
+        assertThat(out.toByteArray()).isEqualTo(data);
+        assertThat(largestWrite.get()).isLessThanOrEqualTo(64 * 1024);
+        verify(avatarCache, never()).get(anyString(), any());
+    }
+
+    @Test
+    @DisplayName("Небольшое содержимое отдается через кэш, отсутствующее - false")
+    void writeContentDataThroughCache() throws IOException {
+        when(avatarCache.admits(anyLong())).thenReturn(true);
+        when(avatarCache.get(eq("small"), any())).thenReturn(new byte[]{1, 2});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThat(avatarService.writeContentData("small", 2, out)).isTrue();
+        assertThat(avatarService.writeContentData("gone", 2, out)).isFalse();
+
+        assertThat(out.toByteArray()).containsExactly(1, 2);
+    }
+
+    @Test
+    @DisplayName("Загрузки одного студента идут по очереди, разных студентов - параллельно")
+    void concurrentUploads() throws Exception {
+        Student other = new Student();
+        other.setId(2L);
+        when(studentRepository.getById(other.getId())).thenReturn(other);
+        Map<Long, AtomicInteger> inside = Map.of(TEST_STUDENT.getId(), new AtomicInteger(), other.getId(), new AtomicInteger());
+        AtomicInteger sameStudentOverlaps = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        doAnswer(invocation -> {
+            Avatar avatar = invocation.getArgument(0);
+            AtomicInteger student = inside.get(avatar.getStudent().getId());
+            if (student.incrementAndGet() > 1) {
+                sameStudentOverlaps.incrementAndGet();
+            }
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(2);
+            running.decrementAndGet();
+            student.decrementAndGet();
+            return avatar;
+        }).when(avatarRepository).saveAndFlush(any(Avatar.class));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> uploads = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                long studentId = i % 2 == 0 ? TEST_STUDENT.getId() : other.getId();
+                MultipartFile file = multipartFile(1024 + i % 4);
+                uploads.add(executor.submit(() -> {
+                    avatarService.uploadAvatar(studentId, file);
+                    return null;
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(sameStudentOverlaps).hasValue(0);
+        assertThat(maxRunning.get()).isGreaterThan(1);
+        verify(avatarRepository, times(200)).saveAndFlush(any(Avatar.class));
+        try (Stream<Path> files = Files.walk(avatarsDir)) {
+            assertThat(files.filter(Files::isRegularFile)).as("только файлы содержимого, без временных").hasSize(4);
+        }
+    }
+
+    private long allocatedDuringUpload(int size) throws IOException {
+        MultipartFile file = multipartFile(size);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        avatarService.uploadAvatar(TEST_STUDENT.getId(), file);
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private Path shard(String hash) {
+        return avatarsDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static MultipartFile multipartFile(long size) throws IOException {
+        MultipartFile file = mock(MultipartFile.class);
+        lenient().when(file.getOriginalFilename()).thenReturn("avatar.png");
+        lenient().when(file.getContentType()).thenReturn("image/png");
+        lenient().when(file.getSize()).thenReturn(size);
+        lenient().when(file.getInputStream()).thenAnswer(invocation -> new GeneratedInputStream(size));
+        return file;
+    }
+
+    /**
+     * Поток заданной длины без backing-массива, чтобы в замер не попадало само содержимое файла
+     */
+    private static final class GeneratedInputStream extends InputStream {
+        private final long size;
+        private long position;
+
+        private GeneratedInputStream(long size) {
+            this.size = size;
+        }
+
+        @Override
+        public int read() {
+            return position < size ? (int) (position++ & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) {
+                return -1;
+            }
+            int n = (int) Math.min(len, size - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) (position++ & 0xFF);
+            }
+            return n;
+        }
+    }
+}
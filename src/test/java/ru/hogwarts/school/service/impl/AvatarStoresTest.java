@@ -0,0 +1,58 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.service.AvatarStorageEngine;
+
+import java.sql.Blob;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+@ExtendWith(MockitoExtension.class)
+class AvatarStoresTest {
+
+    @Mock
+    private AvatarContentRepository avatarContentRepository;
+
+    @Mock
+    private AvatarStorageEngine avatarStorageEngine;
+
+    @Test
+    @DisplayName("Пока перенос не закончен, содержимое читается из прежнего хранилища")
+    void readerFallsBackToPreviousStore() {
+        AvatarStores stores = stores("file");
+        AvatarContent content = new AvatarContent("hash", 10, "image/png", null, mock(Blob.class));
+
+        assertThat(stores.reader(content)).containsSame(stores.database());
+    }
+
+    @Test
+    @DisplayName("Если содержимое уже в активном хранилище, читается оттуда")
+    void readerPrefersActiveStore() {
+        AvatarStores db = stores("db");
+        AvatarStores file = stores("file");
+        AvatarContent content = new AvatarContent("hash", 10, "image/png", "/avatars/hash", mock(Blob.class));
+
+        assertThat(db.reader(content)).containsSame(db.database());
+        assertThat(file.reader(content)).containsSame(file.fileSystem());
+    }
+
+    @Test
+    @DisplayName("Содержимого нет ни в одном хранилище")
+    void readerEmpty() {
+        AvatarContent content = new AvatarContent("hash", 10, "image/png", null, null);
+
+        assertThat(stores("dual").reader(content)).isEmpty();
+    }
+
+    private AvatarStores stores(String mode) {
+        return new AvatarStores(mode, new DatabaseAvatarStore(avatarContentRepository),
+                new FileSystemAvatarStore(avatarStorageEngine, avatarContentRepository));
+    }
+}
@@ -0,0 +1,224 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.hogwarts.school.model.AvatarContent;
+import ru.hogwarts.school.model.AvatarVariant;
+import ru.hogwarts.school.repositories.AvatarContentRepository;
+import ru.hogwarts.school.repositories.AvatarVariantRepository;
+import ru.hogwarts.school.service.AvatarStore;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class AvatarThumbnailServiceImplTest {
+
+    private static final String OPAQUE = "aa" + "1".repeat(62);
+    private static final String ALPHA = "bb" + "2".repeat(62);
+    private static final String BROKEN = "cc" + "3".repeat(62);
+
+    @TempDir
+    Path avatarsDir;
+
+    @Mock
+    private AvatarContentRepository avatarContentRepository;
+
+    @Mock
+    private AvatarVariantRepository avatarVariantRepository;
+
+    @Mock
+    private AvatarStores avatarStores;
+
+    @Mock
+    private AvatarStore avatarStore;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private FilePerAvatarStorageEngine engine;
+    private SimpleMeterRegistry meterRegistry;
+    private AvatarThumbnailServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        engine = new FilePerAvatarStorageEngine(avatarsDir.toString());
+        meterRegistry = new SimpleMeterRegistry();
+        lenient().when(avatarStores.mode()).thenReturn(AvatarStores.Mode.DUAL);
+        lenient().when(avatarContentRepository.existsById(anyString())).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    @DisplayName("Большая сторона уменьшается до размера; картинка с прозрачностью - PNG, без нее - JPEG")
+    void scalingAndFormat() throws IOException {
+        service = service(1, 10, 40_000_000);
+        source(OPAQUE, image(400, 200, BufferedImage.TYPE_INT_RGB), "png");
+        source(ALPHA, image(100, 100, BufferedImage.TYPE_INT_ARGB), "png");
+
+        service.enqueue(OPAQUE);
+        service.enqueue(ALPHA);
+
+        List<AvatarVariant> variants = saved(4);
+        assertThat(variants).extracting(AvatarVariant::getMediaType)
+                .containsExactly("image/jpeg", "image/jpeg", "image/png", "image/png");
+        assertThat(dimensions(variants.get(0))).containsExactly(64, 32);
+        assertThat(dimensions(variants.get(1))).containsExactly(128, 64);
+        assertThat(dimensions(variants.get(2))).containsExactly(64, 64);
+        assertThat(dimensions(variants.get(3))).as("больше оригинала не растягиваем").containsExactly(100, 100);
+        assertThat(ImageIO.read(new ByteArrayInputStream(variants.get(2).getData())).getColorModel().hasAlpha()).isTrue();
+        assertThat(variants).allSatisfy(variant -> {
+            assertThat(variant.getFileSize()).isEqualTo(variant.getData().length);
+            assertThat(engine.locate(AvatarVariant.storageKey(variant.getContentHash(), variant.getSize(),
+                    variant.getMediaType()))).isPresent();
+        });
+    }
+
+    @Test
+    @DisplayName("Байты миниатюры пишутся туда же, куда avatar.store.mode пишет оригиналы")
+    void followsStoreMode() throws IOException {
+        service = service(1, 10, 40_000_000);
+        source(OPAQUE, image(400, 200, BufferedImage.TYPE_INT_RGB), "png");
+        when(avatarStores.mode()).thenReturn(AvatarStores.Mode.DB);
+
+        service.enqueue(OPAQUE);
+
+        List<AvatarVariant> variants = saved(2);
+        assertThat(variants).allSatisfy(variant -> {
+            assertThat(variant.getData()).isNotNull();
+            assertThat(variant.getFilePath()).isNull();
+        });
+        assertThat(engine.locate(AvatarVariant.storageKey(OPAQUE, 64, "image/jpeg"))).isEmpty();
+
+        reset(avatarVariantRepository);
+        when(avatarStores.mode()).thenReturn(AvatarStores.Mode.FILE);
+        source(ALPHA, image(400, 200, BufferedImage.TYPE_INT_RGB), "png");
+        service.enqueue(ALPHA);
+
+        assertThat(saved(2)).allSatisfy(variant -> {
+            assertThat(variant.getData()).isNull();
+            assertThat(variant.getFilePath()).isNotNull();
+        });
+    }
+
+    @Test
+    @DisplayName("При полной очереди задача отбрасывается со счетчиком, глубина очереди видна в метрике")
+    void rejectsWhenQueueFull() throws InterruptedException {
+        service = service(1, 1, 40_000_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(avatarContentRepository.existsById(OPAQUE)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return false;
+        });
+
+        service.enqueue(OPAQUE);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        service.enqueue(ALPHA);
+        service.enqueue(BROKEN);
+
+        assertThat(service.queueDepth()).isEqualTo(1);
+        assertThat(meterRegistry.get("avatar.thumbnails.queue.depth").gauge().value()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("avatar.thumbnails.rejected").counter().count()).isEqualTo(1.0);
+        release.countDown();
+    }
+
+    @Test
+    @DisplayName("Неподдерживаемый формат и картинка больше бюджета пикселей не читаются повторно")
+    void unreadable() throws IOException {
+        service = service(1, 10, 50_000);
+        AvatarContent broken = source(BROKEN, null, null);
+        when(avatarStore.openStream(broken)).thenAnswer(invocation -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        source(ALPHA, image(400, 200, BufferedImage.TYPE_INT_ARGB), "png");
+        source(OPAQUE, image(200, 200, BufferedImage.TYPE_INT_RGB), "png");
+
+        service.enqueue(BROKEN);
+        service.enqueue(ALPHA);
+        service.enqueue(OPAQUE);
+        // пул из одного потока: раз миниатюры OPAQUE сохранены, BROKEN и ALPHA уже обработаны
+        assertThat(saved(2)).extracting(AvatarVariant::getContentHash).containsOnly(OPAQUE);
+        service.enqueue(BROKEN);
+        service.enqueue(ALPHA);
+
+        verify(avatarContentRepository, after(200).times(1)).existsById(BROKEN);
+        verify(avatarContentRepository, times(1)).existsById(ALPHA);
+        verify(avatarVariantRepository, never()).save(argThat(variant -> !variant.getContentHash().equals(OPAQUE)));
+    }
+
+    @Test
+    @DisplayName("Пока миниатюры нет, отдается оригинал, а генерация ставится в очередь")
+    void fallbackToOriginal() {
+        service = service(1, 10, 40_000_000);
+        when(avatarVariantRepository.findMetadataByContentHashAndSize(OPAQUE, 128)).thenReturn(Optional.empty());
+        when(avatarVariantRepository.existsByContentHashAndSize(OPAQUE, 64)).thenReturn(false);
+
+        assertThat(service.findVariant(OPAQUE, 100)).isEmpty();
+        assertThat(service.findVariant(OPAQUE, 512)).as("больше самой крупной миниатюры - всегда оригинал").isEmpty();
+        assertThat(service.findReadyVariantSize(OPAQUE, 64)).isEmpty();
+
+        verify(avatarContentRepository, timeout(2_000).atLeastOnce()).existsById(OPAQUE);
+        verify(avatarVariantRepository, never()).findMetadataByContentHashAndSize(OPAQUE, 512);
+    }
+
+    private AvatarThumbnailServiceImpl service(int threads, int queueCapacity, long maxPixels) {
+        return new AvatarThumbnailServiceImpl(avatarContentRepository, avatarVariantRepository, engine, avatarStores,
+                transactionManager, meterRegistry, new int[]{128, 64}, threads, queueCapacity, maxPixels);
+    }
+
+    private AvatarContent source(String hash, BufferedImage image, String format) throws IOException {
+        AvatarContent content = new AvatarContent(hash, 0, "image/" + format, null, null);
+        lenient().when(avatarContentRepository.findById(hash)).thenReturn(Optional.of(content));
+        lenient().when(avatarStores.reader(content)).thenReturn(Optional.of(avatarStore));
+        if (image != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, format, out);
+            byte[] bytes = out.toByteArray();
+            lenient().when(avatarStore.openStream(content)).thenAnswer(invocation -> new ByteArrayInputStream(bytes));
+        }
+        return content;
+    }
+
+    private List<AvatarVariant> saved(int count) {
+        ArgumentCaptor<AvatarVariant> captor = ArgumentCaptor.forClass(AvatarVariant.class);
+        verify(avatarVariantRepository, timeout(5_000).times(count)).save(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private int[] dimensions(AvatarVariant variant) throws IOException {
+        byte[] data = variant.getData() != null ? variant.getData()
+                : engine.openStream(AvatarVariant.storageKey(variant.getContentHash(), variant.getSize(),
+                variant.getMediaType())).readAllBytes();
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+        return new int[]{image.getWidth(), image.getHeight()};
+    }
+
+    private static BufferedImage image(int width, int height, int type) {
+        return new BufferedImage(width, height, type);
+    }
+}
@@ -0,0 +1,177 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.exception.NotFoundException;
+import ru.hogwarts.school.exception.UploadConflictException;
+import ru.hogwarts.school.model.AvatarUpload;
+import ru.hogwarts.school.model.AvatarUploadStatus;
+import ru.hogwarts.school.repositories.AvatarUploadRepository;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.service.AvatarService;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class AvatarUploadServiceImplTest {
+
+    private static final long STUDENT_ID = 1L;
+    private static final byte[] DATA = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path avatarsDir;
+
+    @Mock
+    private AvatarUploadRepository avatarUploadRepository;
+
+    @Mock
+    private StudentRepository studentRepository;
+
+    @Mock
+    private AvatarService avatarService;
+
+    private final Map<String, AvatarUpload> uploads = new HashMap<>();
+    private AvatarUploadServiceImpl uploadService;
+
+    @BeforeEach
+    void setUp() {
+        uploadService = new AvatarUploadServiceImpl(avatarUploadRepository, studentRepository, avatarService,
+                new SimpleMeterRegistry(), avatarsDir.toString(), 1, 60);
+        when(studentRepository.existsById(STUDENT_ID)).thenReturn(true);
+        when(avatarUploadRepository.save(any(AvatarUpload.class))).thenAnswer(invocation -> {
+            AvatarUpload upload = invocation.getArgument(0);
+            uploads.put(upload.getId(), upload);
+            return upload;
+        });
+        when(avatarUploadRepository.findById(anyString()))
+                .thenAnswer(invocation -> Optional.ofNullable(uploads.get((String) invocation.getArgument(0))));
+        when(avatarUploadRepository.existsById(anyString()))
+                .thenAnswer(invocation -> uploads.containsKey((String) invocation.getArgument(0)));
+        doAnswer(invocation -> uploads.remove(((AvatarUpload) invocation.getArgument(0)).getId()))
+                .when(avatarUploadRepository).delete(any(AvatarUpload.class));
+    }
+
+    @Test
+    @DisplayName("Части дописываются по смещениям, повтор перезаписывает, завершение назначает файл студенту")
+    void resumeAndComplete() throws IOException {
+        String id = uploadService.createUpload(STUDENT_ID, "image/png", DATA.length).id();
+
+        assertThat(write(id, 0, 0, 4).offset()).isEqualTo(4);
+        assertThat(write(id, 2, 2, 7).offset()).as("повтор уже принятых байтов").isEqualTo(7);
+        assertThatThrownBy(() -> write(id, 8, 8, 10)).isInstanceOf(UploadConflictException.class);
+        assertThat(write(id, 7, 7, 10).offset()).isEqualTo(DATA.length);
+        Path file = avatarsDir.resolve("uploads").resolve(id + ".upload");
+        assertThat(file).hasBinaryContent(DATA);
+
+        uploadService.completeUpload(id, sha256(DATA));
+
+        verify(avatarService).uploadAvatar(STUDENT_ID, file, sha256(DATA), DATA.length, "image/png");
+        assertThat(file).doesNotExist();
+        assertThatThrownBy(() -> uploadService.getUpload(id)).isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("Байты, принятые до обрыва соединения, входят в подтвержденное смещение")
+    void interruptedChunk() throws IOException {
+        String id = uploadService.createUpload(STUDENT_ID, "image/png", DATA.length).id();
+        InputStream broken = new InputStream() {
+            private int sent;
+
+            @Override
+            public int read() throws IOException {
+                if (sent == 6) {
+                    throw new IOException("Соединение разорвано");
+                }
+                return DATA[sent++];
+            }
+        };
+
+        assertThatThrownBy(() -> uploadService.writeChunk(id, 0, broken)).isInstanceOf(IOException.class);
+
+        assertThat(uploadService.getUpload(id).offset()).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("Часть за объявленным размером и завершение недогруженного файла отклоняются")
+    void rejectOutOfBounds() throws IOException {
+        String id = uploadService.createUpload(STUDENT_ID, "image/png", 5).id();
+
+        assertThatThrownBy(() -> write(id, 0, 0, 6)).isInstanceOf(UploadConflictException.class);
+        assertThatThrownBy(() -> uploadService.completeUpload(id, null)).isInstanceOf(UploadConflictException.class);
+        assertThatThrownBy(() -> uploadService.createUpload(STUDENT_ID, "image/png", 2 * 1024 * 1024))
+                .isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> uploadService.createUpload(STUDENT_ID, "text/plain", 5))
+                .isInstanceOf(BadRequestException.class);
+        verify(avatarService, never()).uploadAvatar(anyLong(), any(Path.class), anyString(), anyLong(), anyString());
+    }
+
+    @Test
+    @DisplayName("Несовпавший SHA-256 закрывает сессию без назначения аватара")
+    void checksumMismatch() throws IOException {
+        String id = uploadService.createUpload(STUDENT_ID, "image/png", DATA.length).id();
+        write(id, 0, 0, DATA.length);
+
+        assertThatThrownBy(() -> uploadService.completeUpload(id, sha256(new byte[]{1})))
+                .isInstanceOf(UploadConflictException.class);
+
+        verify(avatarService, never()).uploadAvatar(anyLong(), any(Path.class), anyString(), anyLong(), anyString());
+        assertThat(uploads).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Просроченные сессии удаляются вместе с файлом, активные остаются")
+    void removeExpiredUploads() throws IOException {
+        String expired = uploadService.createUpload(STUDENT_ID, "image/png", DATA.length).id();
+        String active = uploadService.createUpload(STUDENT_ID, "image/png", DATA.length).id();
+        write(expired, 0, 0, 3);
+        write(active, 0, 0, 3);
+        uploads.get(expired).setExpiresAt(Instant.now().minusSeconds(1));
+        when(avatarUploadRepository.findByExpiresAtBefore(any(Instant.class))).thenReturn(List.of(uploads.get(expired)));
+
+        uploadService.removeExpiredUploads();
+
+        assertThat(uploads).containsOnlyKeys(active);
+        assertThat(avatarsDir.resolve("uploads").resolve(expired + ".upload")).doesNotExist();
+        assertThat(uploadService.getUpload(active).offset()).isEqualTo(3);
+    }
+
+    private AvatarUploadStatus write(String id, long offset, int from, int to) throws IOException {
+        return uploadService.writeChunk(id, offset, new ByteArrayInputStream(DATA, from, to - from));
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
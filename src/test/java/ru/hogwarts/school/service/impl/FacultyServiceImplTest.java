@@ -7,11 +7,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
 import ru.hogwarts.school.exception.NotFoundException;
 import ru.hogwarts.school.model.Faculty;
 import ru.hogwarts.school.model.Student;
 import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.repositories.StudentRepository.FacultyAssignmentRow;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -31,6 +34,15 @@ class FacultyServiceImplTest {
     @Mock
     private StudentRepository studentRepository;
 
+    @Mock
+    private StudentAgeStatsRepository studentAgeStatsRepository;
+
+    @Mock
+    private StudentNameIndex studentNameIndex;
+
+    @Mock
+    private StudentAgeIndex studentAgeIndex;
+
     @InjectMocks
     private FacultyServiceImpl facultyService;
 
@@ -108,12 +120,24 @@ class FacultyServiceImplTest {
     @Test
     @DisplayName("Удаление существующего факультета")
     void deleteFaculty() {
+        FacultyAssignmentRow oleg = studentRow(1L, 20);
+        FacultyAssignmentRow gennadiy = studentRow(2L, 22);
+        FacultyAssignmentRow pavel = studentRow(3L, 20);
         when(facultyRepository.findById(TEST_FACULTY_1.getId())).thenReturn(Optional.of(TEST_FACULTY_1));
+        when(studentRepository.lockByFacultyId(TEST_FACULTY_1.getId())).thenReturn(List.of(oleg, gennadiy, pavel));
 
         facultyService.deleteFaculty(TEST_FACULTY_1.getId());
 
         verify(facultyRepository, times(1))
                 .deleteById(TEST_FACULTY_1.getId());
+        verify(studentAgeStatsRepository).add(TEST_FACULTY_1.getId(), 20, -2);
+        verify(studentAgeStatsRepository).add(TEST_FACULTY_1.getId(), 22, -1);
+        verify(studentNameIndex).remove(1L);
+        verify(studentNameIndex).remove(2L);
+        verify(studentNameIndex).remove(3L);
+        verify(studentAgeIndex).remove(1L);
+        verify(studentAgeIndex).remove(2L);
+        verify(studentAgeIndex).remove(3L);
     }
 
     @Test
@@ -188,9 +212,10 @@ class FacultyServiceImplTest {
     @DisplayName("Получение студентов по факультету")
     void getStudentsByFaculty() {
         when(facultyRepository.findById(TEST_FACULTY_1.getId())).thenReturn(Optional.of(TEST_FACULTY_1));
-        when(studentRepository.findAllByFaculty(TEST_FACULTY_1)).thenReturn(Arrays.asList(TEST_STUDENT_1, TEST_STUDENT_2));
+        when(studentRepository.findByFacultyIdAfter(TEST_FACULTY_1.getId(), Long.MIN_VALUE, PageRequest.ofSize(11)))
+                .thenReturn(Arrays.asList(TEST_STUDENT_1, TEST_STUDENT_2));
 
-        List<Student> students = facultyService.getStudentsByFaculty(TEST_FACULTY_1.getId());
+        List<Student> students = facultyService.getStudentsByFaculty(TEST_FACULTY_1.getId(), null, 10).items();
 
         assertThat(students)
                 .describedAs("Список студентов не должен быть пустым")
@@ -205,9 +230,17 @@ class FacultyServiceImplTest {
     void getStudentsByFacultyNotFound() {
         when(facultyRepository.findById(TEST_FACULTY_1.getId())).thenReturn(Optional.empty());
 
-        assertThatThrownBy(() -> facultyService.getStudentsByFaculty(TEST_FACULTY_1.getId()))
+        assertThatThrownBy(() -> facultyService.getStudentsByFaculty(TEST_FACULTY_1.getId(), null, 10))
                 .describedAs("Должно быть выброшено исключение NotFoundException")
                 .isInstanceOf(NotFoundException.class)
                 .hasMessage("Faculty not found with ID: [%s]".formatted(TEST_FACULTY_1.getId()));
     }
+
+    private FacultyAssignmentRow studentRow(long id, int age) {
+        FacultyAssignmentRow row = mock(FacultyAssignmentRow.class);
+        lenient().when(row.getId()).thenReturn(id);
+        lenient().when(row.getFacultyId()).thenReturn(TEST_FACULTY_1.getId());
+        lenient().when(row.getAge()).thenReturn(age);
+        return row;
+    }
 }
\ No newline at end of file
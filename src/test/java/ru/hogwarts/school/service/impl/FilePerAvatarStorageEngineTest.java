@@ -0,0 +1,83 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.hogwarts.school.model.AvatarLocation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FilePerAvatarStorageEngineTest {
+
+    private static final String HASH = "ab12" + "0".repeat(60);
+
+    @TempDir
+    Path avatarsDir;
+
+    private FilePerAvatarStorageEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new FilePerAvatarStorageEngine(avatarsDir.toString());
+    }
+
+    @Test
+    @DisplayName("Содержимое и миниатюры раскладываются по каталогам из первых символов хеша")
+    void shardedLayout() throws IOException {
+        AvatarLocation original = engine.write(HASH, Files.writeString(avatarsDir.resolve("upload.part"), "original"));
+        AvatarLocation variant = engine.write(HASH + "_64.png", bytes("variant"));
+
+        assertThat(original.path()).isEqualTo(avatarsDir.resolve("ab/12/" + HASH));
+        assertThat(variant.path()).isEqualTo(avatarsDir.resolve("ab/12/" + HASH + "_64.png"));
+        assertThat(read(HASH)).isEqualTo("original");
+        assertThat(avatarsDir.resolve("upload.part")).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Файл прежней плоской раскладки читается и переносится в свой каталог")
+    void shardFlatFiles() throws IOException {
+        Files.writeString(avatarsDir.resolve(HASH), "flat");
+        Files.writeString(avatarsDir.resolve("Student{id=1, name='Oleg'}.png"), "legacy");
+        assertThat(read(HASH)).isEqualTo("flat");
+
+        Map<String, Path> moved = new HashMap<>();
+        int count = engine.shardFlatFiles(moved::put);
+
+        assertThat(count).isEqualTo(1);
+        assertThat(moved).containsEntry(HASH, avatarsDir.resolve("ab/12/" + HASH));
+        assertThat(avatarsDir.resolve(HASH)).doesNotExist();
+        assertThat(avatarsDir.resolve("Student{id=1, name='Oleg'}.png")).exists();
+        assertThat(read(HASH)).isEqualTo("flat");
+    }
+
+    @Test
+    @DisplayName("Удаление убирает файл и в новой, и в прежней раскладке")
+    void delete() throws IOException {
+        engine.write(HASH, bytes("sharded"));
+        Files.writeString(avatarsDir.resolve(HASH), "flat");
+
+        engine.delete(HASH);
+
+        assertThat(engine.locate(HASH)).isEmpty();
+        assertThat(avatarsDir.resolve(HASH)).doesNotExist();
+    }
+
+    private String read(String key) throws IOException {
+        try (InputStream is = engine.openStream(key)) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Память и время автодополнения в префиксном дереве на миллион имен, половина - кириллицей.
+ * Память - прирост занятой кучи после сборки мусора: сами строки имен созданы заранее и в замер не входят,
+ * в работе они общие с триграммным индексом. Худший случай по времени - префикс из одного-двух символов
+ * с самым большим поддеревом. Запуск: mvn test -Pbenchmark, БД не нужна.
+ */
+@Tag("benchmark")
+class NameTrieBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(NameTrieBenchmarkTest.class);
+
+    private static final int NAMES = 1_000_000;
+    private static final int QUERIES = 5_000;
+    private static final int LIMIT = 10;
+
+    @Test
+    @DisplayName("Дерево на миллион имен занимает меньше 200 байт на имя, дополнение укладывается в миллисекунду")
+    void footprintAndLatency() {
+        Random random = new Random(42);
+        String[] names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = word(random) + " " + word(random);
+        }
+        long before = usedHeap();
+        NameTrie trie = new NameTrie();
+        long started = System.nanoTime();
+        for (int i = 0; i < NAMES; i++) {
+            trie.put(i + 1, names[i]);
+        }
+        long buildMillis = (System.nanoTime() - started) / 1_000_000;
+        long bytesPerName = (usedHeap() - before) / NAMES;
+        logger.info("Дерево на {} имен построено за {} мс, {} байт на имя", trie.size(), buildMillis, bytesPerName);
+        assertThat(bytesPerName).isLessThan(200);
+
+        for (int length : new int[]{1, 2, 3, 5}) {
+            // первый проход прогревает JIT
+            medianNanos(trie, names, length, random);
+            long median = medianNanos(trie, names, length, random);
+            logger.info("Префикс из {} символов: медиана {} мкс", length, median / 1_000);
+            assertThat(median).isLessThan(1_000_000);
+        }
+    }
+
+    private static long medianNanos(NameTrie trie, String[] names, int length, Random random) {
+        long[] samples = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String prefix = names[random.nextInt(names.length)].substring(0, length);
+            long start = System.nanoTime();
+            trie.complete(prefix, LIMIT);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[QUERIES / 2];
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String word(Random random) {
+        boolean cyrillic = random.nextBoolean();
+        char upper = cyrillic ? 'А' : 'A';
+        char lower = cyrillic ? 'а' : 'a';
+        int letters = cyrillic ? 32 : 26;
+        StringBuilder word = new StringBuilder().append((char) (upper + random.nextInt(letters)));
+        for (int i = 4 + random.nextInt(7); i > 1; i--) {
+            word.append((char) (lower + random.nextInt(letters)));
+        }
+        return word.toString();
+    }
+}
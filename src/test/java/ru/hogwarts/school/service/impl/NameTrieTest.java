@@ -0,0 +1,92 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NameTrieTest {
+
+    private NameTrie trie;
+
+    @BeforeEach
+    void setUp() {
+        trie = new NameTrie();
+        trie.put(1L, "Harry Potter");
+        trie.put(2L, "Harry");
+        trie.put(3L, "Hermione");
+        trie.put(4L, "Hagrid");
+        trie.put(5L, "harry");
+    }
+
+    @Test
+    @DisplayName("Сначала короткие имена, при равной длине - по алфавиту, одинаковые после приведения - по ID")
+    void ranking() {
+        assertThat(trie.complete("H", 10)).containsExactly(2L, 5L, 4L, 3L, 1L);
+        assertThat(trie.complete("hA", 2)).containsExactly(2L, 5L);
+        assertThat(trie.complete("harry p", 10)).containsExactly(1L);
+        assertThat(trie.complete("harz", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Кириллица: регистр, \"ё\"/\"е\" и \"й\" из буквы с отдельным знаком не различаются")
+    void cyrillicFolding() {
+        trie.put(6L, "Ёжиков");
+        trie.put(7L, "ежик");
+        trie.put(8L, "Йозеф");
+
+        assertThat(trie.complete("ЕЖ", 10)).containsExactly(7L, 6L);
+        assertThat(trie.complete("ёжи", 10)).containsExactly(7L, 6L);
+        assertThat(trie.complete("йо", 10)).containsExactly(8L);
+        assertThat(trie.complete("ио", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Длина для ранжирования - у исходного имени, а не у приведенного (\"ß\" - \"ss\")")
+    void rankByOriginalLength() {
+        NameTrie names = new NameTrie();
+        names.put(1L, "Grossen");
+        names.put(2L, "Großes");
+        names.put(3L, "STRASSE");
+        names.put(4L, "Straße");
+
+        assertThat(names.complete("gro", 10)).containsExactly(2L, 1L);
+        assertThat(names.complete("stra", 10)).containsExactly(4L, 3L);
+
+        names.remove(4L, "Straße");
+        assertThat(names.complete("s", 10)).containsExactly(3L);
+        assertThat(names.complete("", 10)).containsExactly(2L, 1L, 3L);
+    }
+
+    @Test
+    @DisplayName("Удаление склеивает опустевшие ветви, оставшиеся имена находятся")
+    void remove() {
+        trie.remove(2L, "Harry");
+        trie.remove(5L, "harry");
+        trie.remove(4L, "Hagrid");
+        trie.remove(42L, "Harry");
+
+        assertThat(trie.size()).isEqualTo(2);
+        assertThat(trie.complete("h", 10)).containsExactly(3L, 1L);
+        assertThat(trie.complete("harry", 10)).containsExactly(1L);
+
+        trie.put(2L, "Harry");
+        assertThat(trie.complete("har", 10)).containsExactly(2L, 1L);
+    }
+
+    @Test
+    @DisplayName("Много имен с общим началом: расщепление и склейка ребер без потери записей")
+    void manyNames() {
+        for (long id = 100; id < 20_000; id++) {
+            trie.put(id, "Student " + id);
+        }
+        for (long id = 100; id < 20_000; id += 2) {
+            trie.remove(id, "Student " + id);
+        }
+
+        assertThat(trie.size()).isEqualTo(5 + 9_950);
+        assertThat(trie.complete("student 1999", 10)).containsExactly(1999L, 19991L, 19993L, 19995L, 19997L, 19999L);
+        assertThat(trie.complete("student 1000", 10)).containsExactly(10001L, 10003L, 10005L, 10007L, 10009L);
+    }
+}
@@ -0,0 +1,121 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Время поиска по подстроке в индексе на миллион имен с частыми слогами, как в настоящих ФИО.
+ * Худший случай - самая частая тройка символов: одна длинная цепочка без пересечения, для нее проверяется
+ * 99-й перцентиль; для начал настоящих имен - медиана. Запуск: mvn test -Pbenchmark, БД не нужна.
+ */
+@Tag("benchmark")
+class NameTrigramIndexBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(NameTrigramIndexBenchmarkTest.class);
+
+    private static final int NAMES = 1_000_000;
+    private static final int QUERIES = 5_000;
+    private static final int LIMIT = 20;
+
+    private static final String[] FIRST_NAMES = {
+            "Иван", "Мария", "Александр", "Елена", "Сергей", "Ольга", "Дмитрий", "Анна", "Андрей", "Татьяна",
+            "Михаил", "Наталья", "Алексей", "Екатерина", "Николай", "Ирина", "Павел", "Светлана", "Евгений", "Юлия"
+    };
+    private static final String[] ROOTS = {
+            "Иван", "Петр", "Смирн", "Кузнец", "Попов", "Васил", "Соколов", "Михайл", "Новик", "Федор",
+            "Морозов", "Волк", "Алекс", "Лебед", "Семен", "Егор", "Павл", "Козл", "Степан", "Никол",
+            "Орл", "Андре", "Макар", "Зайц", "Соловь", "Борис", "Яковл", "Григорь", "Роман", "Воробь"
+    };
+    private static final String[] SUFFIXES = {"ова", "ов", "ева", "ев", "ин", "ина", "ельев", "ельева", "ский", "ская"};
+
+    @Test
+    @DisplayName("Поиск самой частой тройки среди миллиона имен укладывается в миллисекунду по 99-му перцентилю")
+    void searchLatency() {
+        Random random = new Random(42);
+        NameTrigramIndex index = new NameTrigramIndex();
+        Map<Long, int[]> frequency = new HashMap<>();
+        List<String> sample = new ArrayList<>();
+        long started = System.nanoTime();
+        for (long id = 1; id <= NAMES; id++) {
+            String name = skewed(FIRST_NAMES, random) + " " + skewed(ROOTS, random) + skewed(SUFFIXES, random);
+            index.put(id, name);
+            for (long trigram : NameTrigramIndex.trigrams(NameFolding.fold(name))) {
+                frequency.computeIfAbsent(trigram, key -> new int[1])[0]++;
+            }
+            if (id % 100 == 0) {
+                sample.add(name);
+            }
+        }
+        logger.info("Индекс на {} имен построен за {} мс", NAMES, (System.nanoTime() - started) / 1_000_000);
+
+        Map.Entry<Long, int[]> top = frequency.entrySet().stream()
+                .max((left, right) -> Integer.compare(left.getValue()[0], right.getValue()[0]))
+                .orElseThrow();
+        String frequent = decode(top.getKey());
+        List<String> repeated = List.of(frequent);
+        // первый проход прогревает JIT
+        percentiles(index, repeated, frequent.length(), random);
+        long[] worst = percentiles(index, repeated, frequent.length(), random);
+        logger.info("Самая частая тройка \"{}\" ({} имен): медиана {} мкс, p99 {} мкс",
+                frequent, top.getValue()[0], worst[0] / 1_000, worst[1] / 1_000);
+        assertThat(worst[1]).isLessThan(1_000_000);
+
+        for (int length : new int[]{3, 4, 6}) {
+            percentiles(index, sample, length, random);
+            long[] latency = percentiles(index, sample, length, random);
+            logger.info("Запрос из {} символов: медиана {} мкс, p99 {} мкс", length, latency[0] / 1_000, latency[1] / 1_000);
+            assertThat(latency[0]).isLessThan(1_000_000);
+        }
+    }
+
+    /**
+     * @return медиана и 99-й перцентиль в наносекундах
+     */
+    private static long[] percentiles(NameTrigramIndex index, List<String> sample, int length, Random random) {
+        long[] samples = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String name = sample.get(random.nextInt(sample.size()));
+            String query = name.substring(0, length);
+            long start = System.nanoTime();
+            index.search(query, LIMIT);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return new long[]{samples[QUERIES / 2], samples[QUERIES * 99 / 100]};
+    }
+
+    /**
+     * Первые элементы выпадают чаще: вес элемента обратно пропорционален его номеру
+     */
+    private static String skewed(String[] values, Random random) {
+        double harmonic = 0;
+        for (int i = 1; i <= values.length; i++) {
+            harmonic += 1.0 / i;
+        }
+        double point = random.nextDouble() * harmonic;
+        for (int i = 0; i < values.length; i++) {
+            point -= 1.0 / (i + 1);
+            if (point <= 0) {
+                return values[i];
+            }
+        }
+        return values[values.length - 1];
+    }
+
+    private static String decode(long trigram) {
+        int mask = (1 << 21) - 1;
+        return new String(new int[]{(int) (trigram >>> 42), (int) (trigram >>> 21) & mask, (int) trigram & mask}, 0, 3);
+    }
+}
@@ -0,0 +1,104 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import ru.hogwarts.school.model.StudentNameMatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NameTrigramIndexTest {
+
+    private NameTrigramIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new NameTrigramIndex();
+        index.put(1L, "Harry Potter");
+        index.put(2L, "Harry");
+        index.put(3L, "Sharry");
+        index.put(4L, "Potter Harrys");
+        index.put(5L, "xHARRY");
+    }
+
+    @Test
+    @DisplayName("Без учета регистра: полное имя, начало имени, начало слова, затем остальные; внутри - короче и с меньшим ID")
+    void ranking() {
+        assertThat(index.search("hARRy", 10)).extracting(StudentNameMatch::id).containsExactly(2L, 1L, 4L, 3L, 5L);
+        assertThat(index.search("harry", 2)).extracting(StudentNameMatch::id).containsExactly(2L, 1L);
+        assertThat(index.search("Pot", 10)).extracting(StudentNameMatch::name).containsExactly("Potter Harrys", "Harry Potter");
+    }
+
+    @Test
+    @DisplayName("Приведение общее с автодополнением: \"ё\"/\"е\", \"ß\"/\"ss\", буква с отдельным знаком")
+    void folding() {
+        index.put(6L, "Алёна");
+        index.put(7L, "Straße");
+        index.put(8L, "Андре\u0439");
+
+        assertThat(index.search("Алена", 10)).extracting(StudentNameMatch::id).containsExactly(6L);
+        assertThat(index.search("АЛЁН", 10)).extracting(StudentNameMatch::id).containsExactly(6L);
+        assertThat(index.search("strasse", 10)).extracting(StudentNameMatch::name).containsExactly("Straße");
+        assertThat(index.search("андрей", 10)).extracting(StudentNameMatch::id).containsExactly(8L);
+    }
+
+    @Test
+    @DisplayName("Все тройки запроса в имени, но не подряд - не совпадение")
+    void verifiesCandidates() {
+        index.put(6L, "abcXbcd");
+
+        assertThat(index.search("abcd", 10)).isEmpty();
+        assertThat(index.search("xbcd", 10)).extracting(StudentNameMatch::id).containsExactly(6L);
+    }
+
+    @Test
+    @DisplayName("Смена имени и удаление убирают студента из прежних списков")
+    void updateAndRemove() {
+        index.put(2L, "Ginny");
+        index.remove(1L);
+        index.remove(42L);
+
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.search("harry", 10)).extracting(StudentNameMatch::id).containsExactly(4L, 3L, 5L);
+        assertThat(index.search("inn", 10)).extracting(StudentNameMatch::id).containsExactly(2L);
+        assertThat(index.search("potter", 10)).extracting(StudentNameMatch::id).containsExactly(4L);
+    }
+
+    @Test
+    @DisplayName("Частая тройка: просмотр останавливается на limit полных совпадениях или на пределе кандидатов")
+    void boundedScan() {
+        index.put(6L, "Harry");
+        assertThat(index.search("harry", 1)).extracting(StudentNameMatch::id).containsExactly(2L);
+        assertThat(index.search("harry", 2)).extracting(StudentNameMatch::id).containsExactly(2L, 6L);
+
+        NameTrigramIndex frequent = new NameTrigramIndex();
+        for (long id = 1; id <= NameTrigramIndex.MAX_CANDIDATES; id++) {
+            frequent.put(id, "Xova" + id);
+        }
+        frequent.put(NameTrigramIndex.MAX_CANDIDATES + 1L, "ova");
+        assertThat(frequent.search("ova", 1)).extracting(StudentNameMatch::id).containsExactly(1L);
+    }
+
+    @Test
+    @DisplayName("Запрос короче трех символов не обслуживается триграммами")
+    void shortQuery() {
+        assertThatThrownBy(() -> index.search(" ha ", 10)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Таблицы растут и сжимают цепочки при удалении без потери записей")
+    void manyNames() {
+        for (long id = 100; id < 20_000; id++) {
+            index.put(id, "Student " + id);
+        }
+        for (long id = 100; id < 20_000; id += 2) {
+            index.remove(id);
+        }
+
+        assertThat(index.size()).isEqualTo(5 + 9_950);
+        assertThat(index.search("student 1999", 10)).extracting(StudentNameMatch::id).containsExactly(1999L, 19991L,
+                19993L, 19995L, 19997L, 19999L);
+        assertThat(index.search("t 10000", 10)).isEmpty();
+    }
+}
@@ -0,0 +1,178 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.hogwarts.school.model.AvatarLocation;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentStorageEngineTest {
+
+    @TempDir
+    Path avatarsDir;
+
+    private SegmentStorageEngine engine;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        engine = open(1);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        engine.close();
+    }
+
+    @Test
+    @DisplayName("Записанное содержимое читается и указывает на участок сегмента")
+    void writeAndRead() throws IOException {
+        engine.write("a", bytes("first"));
+        AvatarLocation location = engine.write("b", bytes("second"));
+
+        assertThat(read("a")).isEqualTo("first");
+        assertThat(read("b")).isEqualTo("second");
+        assertThat(location.length()).isEqualTo(6);
+        try (FileChannel channel = FileChannel.open(location.path())) {
+            assertThat(channel.map(FileChannel.MapMode.READ_ONLY, location.offset(), location.length()))
+                    .isEqualTo(ByteBuffer.wrap(bytes("second")));
+        }
+    }
+
+    @Test
+    @DisplayName("Запись из файла-источника")
+    void writeFromFile() throws IOException {
+        Path source = Files.writeString(avatarsDir.resolve("upload.part"), "from file");
+
+        engine.write("a", source);
+
+        assertThat(read("a")).isEqualTo("from file");
+    }
+
+    @Test
+    @DisplayName("После перезапуска индекс восстанавливается, удаленные ключи не воскресают")
+    void recover() throws IOException {
+        engine.write("a", bytes("first"));
+        engine.write("b", bytes("second"));
+        engine.delete("a");
+        engine.close();
+
+        engine = open(1);
+
+        assertThat(engine.locate("a")).isEmpty();
+        assertThat(read("b")).isEqualTo("second");
+    }
+
+    @Test
+    @DisplayName("Оборванная последняя запись отрезается при старте")
+    void recoverTruncatedTail() throws IOException {
+        engine.write("a", bytes("first"));
+        AvatarLocation torn = engine.write("b", bytes("second"));
+        engine.close();
+        try (FileChannel channel = FileChannel.open(torn.path(), StandardOpenOption.WRITE)) {
+            channel.truncate(torn.offset() + 2);
+        }
+
+        engine = open(1);
+
+        assertThat(read("a")).isEqualTo("first");
+        assertThat(engine.locate("b")).isEmpty();
+        engine.write("c", bytes("third"));
+        assertThat(read("c")).isEqualTo("third");
+    }
+
+    @Test
+    @DisplayName("Испорченная CRC отбрасывает запись")
+    void recoverCorruptedRecord() throws IOException {
+        AvatarLocation location = engine.write("a", bytes("first"));
+        engine.close();
+        try (FileChannel channel = FileChannel.open(location.path(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes("X")), location.offset());
+        }
+
+        engine = open(1);
+
+        assertThatThrownBy(() -> engine.openStream("a")).isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    @DisplayName("Сжатие переносит живые записи и удаляет старый сегмент")
+    void compact() throws IOException {
+        byte[] big = new byte[600 * 1024];
+        engine.write("dead", big);
+        engine.write("live", bytes("keep me"));
+        engine.write("next", big);
+        engine.delete("dead");
+        assertThat(engine.segmentCount()).isEqualTo(2);
+
+        engine.compact();
+        engine.compact();
+
+        assertThat(engine.segmentCount()).isEqualTo(1);
+        assertThat(read("live")).isEqualTo("keep me");
+        assertThat(engine.locate("dead")).isEmpty();
+
+        engine.close();
+        engine = open(1);
+        assertThat(read("live")).isEqualTo("keep me");
+        assertThat(engine.locate("dead")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Надгробие переносится, пока в старом сегменте есть PUT ключа, и отбрасывается после")
+    void compactDropsObsoleteTombstones() throws IOException {
+        byte[] big = new byte[600 * 1024];
+        // живой сегмент старше всех надгробий: его наличие само по себе не должно их удерживать
+        engine.write("keep", big);
+        engine.write("dead", big);
+        engine.write("filler", big);
+        engine.delete("dead");
+        engine.delete("filler");
+        engine.write("next", big);
+
+        // второй сегмент сжимается вместе с первым: надгробие "dead" еще нужно, "filler" - уже нет
+        engine.compact();
+        engine.delete("next");
+        engine.write("more", big);
+        engine.compact();
+        engine.compact();
+
+        assertThat(engine.segmentCount()).isEqualTo(2);
+        assertThat(engine.deadBytes()).isZero();
+        engine.close();
+        engine = open(1);
+        assertThat(engine.locate("dead")).isEmpty();
+        assertThat(engine.locate("filler")).isEmpty();
+        assertThat(engine.locate("next")).isEmpty();
+        assertThat(read("more")).hasSize(big.length);
+        assertThat(read("keep")).hasSize(big.length);
+    }
+
+    private SegmentStorageEngine open(long maxSegmentSizeMb) throws IOException {
+        return new SegmentStorageEngine(avatarsDir.toString(), maxSegmentSizeMb, false, 0.5, new SimpleMeterRegistry());
+    }
+
+    private String read(String key) throws IOException {
+        try (InputStream is = engine.openStream(key)) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package ru.hogwarts.school.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.repositories.StudentRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StudentExportServiceImplTest {
+
+    @Mock
+    private StudentRepository studentRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private StudentExportServiceImpl exportService;
+
+    @BeforeEach
+    void setUp() {
+        exportService = new StudentExportServiceImpl(studentRepository, transactionManager, new ObjectMapper());
+    }
+
+    @Test
+    @DisplayName("Каждый студент - отдельная строка JSON, курсор читается в read-only транзакции")
+    void exportStudents() throws IOException {
+        StudentProjection harry = projection(1L, "Harry \"The Boy\"", 17);
+        StudentProjection hermione = projection(2L, "Hermione", 18);
+        when(studentRepository.streamForExport(null, Integer.MIN_VALUE, Integer.MAX_VALUE))
+                .thenReturn(Stream.of(harry, hermione));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long exported = exportService.exportStudents(null, null, null, out);
+
+        assertThat(exported).isEqualTo(2);
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("""
+                {"id":1,"name":"Harry \\"The Boy\\"","age":17}
+                {"id":2,"name":"Hermione","age":18}
+                """);
+        verify(transactionManager).getTransaction(argThat(TransactionDefinition::isReadOnly));
+    }
+
+    @Test
+    @DisplayName("Фильтры передаются в запрос")
+    void exportStudentsFiltered() throws IOException {
+        when(studentRepository.streamForExport(1L, 17, 18)).thenReturn(Stream.empty());
+
+        assertThat(exportService.exportStudents(1L, 17, 18, new ByteArrayOutputStream())).isZero();
+    }
+
+    private static StudentProjection projection(long id, String name, int age) {
+        StudentProjection projection = mock(StudentProjection.class);
+        when(projection.getId()).thenReturn(id);
+        when(projection.getName()).thenReturn(name);
+        when(projection.getAge()).thenReturn(age);
+        return projection;
+    }
+}
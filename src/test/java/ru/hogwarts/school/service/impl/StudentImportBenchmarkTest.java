@@ -0,0 +1,102 @@
+package ru.hogwarts.school.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.hogwarts.school.model.StudentImportReport;
+import ru.hogwarts.school.service.StudentImportService;
+
+import java.io.Reader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Пропускная способность импорта студентов из CSV на миллионе строк: первый проход создает студентов,
+ * второй обновляет тех же. Файл генерируется на лету и в память целиком не попадает.
+ * Запуск: mvn test -Pbenchmark, нужна БД из application.properties.
+ */
+@Tag("benchmark")
+@SpringBootTest
+class StudentImportBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(StudentImportBenchmarkTest.class);
+
+    private static final int ROWS = 1_000_000;
+    private static final int FACULTIES = 20;
+    private static final String STUDENT_PREFIX = "Import benchmark ";
+    private static final String FACULTY_PREFIX = "Import benchmark faculty ";
+
+    @Autowired
+    private StudentImportService studentImportService;
+
+    @Autowired
+    private StudentStatsReconciler studentStatsReconciler;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM student WHERE name LIKE ?", STUDENT_PREFIX + "%");
+        jdbcTemplate.update("DELETE FROM faculty WHERE name LIKE ?", FACULTY_PREFIX + "%");
+        studentStatsReconciler.reconcile();
+    }
+
+    @Test
+    @DisplayName("Миллион строк создается и затем обновляется без отказов")
+    void importThroughput() throws Exception {
+        StudentImportReport inserted = timed("создание", csv(0));
+        StudentImportReport updated = timed("обновление", csv(1));
+
+        assertThat(inserted.inserted()).isEqualTo(ROWS);
+        assertThat(updated.updated()).isEqualTo(ROWS);
+        assertThat(inserted.failed() + updated.failed()).isZero();
+    }
+
+    private StudentImportReport timed(String pass, Reader csv) throws Exception {
+        long start = System.nanoTime();
+        StudentImportReport report = studentImportService.importStudents(csv);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        logger.info("Импорт {} строк, {}: {} с, {} строк/с", ROWS, pass, seconds, Math.round(ROWS / seconds));
+        return report;
+    }
+
+    /**
+     * @param ageShift сдвиг возраста, чтобы второй проход действительно менял строки
+     */
+    private static Reader csv(int ageShift) {
+        return new Reader() {
+            private int row = -1;
+            private String current = "";
+            private int position;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                if (position == current.length()) {
+                    if (row == ROWS) {
+                        return -1;
+                    }
+                    current = row < 0 ? "name,age,faculty_name,faculty_color\n"
+                            : STUDENT_PREFIX + row + "," + (16 + (row + ageShift) % 10) + ","
+                            + FACULTY_PREFIX + row % FACULTIES + ",benchmark\n";
+                    row++;
+                    position = 0;
+                }
+                int count = Math.min(length, current.length() - position);
+                current.getChars(position, position + count, buffer, offset);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
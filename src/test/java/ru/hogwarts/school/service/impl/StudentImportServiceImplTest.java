@@ -0,0 +1,252 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.model.StudentBatchResult.Reason;
+import ru.hogwarts.school.model.StudentImportReport;
+import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.FacultyRepository.FacultyKeyRow;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
+import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.repositories.StudentRepository.ImportTargetRow;
+import ru.hogwarts.school.repositories.StudentRepository.UpsertedRow;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class StudentImportServiceImplTest {
+
+    private static final String CSV = """
+            name,age,faculty_name,faculty_color
+            Harry,17,Gryffindor,red
+            "Granger, Hermione",18,Gryffindor,red
+            Ron,abc,,
+            Draco,12,Slytherin,green
+            Neville,17,Gryffindor,
+            Luna,17,,
+            Harry,18,Gryffindor,red
+            """;
+
+    @Mock
+    private StudentRepository studentRepository;
+
+    @Mock
+    private FacultyRepository facultyRepository;
+
+    @Mock
+    private StudentAgeStatsRepository studentAgeStatsRepository;
+
+    @Mock
+    private StudentNameIndex studentNameIndex;
+
+    @Mock
+    private StudentAgeIndex studentAgeIndex;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private StudentImportServiceImpl importService;
+
+    @BeforeEach
+    void setUp() {
+        importService = service(2);
+        when(studentRepository.upsertByName(any(), any(), any(), any())).thenAnswer(invocation -> {
+            Long[] ids = invocation.getArgument(0);
+            String[] names = invocation.getArgument(1);
+            List<UpsertedRow> rows = new ArrayList<>();
+            for (int i = 0; i < ids.length; i++) {
+                rows.add(upserted(ids[i], names[i]));
+            }
+            return rows;
+        });
+    }
+
+    @Test
+    @DisplayName("Строки проходят проверку, факультет ищется один раз, новые студенты создаются, существующие обновляются")
+    void importStudents() throws IOException {
+        FacultyKeyRow gryffindor = faculty(5L, "Gryffindor", "red");
+        ImportTargetRow luna = target(7L, "Luna", 0L, 16);
+        ImportTargetRow harry = target(101L, "Harry", 5L, 17);
+        when(facultyRepository.findByNamesAndColors(new String[]{"Gryffindor"}, new String[]{"red"}))
+                .thenReturn(List.of(gryffindor));
+        when(studentRepository.lockForImport(new String[]{"Luna"})).thenReturn(List.of(luna));
+        when(studentRepository.lockForImport(new String[]{"Harry"})).thenReturn(List.of(harry));
+        when(studentRepository.nextIdBlocks(1)).thenReturn(List.of(150L));
+
+        StudentImportReport report = importService.importStudents(new StringReader(CSV));
+
+        assertThat(report.finished()).isTrue();
+        assertThat(report.error()).isNull();
+        assertThat(report.read()).isEqualTo(7);
+        assertThat(report.inserted()).isEqualTo(2);
+        assertThat(report.updated()).isEqualTo(2);
+        assertThat(report.failed()).isEqualTo(3);
+        assertThat(report.failures())
+                .extracting(StudentImportReport.Failure::line, StudentImportReport.Failure::reason)
+                .containsExactly(tuple(4L, Reason.INVALID), tuple(5L, Reason.AGE_CONSTRAINT), tuple(6L, Reason.INVALID));
+        verify(facultyRepository).insertMissing(new String[]{"Gryffindor"}, new String[]{"red"});
+        verify(studentRepository).upsertByName(new Long[]{101L, 102L}, new String[]{"Harry", "Granger, Hermione"},
+                new Integer[]{17, 18}, new Long[]{5L, 5L});
+        verify(studentRepository).upsertByName(new Long[]{7L}, new String[]{"Luna"}, new Integer[]{17}, new Long[]{null});
+        verify(studentRepository).upsertByName(new Long[]{101L}, new String[]{"Harry"}, new Integer[]{18}, new Long[]{5L});
+        verify(studentAgeStatsRepository).add(0L, 16, -1L);
+        verify(studentAgeStatsRepository).add(0L, 17, 1L);
+        verify(studentAgeStatsRepository).add(5L, 17, 1L);
+        verify(studentAgeStatsRepository).add(5L, 17, -1L);
+        verify(studentAgeStatsRepository, times(2)).add(5L, 18, 1L);
+        verify(studentAgeIndex).put(101L, 17);
+        verify(studentAgeIndex).put(101L, 18);
+        verify(studentAgeIndex).put(102L, 18);
+        verify(studentAgeIndex).put(7L, 17);
+        verify(studentNameIndex, times(2)).put(101L, "Harry");
+        verify(studentNameIndex).put(102L, "Granger, Hermione");
+        verify(studentNameIndex).put(7L, "Luna");
+        assertThat(importService.getRunningImports()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Повтор имени внутри пачки записывается один раз - побеждает последняя строка")
+    void duplicateNameInBatch() throws IOException {
+        when(studentRepository.nextIdBlocks(1)).thenReturn(List.of(50L));
+
+        StudentImportReport report = service(10).importStudents(new StringReader("""
+                age,name
+                17,Harry
+                18,Harry
+                """));
+
+        assertThat(report.inserted()).isEqualTo(1);
+        assertThat(report.updated()).isEqualTo(1);
+        verify(studentRepository).upsertByName(new Long[]{1L}, new String[]{"Harry"}, new Integer[]{18}, new Long[]{null});
+        verify(studentAgeStatsRepository).add(0L, 18, 1L);
+    }
+
+    @Test
+    @DisplayName("Оборванный файл: прочитанное до обрыва записывается, обрыв попадает в отчет")
+    void brokenCsv() throws IOException {
+        when(studentRepository.nextIdBlocks(1)).thenReturn(List.of(50L));
+
+        StudentImportReport report = importService.importStudents(new StringReader("""
+                name,age
+                Harry,17
+                "Hermione,18
+                """));
+
+        assertThat(report.inserted()).isEqualTo(1);
+        assertThat(report.failures())
+                .extracting(StudentImportReport.Failure::line, StudentImportReport.Failure::reason)
+                .containsExactly(tuple(3L, Reason.FAILED));
+        verify(studentRepository).upsertByName(new Long[]{1L}, new String[]{"Harry"}, new Integer[]{17}, new Long[]{null});
+    }
+
+    @Test
+    @DisplayName("BOM в начале файла не мешает узнать первую колонку")
+    void byteOrderMark() throws IOException {
+        when(studentRepository.nextIdBlocks(1)).thenReturn(List.of(50L));
+
+        StudentImportReport report = importService.importStudents(new StringReader("\uFEFFname,age\nHarry,17\n"));
+
+        assertThat(report.error()).isNull();
+        assertThat(report.inserted()).isEqualTo(1);
+        verify(studentRepository).upsertByName(new Long[]{1L}, new String[]{"Harry"}, new Integer[]{17}, new Long[]{null});
+    }
+
+    @Test
+    @DisplayName("Без заголовка с name и age импорт не начинается")
+    void missingColumns() {
+        assertThatThrownBy(() -> importService.importStudents(new StringReader("name,faculty_name\nHarry,Gryffindor\n")))
+                .isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> importService.importStudents(new StringReader("")))
+                .isInstanceOf(BadRequestException.class);
+        verifyNoInteractions(studentRepository, facultyRepository);
+    }
+
+    @Test
+    @DisplayName("Ошибка записи пачки отклоняет ее строки, остальные пачки пишутся")
+    void failedBatch() throws IOException {
+        when(studentRepository.nextIdBlocks(1)).thenReturn(List.of(50L));
+        doThrow(new DataIntegrityViolationException("name_unique"))
+                .when(studentRepository).upsertByName(any(), eq(new String[]{"Harry", "Hermione"}), any(), any());
+
+        StudentImportReport report = importService.importStudents(new StringReader("""
+                name,age
+                Harry,17
+                Hermione,18
+                Ron,17
+                """));
+
+        assertThat(report.inserted()).isEqualTo(1);
+        assertThat(report.failed()).isEqualTo(2);
+        assertThat(report.error()).isNull();
+    }
+
+    @Test
+    @DisplayName("Студента с тем же именем параллельно создали: в индексы попадает его ID, а не выделенный импортом")
+    void concurrentInsert() throws IOException {
+        when(studentRepository.nextIdBlocks(1)).thenReturn(List.of(50L));
+        when(studentRepository.upsertByName(new Long[]{1L}, new String[]{"Harry"}, new Integer[]{17}, new Long[]{null}))
+                .thenReturn(List.of(upserted(900L, "Harry")));
+
+        importService.importStudents(new StringReader("name,age\nHarry,17\n"));
+
+        verify(studentNameIndex).put(900L, "Harry");
+        verify(studentAgeIndex).put(900L, 17);
+        verify(studentNameIndex, never()).put(eq(1L), anyString());
+        verify(studentAgeIndex, never()).put(eq(1L), anyInt());
+    }
+
+    private StudentImportServiceImpl service(int batchSize) {
+        return new StudentImportServiceImpl(studentRepository, facultyRepository, studentAgeStatsRepository,
+                studentNameIndex, studentAgeIndex, transactionManager, new SimpleMeterRegistry(), batchSize, 1, 1);
+    }
+
+    private static FacultyKeyRow faculty(long id, String name, String color) {
+        FacultyKeyRow row = mock(FacultyKeyRow.class);
+        when(row.getId()).thenReturn(id);
+        when(row.getName()).thenReturn(name);
+        when(row.getColor()).thenReturn(color);
+        return row;
+    }
+
+    private static UpsertedRow upserted(long id, String name) {
+        return new UpsertedRow() {
+            @Override
+            public long getId() {
+                return id;
+            }
+
+            @Override
+            public String getName() {
+                return name;
+            }
+        };
+    }
+
+    private static ImportTargetRow target(long id, String name, long facultyId, int age) {
+        ImportTargetRow row = mock(ImportTargetRow.class);
+        when(row.getId()).thenReturn(id);
+        when(row.getName()).thenReturn(name);
+        when(row.getFacultyId()).thenReturn(facultyId);
+        when(row.getAge()).thenReturn(age);
+        return row;
+    }
+}
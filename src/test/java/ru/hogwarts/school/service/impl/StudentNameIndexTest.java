@@ -0,0 +1,86 @@
+package ru.hogwarts.school.service.impl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.model.StudentNameMatch;
+import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.repositories.StudentRepository;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class StudentNameIndexTest {
+
+    @Mock
+    private StudentRepository studentRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private StudentNameIndex nameIndex;
+
+    @BeforeEach
+    void setUp() {
+        nameIndex = new StudentNameIndex(studentRepository, transactionManager, new SimpleMeterRegistry(), 600_000);
+    }
+
+    @Test
+    @DisplayName("Пока индекс не построен, поиск читает из БД ограниченную страницу проекций")
+    void searchBeforeBuild() {
+        StudentProjection harry = projection(1L, "Гарри Поттер");
+        when(studentRepository.findByNameContainsIgnoreCaseOrderById("гарри", PageRequest.ofSize(1000)))
+                .thenReturn(List.of(harry));
+
+        assertThat(nameIndex.search(" гарри ", 10)).containsExactly(new StudentNameMatch(1L, "Гарри Поттер"));
+        verify(studentRepository, never()).findByNameContainsIgnoreCase(anyString());
+    }
+
+    @Test
+    @DisplayName("После сборки поиск идет по индексу, удаление вне транзакции применяется сразу")
+    void searchAfterBuild() {
+        StudentProjection harry = projection(1L, "Гарри Поттер");
+        StudentProjection ron = projection(2L, "Рон Уизли");
+        when(studentRepository.streamForExport(null, Integer.MIN_VALUE, Integer.MAX_VALUE))
+                .thenReturn(Stream.of(harry, ron));
+
+        nameIndex.rebuild();
+        nameIndex.remove(2L);
+
+        assertThat(nameIndex.search("гарри", 10)).containsExactly(new StudentNameMatch(1L, "Гарри Поттер"));
+        assertThat(nameIndex.search("уизли", 10)).isEmpty();
+        verify(studentRepository, never()).findByNameContainsIgnoreCaseOrderById(anyString(), any());
+    }
+
+    @Test
+    @DisplayName("Короткий или пустой после приведения запрос к построенному индексу - ошибка запроса")
+    void shortQueryAfterBuild() {
+        StudentProjection harry = projection(1L, "Гарри Поттер");
+        when(studentRepository.streamForExport(null, Integer.MIN_VALUE, Integer.MAX_VALUE))
+                .thenReturn(Stream.of(harry));
+
+        nameIndex.rebuild();
+
+        assertThatThrownBy(() -> nameIndex.search("ab", 10)).isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> nameIndex.search("   ", 10)).isInstanceOf(BadRequestException.class);
+    }
+
+    private static StudentProjection projection(long id, String name) {
+        StudentProjection projection = mock(StudentProjection.class);
+        lenient().when(projection.getId()).thenReturn(id);
+        lenient().when(projection.getName()).thenReturn(name);
+        return projection;
+    }
+}
@@ -4,21 +4,43 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.hogwarts.school.exception.BadRequestException;
+import ru.hogwarts.school.exception.InvalidCursorException;
 import ru.hogwarts.school.exception.NotFoundException;
 import ru.hogwarts.school.model.Faculty;
+import ru.hogwarts.school.model.FacultyAssignmentResult;
+import ru.hogwarts.school.model.KeysetPage;
 import ru.hogwarts.school.model.Student;
+import ru.hogwarts.school.model.StudentAgeStats;
+import ru.hogwarts.school.model.StudentBatchResult;
+import ru.hogwarts.school.model.StudentNameKeyProjection;
+import ru.hogwarts.school.model.StudentNameMatch;
+import ru.hogwarts.school.model.StudentProjection;
+import ru.hogwarts.school.model.StudentStats;
 import ru.hogwarts.school.repositories.FacultyRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository;
+import ru.hogwarts.school.repositories.StudentAgeStatsRepository.AgeBucket;
 import ru.hogwarts.school.repositories.StudentRepository;
+import ru.hogwarts.school.repositories.StudentRepository.FacultyAssignmentRow;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
@@ -31,6 +53,18 @@ class StudentServiceImplTest {
     @Mock
     private FacultyRepository facultyRepository;
 
+    @Mock
+    private StudentAgeStatsRepository studentAgeStatsRepository;
+
+    @Mock
+    private StudentNameIndex studentNameIndex;
+
+    @Mock
+    private StudentAgeIndex studentAgeIndex;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @InjectMocks
     private StudentServiceImpl studentService;
 
@@ -61,12 +95,80 @@ class StudentServiceImplTest {
     @Test
     @DisplayName("Создание студента")
     void createStudent() {
-        when(studentRepository.save(TEST_STUDENT_1)).thenReturn(TEST_STUDENT_1);
+        Student saved = new Student("Test Student 1", 20);
+        saved.setId(1L);
+        saved.setFaculty(TEST_FACULTY);
+        when(studentRepository.save(TEST_STUDENT_1)).thenReturn(saved);
 
         Student createdStudent = studentService.createStudent(TEST_STUDENT_1);
 
-        assertThat(createdStudent).isNotNull();
-        assertThat(createdStudent).isEqualTo(TEST_STUDENT_1);
+        assertThat(TEST_STUDENT_1.getId()).as("ID из тела запроса не используется").isNull();
+        assertThat(createdStudent).isEqualTo(saved);
+        verify(studentAgeStatsRepository).add(TEST_FACULTY.getId(), 20, 1);
+        verify(studentNameIndex).put(1L, "Test Student 1");
+    }
+
+    @Test
+    @DisplayName("Пакетное создание: отказы по строкам, остальные строки одной пакетной вставкой")
+    void createStudents() {
+        List<Student> students = List.of(TEST_STUDENT_1, new Student("Young", 10), new Student("Test Student 1", 30),
+                new Student("Taken", 20), new Student(" ", 20), TEST_STUDENT_2);
+        when(studentRepository.findExistingNames(List.of("Test Student 1", "Taken", "Test Student 2")))
+                .thenReturn(List.of("Taken"));
+        List<Student> inserted = new ArrayList<>();
+        List<Long> idsBeforeSave = new ArrayList<>();
+        when(studentRepository.saveAllAndFlush(anyCollection())).thenAnswer(invocation -> {
+            for (Student student : invocation.<Collection<Student>>getArgument(0)) {
+                idsBeforeSave.add(student.getId());
+                inserted.add(student);
+                student.setId(100L + inserted.size());
+            }
+            return List.copyOf(inserted);
+        });
+
+        StudentBatchResult result = studentService.createStudents(students);
+
+        assertThat(result.created()).isEqualTo(2);
+        assertThat(result.failures()).extracting(StudentBatchResult.Failure::index, StudentBatchResult.Failure::reason)
+                .containsExactly(tuple(1, StudentBatchResult.Reason.AGE_CONSTRAINT),
+                        tuple(2, StudentBatchResult.Reason.DUPLICATE_NAME),
+                        tuple(3, StudentBatchResult.Reason.DUPLICATE_NAME),
+                        tuple(4, StudentBatchResult.Reason.INVALID));
+        assertThat(inserted).extracting(Student::getName).containsExactly("Test Student 1", "Test Student 2");
+        assertThat(idsBeforeSave).as("ID из запроса не используются").containsOnlyNulls();
+        verify(studentAgeStatsRepository).add(TEST_FACULTY.getId(), 20, 1);
+        verify(studentAgeStatsRepository).add(TEST_FACULTY.getId(), 22, 1);
+        verify(studentNameIndex).put(101L, "Test Student 1");
+        verify(studentNameIndex).put(102L, "Test Student 2");
+        verify(studentAgeIndex).put(101L, 20);
+        verify(studentAgeIndex).put(102L, 22);
+    }
+
+    @Test
+    @DisplayName("Нарушение ограничения в пакете - повтор построчно, отказывает только нарушившая строка")
+    void createStudentsRetriesRowByRow() {
+        when(studentRepository.saveAllAndFlush(anyCollection()))
+                .thenThrow(new DataIntegrityViolationException("duplicate key value violates unique constraint \"name_unique\""));
+        when(studentRepository.saveAndFlush(any(Student.class))).thenAnswer(invocation -> {
+            Student student = invocation.getArgument(0);
+            if (student.getName().equals(TEST_STUDENT_2.getName())) {
+                throw new DataIntegrityViolationException("duplicate key value violates unique constraint \"name_unique\"");
+            }
+            student.setId(101L);
+            return student;
+        });
+
+        StudentBatchResult result = studentService.createStudents(List.of(TEST_STUDENT_1, TEST_STUDENT_2));
+
+        assertThat(result.created()).isEqualTo(1);
+        assertThat(result.failures()).extracting(StudentBatchResult.Failure::index, StudentBatchResult.Failure::reason)
+                .containsExactly(tuple(1, StudentBatchResult.Reason.DUPLICATE_NAME));
+        verify(studentAgeStatsRepository).add(TEST_FACULTY.getId(), 20, 1);
+        verify(studentAgeStatsRepository, never()).add(TEST_FACULTY.getId(), 22, 1);
+        verify(studentAgeIndex).put(101L, 20);
+        verify(studentAgeIndex, never()).put(anyLong(), eq(22));
+        verify(studentNameIndex).put(101L, "Test Student 1");
+        verify(studentNameIndex, never()).put(anyLong(), eq("Test Student 2"));
     }
 
     @Test
@@ -106,11 +208,61 @@ class StudentServiceImplTest {
     @Test
     @DisplayName("Удаление существующего студента")
     void deleteStudent() {
+        AgeBucket bucket = bucket(1L, 20);
         when(studentRepository.findById(TEST_STUDENT_1.getId())).thenReturn(Optional.of(TEST_STUDENT_1));
+        when(studentAgeStatsRepository.lockStudentBucket(TEST_STUDENT_1.getId())).thenReturn(Optional.of(bucket));
 
         studentService.deleteStudent(TEST_STUDENT_1.getId());
 
         verify(studentRepository, times(1)).deleteById(TEST_STUDENT_1.getId());
+        verify(studentAgeStatsRepository).add(1L, 20, -1);
+        verify(studentNameIndex).remove(TEST_STUDENT_1.getId());
+    }
+
+    @Test
+    @DisplayName("Редактирование без смены возраста и факультета не трогает счетчики")
+    void editStudentKeepsStats() {
+        AgeBucket bucket = bucket(1L, 20);
+        when(studentRepository.existsById(TEST_STUDENT_1.getId())).thenReturn(true);
+        when(studentAgeStatsRepository.lockStudentBucket(TEST_STUDENT_1.getId())).thenReturn(Optional.of(bucket));
+        when(studentRepository.save(TEST_STUDENT_1)).thenReturn(TEST_STUDENT_1);
+
+        studentService.editStudent(TEST_STUDENT_1);
+
+        verify(studentAgeStatsRepository, never()).add(anyLong(), anyInt(), anyLong());
+    }
+
+    @Test
+    @DisplayName("Назначение факультета переносит студента между счетчиками в порядке ключа")
+    void assignFacultyMovesStats() {
+        AgeBucket bucket = bucket(StudentAgeStats.NO_FACULTY, 20);
+        when(studentRepository.findById(TEST_STUDENT_1.getId())).thenReturn(Optional.of(TEST_STUDENT_1));
+        when(facultyRepository.findById(TEST_FACULTY.getId())).thenReturn(Optional.of(TEST_FACULTY));
+        when(studentAgeStatsRepository.lockStudentBucket(TEST_STUDENT_1.getId())).thenReturn(Optional.of(bucket));
+        when(studentRepository.save(TEST_STUDENT_1)).thenReturn(TEST_STUDENT_1);
+
+        studentService.assignFacultyToStudent(TEST_STUDENT_1.getId(), TEST_FACULTY.getId());
+
+        InOrder order = inOrder(studentAgeStatsRepository);
+        order.verify(studentAgeStatsRepository).add(StudentAgeStats.NO_FACULTY, 20, -1);
+        order.verify(studentAgeStatsRepository).add(TEST_FACULTY.getId(), 20, 1);
+    }
+
+    @Test
+    @DisplayName("Сводка собирается из счетчиков: всего и по факультетам")
+    void getStats() {
+        when(studentAgeStatsRepository.findNonEmpty()).thenReturn(List.of(
+                new StudentAgeStats(1L, 20, 2), new StudentAgeStats(1L, 24, 1), new StudentAgeStats(2L, 18, 1)));
+
+        StudentStats total = studentService.getStats();
+        Map<Long, StudentStats> byFaculty = studentService.getStatsByFaculty();
+
+        assertThat(total).isEqualTo(new StudentStats(4, 82, 18, 24));
+        assertThat(total.averageAge()).isEqualTo(20.5);
+        assertThat(studentService.countAllStudents()).isEqualTo(4);
+        assertThat(byFaculty).containsExactly(
+                Map.entry(1L, new StudentStats(3, 64, 20, 24)),
+                Map.entry(2L, new StudentStats(1, 18, 18, 18)));
     }
 
     @Test
@@ -124,14 +276,126 @@ class StudentServiceImplTest {
     }
 
     @Test
-    @DisplayName("Поиск студентов по возрасту в диапазоне")
+    @DisplayName("Поиск студентов по возрасту в диапазоне: страница по ключу и курсор следующей")
     void findByAgeBetween() {
-        when(studentRepository.findByAgeBetween(20, 22)).thenReturn(Arrays.asList(TEST_STUDENT_1, TEST_STUDENT_2));
+        when(studentRepository.findByAgeBetweenAfter(20, 22, Integer.MIN_VALUE, Long.MIN_VALUE, PageRequest.ofSize(2)))
+                .thenReturn(Arrays.asList(TEST_STUDENT_1, TEST_STUDENT_2));
+        when(studentRepository.findByAgeBetweenAfter(20, 22, 20, 1L, PageRequest.ofSize(2)))
+                .thenReturn(List.of(TEST_STUDENT_2));
+
+        KeysetPage<Student> first = studentService.findByAgeBetween(20, 22, null, 1);
+        KeysetPage<Student> second = studentService.findByAgeBetween(20, 22, first.nextCursor(), 1);
+
+        assertThat(first.items()).containsExactly(TEST_STUDENT_1);
+        assertThat(first.nextCursor()).isNotNull();
+        assertThat(second.items()).containsExactly(TEST_STUDENT_2);
+        assertThat(second.nextCursor()).isNull();
+    }
 
-        List<Student> students = studentService.findByAgeBetween(20, 22);
+    @Test
+    @DisplayName("Поиск по возрасту через индекс: студенты загружаются по ID страницы, отставшие от индекса отбрасываются")
+    void findByAgeBetweenFromIndex() {
+        Student aged = new Student("Aged", 30);
+        aged.setId(3L);
+        when(studentAgeIndex.findByAgeBetween(20, 22, null, 10))
+                .thenReturn(new KeysetPage<>(List.of(2L, 1L, 3L, 4L), "next"));
+        when(studentRepository.findAllById(List.of(2L, 1L, 3L, 4L)))
+                .thenReturn(List.of(TEST_STUDENT_1, aged, TEST_STUDENT_2));
+
+        KeysetPage<Student> page = studentService.findByAgeBetween(20, 22, null, 10);
+
+        assertThat(page.items()).containsExactly(TEST_STUDENT_2, TEST_STUDENT_1);
+        assertThat(page.nextCursor()).isEqualTo("next");
+        verify(studentRepository, never()).findByAgeBetweenAfter(anyInt(), anyInt(), anyInt(), anyLong(), any());
+    }
 
-        assertThat(students).isNotEmpty();
-        assertThat(students).containsExactlyInAnyOrder(TEST_STUDENT_1, TEST_STUDENT_2);
+    @Test
+    @DisplayName("Поврежденный курсор - InvalidCursorException без запроса в БД")
+    void findByAgeBetweenInvalidCursor() {
+        assertThatThrownBy(() -> studentService.findByAgeBetween(20, 22, "not-a-cursor", 10))
+                .isInstanceOf(InvalidCursorException.class);
+
+        verifyNoInteractions(studentRepository);
+    }
+
+    @Test
+    @DisplayName("Поиск по префиксу имени: диапазон ключей в нижнем регистре и курсор по ключу из БД")
+    void findByNameStartingWith() {
+        StudentNameKeyProjection anna = nameKeyProjection(3L, "Анна", "анна");
+        StudentNameKeyProjection artem = nameKeyProjection(4L, "Артем", "артем");
+        when(studentRepository.findByNamePrefix("б", "а", Long.MIN_VALUE, PageRequest.ofSize(2)))
+                .thenReturn(List.of(anna, artem));
+        when(studentRepository.findByNamePrefix("б", "анна", 3L, PageRequest.ofSize(2)))
+                .thenReturn(List.of(artem));
+
+        KeysetPage<StudentProjection> first = studentService.findByNameStartingWith("А", null, 1);
+        KeysetPage<StudentProjection> second = studentService.findByNameStartingWith("А", first.nextCursor(), 1);
+
+        assertThat(first.items()).containsExactly(anna);
+        assertThat(second.items()).containsExactly(artem);
+        assertThat(second.nextCursor()).isNull();
+        assertThatThrownBy(() -> studentService.findByNameStartingWith(" ", null, 1))
+                .isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    @DisplayName("Поиск по подстроке имени идет по индексу, limit ограничен")
+    void searchByName() {
+        List<StudentNameMatch> matches = List.of(new StudentNameMatch(1L, "Test Student 1"));
+        when(studentNameIndex.search("stud", 20)).thenReturn(matches);
+
+        assertThat(studentService.searchByName("stud", 20)).isEqualTo(matches);
+        assertThatThrownBy(() -> studentService.searchByName("stud", 0)).isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> studentService.searchByName("stud", 101)).isInstanceOf(BadRequestException.class);
+        verifyNoInteractions(studentRepository);
+    }
+
+    @Test
+    @DisplayName("Автодополнение идет по индексу, пустое начало имени и limit вне 1..100 отклоняются")
+    void autocomplete() {
+        List<StudentNameMatch> matches = List.of(new StudentNameMatch(1L, "Ёжиков"));
+        when(studentNameIndex.autocomplete("еж", 10)).thenReturn(matches);
+
+        assertThat(studentService.autocomplete("еж", 10)).isEqualTo(matches);
+        assertThatThrownBy(() -> studentService.autocomplete("  ", 10)).isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> studentService.autocomplete("еж", 101)).isInstanceOf(BadRequestException.class);
+        verifyNoInteractions(studentRepository);
+    }
+
+    @Test
+    @DisplayName("Верхняя граница префикса - следующий символ после последнего")
+    void prefixEnd() {
+        assertThat(StudentServiceImpl.prefixEnd("а")).isEqualTo("б");
+        assertThat(StudentServiceImpl.prefixEnd("ab")).isEqualTo("ac");
+        assertThat(StudentServiceImpl.prefixEnd("a\uD83D\uDE00")).isEqualTo("a\uD83D\uDE01");
+        assertThat(StudentServiceImpl.prefixEnd("a\uD7FF")).as("суррогатный диапазон перескакивается").isEqualTo("a\uE000");
+        assertThat(StudentServiceImpl.prefixEnd("a\uDBFF\uDFFF")).as("U+10FFFF - перенос в предыдущий символ").isEqualTo("b");
+        assertThatThrownBy(() -> StudentServiceImpl.prefixEnd("\uDBFF\uDFFF")).isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    @DisplayName("Гистограмма складывает факультеты, процентили считаются по ближайшему рангу")
+    void ageHistogramAndPercentiles() {
+        // индекс по возрасту еще не построен
+        when(studentAgeIndex.histogram()).thenReturn(null);
+        when(studentAgeStatsRepository.findNonEmpty()).thenReturn(List.of(
+                new StudentAgeStats(1L, 20, 2), new StudentAgeStats(2L, 20, 3),
+                new StudentAgeStats(1L, 18, 4), new StudentAgeStats(2L, 30, 1)));
+
+        assertThat(studentService.getAgeHistogram()).containsExactly(Map.entry(18, 4L), Map.entry(20, 5L), Map.entry(30, 1L));
+        assertThat(studentService.getAgePercentiles(List.of(40.0, 50.0, 90.0, 100.0)))
+                .containsExactly(Map.entry(40.0, 18), Map.entry(50.0, 20), Map.entry(90.0, 20), Map.entry(100.0, 30));
+        assertThatThrownBy(() -> studentService.getAgePercentiles(List.of(0.0)))
+                .isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    @DisplayName("Гистограмма возрастов из построенного индекса, без счетчиков")
+    void ageHistogramFromIndex() {
+        when(studentAgeIndex.histogram()).thenReturn(new TreeMap<>(Map.of(20, 2L, 22, 1L)));
+
+        assertThat(studentService.getAgeHistogram()).containsExactly(Map.entry(20, 2L), Map.entry(22, 1L));
+        verifyNoInteractions(studentAgeStatsRepository);
     }
 
     @Test
@@ -181,4 +445,62 @@ class StudentServiceImplTest {
         verify(facultyRepository, times(1)).findById(TEST_FACULTY.getId());
         verify(studentRepository, times(1)).save(any(Student.class));
     }
+
+    @Test
+    @DisplayName("Массовое назначение факультета: один запрос проверки, один UPDATE, итог по каждому ID")
+    void assignFacultyToStudents() {
+        FacultyAssignmentRow moving = assignmentRow(1L, StudentAgeStats.NO_FACULTY, 20);
+        FacultyAssignmentRow staying = assignmentRow(2L, TEST_FACULTY.getId(), 22);
+        when(facultyRepository.existsById(TEST_FACULTY.getId())).thenReturn(true);
+        when(studentRepository.lockForFacultyAssignment(new Long[]{1L, 2L, 3L})).thenReturn(List.of(moving, staying));
+
+        FacultyAssignmentResult result = studentService.assignFacultyToStudents(TEST_FACULTY.getId(), List.of(1L, 2L, 3L, 1L));
+
+        assertThat(result).isEqualTo(new FacultyAssignmentResult(TEST_FACULTY.getId(), List.of(1L), List.of(2L), List.of(3L)));
+        verify(studentRepository).updateFaculty(new Long[]{1L}, TEST_FACULTY.getId());
+        verify(studentRepository, never()).findById(anyLong());
+        verify(studentAgeStatsRepository).add(StudentAgeStats.NO_FACULTY, 20, -1);
+        verify(studentAgeStatsRepository).add(TEST_FACULTY.getId(), 20, 1);
+    }
+
+    @Test
+    @DisplayName("Массовое назначение несуществующего факультета не трогает студентов")
+    void assignFacultyToStudentsFacultyNotFound() {
+        when(facultyRepository.existsById(TEST_FACULTY.getId())).thenReturn(false);
+
+        assertThatThrownBy(() -> studentService.assignFacultyToStudentRange(TEST_FACULTY.getId(), 1L, 100L))
+                .isInstanceOf(NotFoundException.class);
+
+        verifyNoInteractions(studentRepository);
+    }
+
+    private static FacultyAssignmentRow assignmentRow(long id, long facultyId, int age) {
+        FacultyAssignmentRow row = mock(FacultyAssignmentRow.class);
+        lenient().when(row.getId()).thenReturn(id);
+        lenient().when(row.getFacultyId()).thenReturn(facultyId);
+        lenient().when(row.getAge()).thenReturn(age);
+        return row;
+    }
+
+    private static AgeBucket bucket(long facultyId, int age) {
+        AgeBucket bucket = mock(AgeBucket.class);
+        lenient().when(bucket.getFacultyId()).thenReturn(facultyId);
+        lenient().when(bucket.getAge()).thenReturn(age);
+        return bucket;
+    }
+
+    private static StudentNameKeyProjection nameKeyProjection(long id, String name, String nameKey) {
+        StudentNameKeyProjection projection = mock(StudentNameKeyProjection.class);
+        lenient().when(projection.getId()).thenReturn(id);
+        lenient().when(projection.getName()).thenReturn(name);
+        lenient().when(projection.getNameKey()).thenReturn(nameKey);
+        return projection;
+    }
+
+    private static StudentProjection projection(long id, String name) {
+        StudentProjection projection = mock(StudentProjection.class);
+        lenient().when(projection.getId()).thenReturn(id);
+        lenient().when(projection.getName()).thenReturn(name);
+        return projection;
+    }
 }
\ No newline at end of file